@@ -0,0 +1,75 @@
+/**
+ * 
+ * LiquidFunProcessing | Copyright 2017 Thomas Diewald - www.thomasdiewald.com
+ * 
+ * https://github.com/diwi/LiquidFunProcessing.git
+ * 
+ * Box2d / LiquidFun Library for Processing.
+ * MIT License: https://opensource.org/licenses/MIT
+ * 
+ */
+
+
+
+package com.thomasdiewald.liquidfun.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.jbox2d.particle.ParticleType;
+
+import com.thomasdiewald.liquidfun.java.DwParticleEmitter;
+import com.thomasdiewald.liquidfun.java.DwWorld;
+
+
+
+/**
+ * 
+ * {@link com.thomasdiewald.liquidfun.java.DwParticleEmitter#emitParticles(int)},
+ * into an empty DamBreak scene. The world is created anew for each
+ * invocation, not timed.<br>
+ * 
+ * @author Thomas Diewald
+ * 
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+public class EmitParticlesBenchmark {
+
+  @Param({"2000", "8000", "32000"})
+  public int particles;
+
+  protected DwWorld world;
+  protected DwParticleEmitter emitter;
+
+  @Setup(Level.Invocation)
+  public void setup(){
+    world = HeadlessScenes.createWorld();
+    HeadlessScenes.sceneDamBreak(world, 0);
+    emitter = new DwParticleEmitter(world, world.transform);
+    emitter.setInWorld(0, world.transform.box2d_dimy * 0.5f, 10, 90, 0xFF0080FF, ParticleType.b2_waterParticle);
+  }
+
+  @Benchmark
+  public int emitParticles(){
+    emitter.emitParticles(particles);
+    return world.getParticleCount();
+  }
+
+}
@@ -0,0 +1,83 @@
+/**
+ * 
+ * LiquidFunProcessing | Copyright 2017 Thomas Diewald - www.thomasdiewald.com
+ * 
+ * https://github.com/diwi/LiquidFunProcessing.git
+ * 
+ * Box2d / LiquidFun Library for Processing.
+ * MIT License: https://opensource.org/licenses/MIT
+ * 
+ */
+
+
+
+package com.thomasdiewald.liquidfun.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import org.jbox2d.particle.ParticleGroup;
+
+import com.thomasdiewald.liquidfun.java.DwWorld;
+import com.thomasdiewald.liquidfun.java.render.DwParticleRenderGroupCallback;
+
+
+
+/**
+ * 
+ * {@link com.thomasdiewald.liquidfun.java.render.DwParticleRender#generateParticleGroups()},
+ * full rebuild and incremental, with 4 render groups on the DamBreak scene.<br>
+ * 
+ * @author Thomas Diewald
+ * 
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+public class GenerateParticleGroupsBenchmark {
+
+  @Param({"2000", "8000", "32000"})
+  public int particles;
+
+  @Param({"false", "true"})
+  public boolean incremental;
+
+  protected DwWorld world;
+
+  @Setup
+  public void setup(){
+    world = HeadlessScenes.createWorld();
+    HeadlessScenes.sceneDamBreak(world, particles);
+    world.particles.useGroups(true);
+    world.particles.useIncrementalGroups(incremental);
+    world.particles.setParticleRenderGroupCallback(new DwParticleRenderGroupCallback() {
+      @Override
+      public int getRenderGroupIndex(int particle_idx, ParticleGroup group, int particle_flag) {
+        return particle_idx & 3;
+      }
+    });
+    world.update();
+  }
+
+  @Benchmark
+  public void generateParticleGroups(Blackhole bh){
+    world.particles.generateParticleGroups();
+    bh.consume(world.particles.buf_idx);
+  }
+
+}
@@ -0,0 +1,331 @@
+/**
+ * 
+ * LiquidFunProcessing | Copyright 2017 Thomas Diewald - www.thomasdiewald.com
+ * 
+ * https://github.com/diwi/LiquidFunProcessing.git
+ * 
+ * Box2d / LiquidFun Library for Processing.
+ * MIT License: https://opensource.org/licenses/MIT
+ * 
+ */
+
+
+
+package com.thomasdiewald.liquidfun.benchmark;
+
+import com.thomasdiewald.liquidfun.java.DwWorld;
+import com.thomasdiewald.liquidfun.java.render.DwBodyGroup;
+import com.thomasdiewald.liquidfun.java.render.DwParticleRender;
+
+import org.jbox2d.collision.shapes.ChainShape;
+import org.jbox2d.collision.shapes.CircleShape;
+import org.jbox2d.collision.shapes.PolygonShape;
+import org.jbox2d.common.MathUtils;
+import org.jbox2d.common.Vec2;
+import org.jbox2d.dynamics.Body;
+import org.jbox2d.dynamics.BodyDef;
+import org.jbox2d.dynamics.BodyType;
+import org.jbox2d.dynamics.FixtureDef;
+import org.jbox2d.dynamics.joints.PrismaticJointDef;
+import org.jbox2d.dynamics.joints.RevoluteJointDef;
+import org.jbox2d.particle.ParticleGroupDef;
+import org.jbox2d.particle.ParticleType;
+
+import processing.core.PApplet;
+import processing.core.PConstants;
+import processing.core.PImage;
+import processing.core.PShape;
+import processing.opengl.PGraphics2D;
+
+
+
+/**
+ * 
+ * Headless scene fixtures for the benchmarks, no window, no OpenGL.<br>
+ * <br>
+ * The scenes are modeled on the DamBreak, CircleStressTest and PistonStressTest
+ * examples, and run on a headless DwWorld. Body-shapes are plain PShapes (no
+ * renderer), particle buffers are updated on the CPU only.<br>
+ * 
+ * @author Thomas Diewald
+ * 
+ */
+public class HeadlessScenes {
+
+  //////////////////////////////////////////////////////////////////////////////
+  // Headless World
+  //////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * creates PShapes without a renderer.
+   */
+  static class HeadlessShapes extends PApplet {
+    @Override
+    public PShape createShape(){
+      return new PShape(PShape.PATH);
+    }
+    @Override
+    public PShape createShape(int type){
+      return new PShape(type == PConstants.GROUP ? PConstants.GROUP : PShape.PATH);
+    }
+    @Override
+    public PShape createShape(int kind, float... p){
+      return new PShape(null, kind, p);
+    }
+  }
+
+  /**
+   * particle renderer, that only updates the CPU buffers.
+   */
+  static class HeadlessParticles extends DwParticleRender {
+    HeadlessParticles(DwWorld world){
+      super(null, world, world.transform);
+      param.tex_sprite = new PImage(1, 1);
+    }
+    @Override
+    public void update(){
+      generateParticleGroups();
+      updateBuffers();
+    }
+    @Override
+    public void display(PGraphics2D canvas){
+    }
+  }
+
+  static protected final PApplet headless = new HeadlessShapes();
+
+  static public DwWorld createWorld(){
+    DwWorld world = new DwWorld(1280, 720, 18);
+    world.setBodyRender(new DwBodyGroup(headless, world, world.transform));
+    world.setParticleRender(new HeadlessParticles(world));
+    return world;
+  }
+
+
+
+  //////////////////////////////////////////////////////////////////////////////
+  // Scenes
+  //////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * liquidfun_DamBreak: two particle boxes, with about "count" particles.
+   */
+  static public void sceneDamBreak(DwWorld world, int count){
+    float dimx = world.transform.box2d_dimx;
+    float dimy = world.transform.box2d_dimy;
+
+    float dimxh = dimx/2;
+    float dimyh = dimy/2;
+
+    {
+      BodyDef bd = new BodyDef();
+      Body ground = world.createBody(bd);
+
+      ChainShape shape = new ChainShape();
+      Vec2[] vertices = {new Vec2(-dimxh, 0), new Vec2(dimxh, 0), new Vec2(dimxh, dimy), new Vec2(-dimxh, dimy)};
+      shape.createLoop(vertices, 4);
+      ground.createFixture(shape, 0.0f);
+
+      world.bodies.add(ground, false, 0, true, 0, 1f);
+    }
+
+    if(count > 0){
+      // particles per box, on a grid with the default stride
+      float stride = world.getParticleRadius() * 2 * 0.75f;
+      float side = (float) Math.sqrt(count / 2f) * stride;
+
+      PolygonShape shape = new PolygonShape();
+      ParticleGroupDef pd = new ParticleGroupDef();
+      pd.flags = ParticleType.b2_waterParticle | ParticleType.b2_viscousParticle | ParticleType.b2_colorMixingParticle;
+
+      float sx = Math.min(side * 0.5f, dimxh * 0.45f);
+      float sy = Math.min(side * side * 0.25f / sx, dimyh * 0.95f);
+
+      shape.setAsBox(sx, sy, new Vec2(-dimxh/2, sy), 0);
+      pd.shape = shape;
+      pd.setColor(0xFF0033FF);
+      world.createParticleGroup(pd);
+
+      shape.setAsBox(sx, sy, new Vec2(+dimxh/2, sy), 0);
+      pd.shape = shape;
+      pd.setColor(0xFFFF3300);
+      world.createParticleGroup(pd);
+    }
+  }
+
+
+  /**
+   * box2d_CircleStressTest: box with a motorized wheel, and "count" circles.
+   */
+  static public void sceneCircleStress(DwWorld world, int count){
+    Body ground = world.createBody(new BodyDef());
+
+    {
+      PolygonShape sd = new PolygonShape();
+      BodyDef bd = new BodyDef();
+      bd.type = BodyType.STATIC;
+
+      sd.setAsBox(50.0f, 10.0f);
+      bd.position.set(0.0f, -10.0f);
+      world.createBody(bd).createFixture(sd, 0);
+
+      sd.setAsBox(3.0f, 50.0f);
+      bd.position.set(45.0f, 25.0f);
+      world.createBody(bd).createFixture(sd, 0);
+      bd.position.set(-45.0f, 25.0f);
+      world.createBody(bd).createFixture(sd, 0);
+
+      world.bodies.addAll(true, false);
+    }
+
+    {
+      BodyDef bd = new BodyDef();
+      bd.type = BodyType.DYNAMIC;
+      bd.position.set(0.0f, 10.0f);
+      Body body = world.createBody(bd);
+      for (int i = 0; i < 5; i++) {
+        CircleShape cd = new CircleShape();
+        cd.m_radius = 1.2f;
+        cd.m_p.set(6f * MathUtils.cos(MathUtils.TWOPI * i / 5f), 6f * MathUtils.sin(MathUtils.TWOPI * i / 5f));
+        body.createFixture(cd, 25);
+      }
+
+      RevoluteJointDef rjd = new RevoluteJointDef();
+      rjd.initialize(body, ground, body.getPosition());
+      rjd.motorSpeed = MathUtils.PI * 2;
+      rjd.maxMotorTorque = 1000000.0f;
+      rjd.enableMotor = true;
+      world.createJoint(rjd);
+
+      world.bodies.add(body, true, 0xFFFF4020, false, 0, 1f);
+    }
+
+    {
+      int load_size = 41;
+      for (int i = 0; i < count; i++) {
+        CircleShape circ = new CircleShape();
+        circ.m_radius = 1.0f + ((i % 2 == 0) ? 1.0f : -1.0f) * 0.25f;
+        FixtureDef fd = new FixtureDef();
+        fd.shape = circ;
+        fd.density = circ.m_radius * 1.5f;
+        fd.friction = 0.5f;
+        fd.restitution = 0.7f;
+        BodyDef bd = new BodyDef();
+        bd.type = BodyType.DYNAMIC;
+        bd.position.set(-39f + 2 * (i % load_size), 50f + i / load_size);
+        Body body = world.createBody(bd);
+        body.createFixture(fd);
+
+        world.bodies.add(body, true, 0xDC20AAFF, false, 0, 1f);
+      }
+    }
+  }
+
+
+  /**
+   * box2d_PistonStressTest: crank, follower, piston and "count" payload bodies.
+   */
+  static public void scenePistonStress(DwWorld world, int count){
+    Body ground = world.createBody(new BodyDef());
+
+    {
+      PolygonShape shape = new PolygonShape();
+      BodyDef bd = new BodyDef();
+      bd.type = BodyType.STATIC;
+      Body bsides = world.createBody(bd);
+      shape.setAsBox(5.0f, 100.0f, new Vec2(-10.15f, 50.0f), 0);
+      bsides.createFixture(shape, 0);
+      shape.setAsBox(5.0f, 100.0f, new Vec2(+10.15f, 50.0f), 0);
+      bsides.createFixture(shape, 0);
+      world.bodies.add(bsides, true, 0, true, 0, 1f);
+    }
+
+    Body prev = ground;
+
+    // crank
+    {
+      PolygonShape shape = new PolygonShape();
+      shape.setAsBox(0.5f, 2.0f);
+      BodyDef bd = new BodyDef();
+      bd.type = BodyType.DYNAMIC;
+      bd.position.set(0.0f, 7.0f);
+      Body body = world.createBody(bd);
+      body.createFixture(shape, 2.0f);
+
+      RevoluteJointDef rjd = new RevoluteJointDef();
+      rjd.initialize(prev, body, new Vec2(0.0f, 5.0f));
+      rjd.motorSpeed = MathUtils.PI;
+      rjd.maxMotorTorque = 20000;
+      rjd.enableMotor = true;
+      world.createJoint(rjd);
+
+      world.bodies.add(body, true, 0xFFC82000, true, 0, 1f);
+      prev = body;
+    }
+
+    // follower
+    {
+      PolygonShape shape = new PolygonShape();
+      shape.setAsBox(0.5f, 4.0f);
+      BodyDef bd = new BodyDef();
+      bd.type = BodyType.DYNAMIC;
+      bd.position.set(0.0f, 13.0f);
+      Body body = world.createBody(bd);
+      body.createFixture(shape, 2.0f);
+
+      RevoluteJointDef rjd = new RevoluteJointDef();
+      rjd.initialize(prev, body, new Vec2(0.0f, 9.0f));
+      world.createJoint(rjd);
+
+      world.bodies.add(body, true, 0xFFC82000, true, 0, 1f);
+      prev = body;
+    }
+
+    // piston
+    {
+      PolygonShape shape = new PolygonShape();
+      shape.setAsBox(5f, 2f);
+      BodyDef bd = new BodyDef();
+      bd.type = BodyType.DYNAMIC;
+      bd.position.set(0.0f, 17.0f);
+      Body body = world.createBody(bd);
+      body.createFixture(shape, 2.0f);
+
+      RevoluteJointDef rjd = new RevoluteJointDef();
+      rjd.initialize(prev, body, new Vec2(0.0f, 17.0f));
+      world.createJoint(rjd);
+
+      PrismaticJointDef pjd = new PrismaticJointDef();
+      pjd.initialize(ground, body, new Vec2(0.0f, 17.0f), new Vec2(0.0f, 1.0f));
+      pjd.maxMotorForce = 1000.0f;
+      pjd.enableMotor = true;
+      world.createJoint(pjd);
+
+      world.bodies.add(body, true, 0xFFC82000, true, 0, 1f);
+    }
+
+    // payload, chained by revolute joints, so there are "count" joints too
+    {
+      PolygonShape sd = new PolygonShape();
+      sd.setAsBox(0.4f, 0.3f);
+      BodyDef bd = new BodyDef();
+      bd.type = BodyType.DYNAMIC;
+
+      Body body_prev = null;
+      for (int i = 0; i < count; ++i) {
+        bd.position.set(-1.0f + (i % 3), 23.0f + i / 3);
+        Body body = world.createBody(bd);
+        body.createFixture(sd, 0.1f);
+        if(body_prev != null){
+          RevoluteJointDef rjd = new RevoluteJointDef();
+          rjd.initialize(body_prev, body, body.getPosition());
+          world.createJoint(rjd);
+        }
+        body_prev = body;
+
+        world.bodies.add(body, true, 0xFF2080FF, true, 0, 1f);
+      }
+    }
+  }
+
+}
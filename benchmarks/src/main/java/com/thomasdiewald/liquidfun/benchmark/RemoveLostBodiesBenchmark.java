@@ -0,0 +1,87 @@
+/**
+ * 
+ * LiquidFunProcessing | Copyright 2017 Thomas Diewald - www.thomasdiewald.com
+ * 
+ * https://github.com/diwi/LiquidFunProcessing.git
+ * 
+ * Box2d / LiquidFun Library for Processing.
+ * MIT License: https://opensource.org/licenses/MIT
+ * 
+ */
+
+
+
+package com.thomasdiewald.liquidfun.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.jbox2d.collision.shapes.CircleShape;
+import org.jbox2d.dynamics.Body;
+import org.jbox2d.dynamics.BodyDef;
+import org.jbox2d.dynamics.BodyType;
+
+import com.thomasdiewald.liquidfun.java.DwWorld;
+
+
+
+/**
+ * 
+ * {@link com.thomasdiewald.liquidfun.java.DwWorld#removeLostBodies()}, on the
+ * CircleStressTest scene, with half of the bodies outside the bounds. The
+ * world is created anew for each invocation, not timed.<br>
+ * 
+ * @author Thomas Diewald
+ * 
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+public class RemoveLostBodiesBenchmark {
+
+  @Param({"100", "400", "1600"})
+  public int bodies;
+
+  protected DwWorld world;
+
+  @Setup(Level.Invocation)
+  public void setup(){
+    world = HeadlessScenes.createWorld();
+    HeadlessScenes.sceneCircleStress(world, 0);
+
+    // half of the bodies inside, half outside the zombie bounds
+    float y_lost = world.zombie_aabb.lowerBound.y - 10;
+    CircleShape circ = new CircleShape();
+    circ.m_radius = 0.5f;
+    BodyDef bd = new BodyDef();
+    bd.type = BodyType.DYNAMIC;
+    for(int i = 0; i < bodies; i++){
+      bd.position.set(-39f + (i % 40) * 2, (i % 2 == 0) ? 50f + i / 40 : y_lost);
+      Body body = world.createBody(bd);
+      body.createFixture(circ, 1);
+      world.bodies.add(body, true, 0xFF20AAFF, false, 0, 1f);
+    }
+  }
+
+  @Benchmark
+  public int removeLostBodies(){
+    world.removeLostBodies();
+    return world.getBodyCount();
+  }
+
+}
@@ -0,0 +1,68 @@
+/**
+ * 
+ * LiquidFunProcessing | Copyright 2017 Thomas Diewald - www.thomasdiewald.com
+ * 
+ * https://github.com/diwi/LiquidFunProcessing.git
+ * 
+ * Box2d / LiquidFun Library for Processing.
+ * MIT License: https://opensource.org/licenses/MIT
+ * 
+ */
+
+
+
+package com.thomasdiewald.liquidfun.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.thomasdiewald.liquidfun.java.DwWorld;
+
+
+
+/**
+ * 
+ * {@link com.thomasdiewald.liquidfun.java.DwWorld#removeLostParticles()}, on
+ * the DamBreak scene, with all particles inside the bounds.<br>
+ * 
+ * @author Thomas Diewald
+ * 
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+public class RemoveLostParticlesBenchmark {
+
+  @Param({"2000", "8000", "32000"})
+  public int particles;
+
+  protected DwWorld world;
+
+  @Setup
+  public void setup(){
+    world = HeadlessScenes.createWorld();
+    HeadlessScenes.sceneDamBreak(world, particles);
+    world.update();
+  }
+
+  @Benchmark
+  public int removeLostParticles(){
+    world.removeLostParticles();
+    return world.getParticleCount();
+  }
+
+}
@@ -0,0 +1,87 @@
+/**
+ * 
+ * LiquidFunProcessing | Copyright 2017 Thomas Diewald - www.thomasdiewald.com
+ * 
+ * https://github.com/diwi/LiquidFunProcessing.git
+ * 
+ * Box2d / LiquidFun Library for Processing.
+ * MIT License: https://opensource.org/licenses/MIT
+ * 
+ */
+
+
+
+package com.thomasdiewald.liquidfun.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.jbox2d.dynamics.Body;
+
+import com.thomasdiewald.liquidfun.java.DwWorld;
+
+
+
+/**
+ * 
+ * {@link com.thomasdiewald.liquidfun.java.DwWorld#updateBodies()}, on the
+ * CircleStressTest scene, with sleeping or moving bodies. For moving bodies,
+ * the world is stepped before each invocation, not timed.<br>
+ * 
+ * @author Thomas Diewald
+ * 
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+public class UpdateBodiesBenchmark {
+
+  @Param({"100", "400", "1600"})
+  public int bodies;
+
+  @Param({"false", "true"})
+  public boolean moving;
+
+  protected DwWorld world;
+
+  @Setup
+  public void setup(){
+    world = HeadlessScenes.createWorld();
+    HeadlessScenes.sceneCircleStress(world, bodies);
+    if(!moving){
+      for(Body body = world.getBodyList(); body != null; body = body.getNext()){
+        body.setAwake(false);
+      }
+    }
+    world.update();
+  }
+
+  @Setup(Level.Invocation)
+  public void step(){
+    if(moving){
+      world.step(1/60f, 8, 4);
+    }
+  }
+
+  @Benchmark
+  public int updateBodies(){
+    world.updateBodies();
+    return world.stat_bodies_updated;
+  }
+
+}
@@ -0,0 +1,73 @@
+/**
+ * 
+ * LiquidFunProcessing | Copyright 2017 Thomas Diewald - www.thomasdiewald.com
+ * 
+ * https://github.com/diwi/LiquidFunProcessing.git
+ * 
+ * Box2d / LiquidFun Library for Processing.
+ * MIT License: https://opensource.org/licenses/MIT
+ * 
+ */
+
+
+
+package com.thomasdiewald.liquidfun.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.thomasdiewald.liquidfun.java.DwWorld;
+
+
+
+/**
+ * 
+ * {@link com.thomasdiewald.liquidfun.java.render.DwParticleRender#updateBuffers()},
+ * single-threaded and chunked/parallel, on the DamBreak scene.<br>
+ * 
+ * @author Thomas Diewald
+ * 
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+public class UpdateBuffersBenchmark {
+
+  @Param({"2000", "8000", "32000"})
+  public int particles;
+
+  @Param({"false", "true"})
+  public boolean parallel;
+
+  protected DwWorld world;
+
+  @Setup
+  public void setup(){
+    world = HeadlessScenes.createWorld();
+    HeadlessScenes.sceneDamBreak(world, particles);
+    world.particles.useParallelUpdate(parallel);
+    world.update();
+  }
+
+  @Benchmark
+  public void updateBuffers(Blackhole bh){
+    world.particles.updateBuffers();
+    bh.consume(world.particles.buf_col);
+  }
+
+}
@@ -0,0 +1,76 @@
+/**
+ * 
+ * LiquidFunProcessing | Copyright 2017 Thomas Diewald - www.thomasdiewald.com
+ * 
+ * https://github.com/diwi/LiquidFunProcessing.git
+ * 
+ * Box2d / LiquidFun Library for Processing.
+ * MIT License: https://opensource.org/licenses/MIT
+ * 
+ */
+
+
+
+package com.thomasdiewald.liquidfun.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.thomasdiewald.liquidfun.java.DwWorld;
+
+
+
+/**
+ * 
+ * {@link com.thomasdiewald.liquidfun.java.DwWorld#updateJoints()}, on the
+ * PistonStressTest scene, with a chain of "bodies" payload bodies/joints.
+ * The world is stepped before each invocation, not timed.<br>
+ * 
+ * @author Thomas Diewald
+ * 
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+public class UpdateJointsBenchmark {
+
+  @Param({"100", "400", "1600"})
+  public int bodies;
+
+  protected DwWorld world;
+
+  @Setup
+  public void setup(){
+    world = HeadlessScenes.createWorld();
+    HeadlessScenes.scenePistonStress(world, bodies);
+    world.bodies.addAll(false, true);
+    world.update();
+  }
+
+  @Setup(Level.Invocation)
+  public void step(){
+    world.step(1/60f, 8, 4);
+  }
+
+  @Benchmark
+  public int updateJoints(){
+    world.updateJoints();
+    return world.stat_joints_updated;
+  }
+
+}
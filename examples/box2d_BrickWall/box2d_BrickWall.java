@@ -77,6 +77,9 @@ public class box2d_BrickWall extends PApplet {
     release();
     
     world = new DwWorld(this, 20);
+    
+    // all bricks have the same size, so they can share one PShape
+    world.useSharedShapes(true);
  
     // create scene: rigid bodies, particles, etc ...
     initScene();
@@ -75,6 +75,9 @@ public class box2d_RainingBodies extends PApplet {
     release();
     
     world = new DwWorld(this, 20);
+    
+    // bodies are removed at the zombie bounds, reuse their shapes
+    world.useBodyPooling(true);
 
     // create scene: rigid bodies, particles, etc ...
     initScene();
@@ -0,0 +1,336 @@
+/**
+ * 
+ * LiquidFunProcessing | Copyright 2017 Thomas Diewald - www.thomasdiewald.com
+ * 
+ * https://github.com/diwi/LiquidFunProcessing.git
+ * 
+ * Box2d / LiquidFun Library for Processing.
+ * MIT License: https://opensource.org/licenses/MIT
+ * 
+ */
+
+
+package com.thomasdiewald.liquidfun.java;
+
+import java.util.ArrayList;
+import java.util.Locale;
+
+import com.thomasdiewald.liquidfun.java.render.DwParticleRender;
+
+
+
+/**
+ * 
+ * Adapts the simulation/render quality to hold a target frame time.<br>
+ * <br>
+ * Each frame the interval since the previous frame and the duration of the
+ * world update are measured (exponential moving averages). The quality level
+ * (0 = full quality) is raised when the frame time stays over budget, and
+ * lowered again when the frame time is within budget and the update leaves
+ * enough headroom. Both decisions need a number of consecutive frames, and
+ * after each change the governor waits until the averages settled
+ * (hysteresis).<br>
+ * <br>
+ * Per level: solver iterations, particle LOD (merged sprites) and its
+ * screen-radius, render-group rebuild interval and body-shape update interval,
+ * see the level tables below.<br>
+ * <br>
+ * Usage: world.useFrameGovernor(true, 1000/60f); ... world.update();<br>
+ * The same for world.updateFixed() and world.updateAsync(). With a step-thread,
+ * the update time is the duration of the physics step on that thread, and
+ * the iterations are applied to the thread while holding its lock.<br>
+ * 
+ * @author Thomas Diewald
+ * 
+ */
+public class DwFrameGovernor {
+
+
+  /**
+   * a level change, for querying the decisions of the governor.
+   */
+  static public class Decision {
+    public int   frame;
+    public int   level_old;
+    public int   level_new;
+    public float frame_ms;
+    public float update_ms;
+
+    @Override
+    public String toString(){
+      return String.format(Locale.ENGLISH, "frame %d: level %d -> %d, frame %.2f ms, update %.2f ms",
+          frame, level_old, level_new, frame_ms, update_ms);
+    }
+  }
+
+
+  public DwWorld world;
+
+  // target frame time
+  public float budget_ms;
+
+  public float timestep = 1/60f;
+
+  // level tables, index = quality level
+  public int  [] level_iter_velocity   = {    8,    6,    5,    4,    3 };
+  public int  [] level_iter_position   = {    4,    3,    2,    2,    1 };
+  public float[] level_lod_radius      = {    0, 1.5f, 2.5f, 3.5f,   5f }; // px, 0 = LOD off
+  public int  [] level_groups_interval = {    1,    1,    2,    4,    8 };
+  public int  [] level_shape_interval  = {    1,    1,    1,    2,    3 };
+
+  // hysteresis
+  public float over_budget  = 1.10f; // frame_ms above budget * over_budget counts as slow
+  public float headroom     = 0.50f; // update_ms below budget * headroom counts as fast
+  public int   frames_down  = 20;    // consecutive slow frames, for lowering the quality
+  public int   frames_up    = 120;   // consecutive fast frames, for raising the quality
+  public int   frames_settle = 30;   // frames ignored after a change
+  public float smoothing    = 0.1f;  // EMA factor
+
+  // current state
+  public int   level = 0;
+  public float frame_ms  = 0;
+  public float update_ms = 0;
+  public int   frame = 0;
+
+  protected long  time_last = 0;
+  protected int   count_slow = 0;
+  protected int   count_fast = 0;
+  protected int   settle = 0;
+
+  // LOD settings of the user, restored at level 0
+  protected boolean lod_user        = false;
+  protected float   lod_radius_user = 0;
+  protected DwParticleRender lod_target = null;
+
+  // decisions, most recent last
+  public int max_decisions = 256;
+  protected ArrayList<Decision> decisions = new ArrayList<Decision>();
+
+
+  public DwFrameGovernor(DwWorld world, float budget_ms){
+    this.world = world;
+    this.budget_ms = budget_ms;
+  }
+
+
+  public int getNumLevels(){
+    return level_iter_velocity.length;
+  }
+
+  public int getIterVelocity(){
+    return level_iter_velocity[level];
+  }
+
+  public int getIterPosition(){
+    return level_iter_position[level];
+  }
+
+  /**
+   * @return the level changes, most recent last.
+   */
+  public ArrayList<Decision> getDecisions(){
+    return decisions;
+  }
+
+
+
+  /**
+   * 
+   * Measures the frame, applies a level change if due, and updates the world
+   * with the iterations of the current level.<br>
+   * Called by {@link DwWorld#update()}.<br>
+   * 
+   */
+  public void update(){
+    beginFrame();
+    long timer = System.nanoTime();
+    world.update(timestep, getIterVelocity(), getIterPosition());
+    endFrame((System.nanoTime() - timer) / 1E6f);
+  }
+
+
+  /**
+   * 
+   * Same as {@link #update()}, for a fixed timestep update.<br>
+   * Called by {@link DwWorld#updateFixed()}.<br>
+   * 
+   */
+  public void updateFixed(float elapsed){
+    beginFrame();
+    long timer = System.nanoTime();
+    world.updateFixed(elapsed, timestep, getIterVelocity(), getIterPosition());
+    endFrame((System.nanoTime() - timer) / 1E6f);
+  }
+
+
+  /**
+   * 
+   * Same as {@link #update()}, for a world with a step-thread. The iterations
+   * are passed to the thread by DwWorld, see {@link #apply(DwStepThread)}.<br>
+   * Called by {@link DwWorld#updateAsync()}.<br>
+   * 
+   */
+  public void updateAsync(){
+    beginFrame();
+    endFrame(world.updateAsyncStep());
+  }
+
+
+  /**
+   * measures the interval since the previous frame, and applies a level
+   * change if due.
+   */
+  public void beginFrame(){
+    long time = System.nanoTime();
+    if(time_last != 0){
+      measure(frame_ms == 0 ? 1 : smoothing, (time - time_last) / 1E6f, -1);
+      decide();
+    }
+    time_last = time;
+
+    apply();
+  }
+
+
+  /**
+   * @param update_dur duration of the world update (or the physics step), in
+   *                   milliseconds, -1 if there was none this frame.
+   */
+  public void endFrame(float update_dur){
+    if(update_dur >= 0){
+      measure(update_ms == 0 ? 1 : smoothing, -1, update_dur);
+    }
+    frame++;
+  }
+
+
+  protected void measure(float alpha, float frame_dur, float update_dur){
+    if(frame_dur  >= 0) frame_ms  += (frame_dur  - frame_ms ) * alpha;
+    if(update_dur >= 0) update_ms += (update_dur - update_ms) * alpha;
+  }
+
+
+  protected void decide(){
+    if(settle > 0){
+      settle--;
+      return;
+    }
+
+    boolean slow = frame_ms > budget_ms * over_budget;
+    boolean fast = !slow && update_ms < budget_ms * headroom;
+
+    count_slow = slow ? count_slow + 1 : 0;
+    count_fast = fast ? count_fast + 1 : 0;
+
+    if(count_slow >= frames_down && level < getNumLevels() - 1){
+      setLevel(level + 1);
+    } else if(count_fast >= frames_up && level > 0){
+      setLevel(level - 1);
+    }
+  }
+
+
+  /**
+   * forces a quality level, 0 = full quality.
+   */
+  public void setLevel(int level_new){
+    level_new = Math.max(0, Math.min(level_new, getNumLevels() - 1));
+    if(level_new == level){
+      return;
+    }
+
+    Decision decision = new Decision();
+    decision.frame     = frame;
+    decision.level_old = level;
+    decision.level_new = level_new;
+    decision.frame_ms  = frame_ms;
+    decision.update_ms = update_ms;
+    decisions.add(decision);
+    if(decisions.size() > max_decisions){
+      decisions.remove(0);
+    }
+
+    level = level_new;
+    count_slow = 0;
+    count_fast = 0;
+    settle = frames_settle;
+  }
+
+
+  /**
+   * applies the settings of the current level to the world and its renderers.
+   */
+  protected void apply(){
+    world.shape_update_interval = level_shape_interval[level];
+
+    DwParticleRender particles = world.particles;
+    if(particles != null){
+      if(lod_target != particles){
+        lod_target      = particles;
+        lod_user        = particles.isLOD();
+        lod_radius_user = particles.lod_radius;
+      }
+      particles.groups_interval = level_groups_interval[level];
+
+      float lod_radius = level_lod_radius[level];
+      boolean lod = lod_radius > 0 || lod_user;
+      if(particles.isLOD() != lod){
+        particles.useLOD(lod);
+      }
+      if(lod_radius > 0){
+        particles.lod_radius = Math.max(lod_radius, lod_user ? lod_radius_user : 0);
+      } else {
+        particles.lod_radius = lod_radius_user;
+      }
+    }
+  }
+
+
+  /**
+   * applies the iterations of the current level to the step-thread. Must be
+   * called while holding thread.lock.
+   */
+  public void apply(DwStepThread thread){
+    thread.iter_velocity = getIterVelocity();
+    thread.iter_position = getIterPosition();
+  }
+
+
+  /**
+   * restores full quality and the users LOD settings, clears the measurements.
+   */
+  public void reset(){
+    level = 0;
+    apply();
+    DwStepThread thread = world.getStepThread();
+    if(thread != null){
+      thread.lock.lock();
+      try {
+        apply(thread);
+      } finally {
+        thread.lock.unlock();
+      }
+    }
+    world.shape_update_interval = 1;
+    if(world.particles != null){
+      world.particles.groups_interval = 1;
+    }
+    frame_ms   = 0;
+    update_ms  = 0;
+    time_last  = 0;
+    count_slow = 0;
+    count_fast = 0;
+    settle     = 0;
+  }
+
+
+  @Override
+  public String toString(){
+    return String.format(Locale.ENGLISH,
+        "level %d/%d, frame %.2f/%.2f ms, update %.2f ms, iterations %d/%d, lod %.1f px, groups 1/%d, shapes 1/%d",
+        level, getNumLevels() - 1, frame_ms, budget_ms, update_ms,
+        getIterVelocity(), getIterPosition(), level_lod_radius[level],
+        level_groups_interval[level], level_shape_interval[level]);
+  }
+
+}
@@ -0,0 +1,247 @@
+/**
+ * 
+ * LiquidFunProcessing | Copyright 2017 Thomas Diewald - www.thomasdiewald.com
+ * 
+ * https://github.com/diwi/LiquidFunProcessing.git
+ * 
+ * Box2d / LiquidFun Library for Processing.
+ * MIT License: https://opensource.org/licenses/MIT
+ * 
+ */
+
+
+package com.thomasdiewald.liquidfun.java;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+import processing.event.Event;
+import processing.event.KeyEvent;
+import processing.event.MouseEvent;
+
+
+
+/**
+ * 
+ * Records a DwWorld session, as one ordered stream of the mouse/key events,
+ * frames (each DwWorld.updateBegin()), physics steps, step-param changes and
+ * batched destroys (DwWorld.destroyQueued()).<br>
+ * <br>
+ * The world calls the record methods itself, so update(), updateFixed() and
+ * updateAsync() sessions are recorded alike, including substeps and the
+ * iterations chosen by a {@link DwFrameGovernor}.<br>
+ * <br>
+ * Usage: world.startRecording(); ... world.stopRecording().save(filename);<br>
+ * The recording is replayed by {@link DwInputReplay}.<br>
+ * <br>
+ * Binary layout (little-endian):<br>
+ * header: magic, version, screen_w, screen_h, screen_scale, record count<br>
+ * frame, step, destroy: type (1 byte)<br>
+ * step params: type, timestep, iter_velocity, iter_position (13 bytes)<br>
+ * mouse event: type, action, modifiers, x, y, button, count (16 bytes)<br>
+ * key event: type, action, modifiers, key, keyCode, repeat (11 bytes)<br>
+ * 
+ * @author Thomas Diewald
+ * 
+ */
+public class DwInputRecorder {
+
+  static public final int MAGIC   = 0x52494644; // "DFIR"
+  static public final int VERSION = 2;
+
+  static public final int HEADER_SIZE = 24;
+
+  // record types
+  static public final byte REC_FRAME   = 0;
+  static public final byte REC_STEP    = 1;
+  static public final byte REC_PARAMS  = 2;
+  static public final byte REC_DESTROY = 3;
+  static public final byte REC_MOUSE   = 4;
+  static public final byte REC_KEY     = 5;
+
+  // screen, the replay world should use the same transform
+  public float screen_w;
+  public float screen_h;
+  public float screen_scale;
+
+  // step params, of the last recorded step
+  public float timestep      = 1/60f;
+  public int   iter_velocity = 8;
+  public int   iter_position = 4;
+  protected boolean params_recorded = false;
+
+  // records, without header
+  protected ByteBuffer buf = ByteBuffer.allocate(1 << 14).order(ByteOrder.LITTLE_ENDIAN);
+
+  public int num_records = 0;
+  public int num_events  = 0;
+  public int num_frames  = 0;
+  public int num_steps   = 0;
+
+  protected boolean is_recording = true;
+
+
+  public DwInputRecorder(DwViewportTransform transform){
+    this.screen_w     = transform.screen_dimx;
+    this.screen_h     = transform.screen_dimy;
+    this.screen_scale = transform.screen_scale;
+  }
+
+
+  /**
+   * stops recording events. Frames and steps are still recorded, so the
+   * replay stays in sync.
+   */
+  public void pause(){
+    is_recording = false;
+  }
+
+  public void resume(){
+    is_recording = true;
+  }
+
+  public boolean isRecording(){
+    return is_recording;
+  }
+
+  public void clear(){
+    buf.clear();
+    num_records = 0;
+    num_events  = 0;
+    num_frames  = 0;
+    num_steps   = 0;
+    params_recorded = false;
+  }
+
+
+  /**
+   * appends a frame, called by DwWorld.updateBegin().
+   */
+  public void recordFrame(){
+    put(REC_FRAME);
+    num_frames++;
+  }
+
+  /**
+   * appends a physics step, and its params if they changed. Called by
+   * DwWorld.step(), also on the {@link DwStepThread}.
+   */
+  public void recordStep(float timestep, int iter_velocity, int iter_position){
+    if(!params_recorded ||
+        this.timestep      != timestep      ||
+        this.iter_velocity != iter_velocity ||
+        this.iter_position != iter_position)
+    {
+      this.timestep      = timestep;
+      this.iter_velocity = iter_velocity;
+      this.iter_position = iter_position;
+      params_recorded    = true;
+      ensure(13);
+      buf.put(REC_PARAMS);
+      buf.putFloat(timestep);
+      buf.putInt(iter_velocity);
+      buf.putInt(iter_position);
+      num_records++;
+    }
+    put(REC_STEP);
+    num_steps++;
+  }
+
+  /**
+   * appends a batched destroy, called by DwWorld.destroyQueued().
+   */
+  public void recordDestroy(){
+    put(REC_DESTROY);
+  }
+
+  /**
+   * appends a mouse/key event.
+   */
+  public void record(Event event){
+    if(!is_recording){
+      return;
+    }
+    ensure(16);
+    if(event.getFlavor() == Event.MOUSE){
+      MouseEvent me = (MouseEvent) event;
+      buf.put(REC_MOUSE);
+      buf.put((byte) me.getAction());
+      buf.putShort((short) me.getModifiers());
+      buf.putInt(me.getX());
+      buf.putInt(me.getY());
+      buf.putShort((short) me.getButton());
+      buf.putShort((short) me.getCount());
+    } else {
+      KeyEvent ke = (KeyEvent) event;
+      buf.put(REC_KEY);
+      buf.put((byte) ke.getAction());
+      buf.putShort((short) ke.getModifiers());
+      buf.putChar(ke.getKey());
+      buf.putInt(ke.getKeyCode());
+      buf.put((byte) (ke.isAutoRepeat() ? 1 : 0));
+    }
+    num_records++;
+    num_events++;
+  }
+
+  protected void put(byte type){
+    ensure(1);
+    buf.put(type);
+    num_records++;
+  }
+
+
+
+  public boolean save(String filename){
+    try(FileChannel channel = FileChannel.open(Paths.get(filename),
+        StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
+    {
+      return save(channel);
+    } catch (IOException e) {
+      System.out.println("Error - DwInputRecorder.save: "+e.getMessage());
+      return false;
+    }
+  }
+
+
+  public boolean save(WritableByteChannel channel){
+    ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    header.putInt(MAGIC);
+    header.putInt(VERSION);
+    header.putFloat(screen_w);
+    header.putFloat(screen_h);
+    header.putFloat(screen_scale);
+    header.putInt(num_records);
+    header.flip();
+
+    ByteBuffer records = buf.duplicate();
+    records.flip();
+
+    try {
+      while(header .hasRemaining()) channel.write(header);
+      while(records.hasRemaining()) channel.write(records);
+    } catch (IOException e) {
+      System.out.println("Error - DwInputRecorder.save: "+e.getMessage());
+      return false;
+    }
+    return true;
+  }
+
+
+
+  protected void ensure(int bytes){
+    if(buf.remaining() < bytes){
+      int capacity = Math.max(buf.position() + bytes, (int) (buf.capacity() * 1.5f));
+      ByteBuffer buf_new = ByteBuffer.allocate(capacity).order(ByteOrder.LITTLE_ENDIAN);
+      buf.flip();
+      buf_new.put(buf);
+      buf = buf_new;
+    }
+  }
+
+}
@@ -0,0 +1,298 @@
+/**
+ * 
+ * LiquidFunProcessing | Copyright 2017 Thomas Diewald - www.thomasdiewald.com
+ * 
+ * https://github.com/diwi/LiquidFunProcessing.git
+ * 
+ * Box2d / LiquidFun Library for Processing.
+ * MIT License: https://opensource.org/licenses/MIT
+ * 
+ */
+
+
+package com.thomasdiewald.liquidfun.java;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+import processing.event.Event;
+import processing.event.KeyEvent;
+import processing.event.MouseEvent;
+
+
+
+/**
+ * 
+ * Replays a recording of {@link DwInputRecorder}.<br>
+ * <br>
+ * The records are passed to the world in their recorded order: events to
+ * DwWorld.mouseEvent/keyEvent, frames to updateBegin(), steps to step() with
+ * the recorded params, and the batched destroys to destroyQueued(). So the
+ * interactions (spawning, bullets, dragging, ...) run exactly as often as in
+ * the recorded session, no matter if it was using update(), updateFixed() or
+ * updateAsync(). The replay world must be set up like the recorded one (scene,
+ * screen size and scale), without a step-thread or a frame-governor.<br>
+ * <br>
+ * Headless, at maximum speed:<br>
+ * DwInputReplay replay = new DwInputReplay();<br>
+ * replay.load(filename);<br>
+ * replay.run(new DwWorld(w, h, scale), 0);<br>
+ * <br>
+ * {@link #run(DwWorld, int)} records the duration of each update, for
+ * locating performance spikes, see {@link #stat_spike_step}.<br>
+ * 
+ * @author Thomas Diewald
+ * 
+ */
+public class DwInputReplay {
+
+  public float screen_w;
+  public float screen_h;
+  public float screen_scale;
+
+  // step params, of the last replayed step
+  public float timestep      = 1/60f;
+  public int   iter_velocity = 8;
+  public int   iter_position = 4;
+
+  // records, decoded
+  public int num_records = 0;
+  public int num_events  = 0;
+  public int num_frames  = 0;
+  public int num_steps   = 0;
+  protected byte  [] rec_type     = new byte[0];
+  protected Event [] rec_event    = new Event[0];
+  protected float [] rec_timestep = new float[0];
+  protected int   [] rec_iter     = new int[0]; // [velocity, position]
+
+  // next record to replay
+  protected int rec_next = 0;
+
+  // stats of the last run
+  public float[] stat_step_duration = new float[0]; // ms, per update
+  public int     stat_steps      = 0;
+  public float   stat_total      = 0; // ms
+  public float   stat_spike      = 0; // ms
+  public int     stat_spike_step = -1;
+
+
+  public DwInputReplay(){
+  }
+
+
+
+  public boolean load(String filename){
+    try(FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)){
+      return load(channel);
+    } catch (IOException e) {
+      System.out.println("Error - DwInputReplay.load: "+e.getMessage());
+      return false;
+    }
+  }
+
+
+  public boolean load(ReadableByteChannel channel){
+    ByteBuffer buf = ByteBuffer.allocate(1 << 14);
+    try {
+      while(channel.read(buf) >= 0){
+        if(!buf.hasRemaining()){
+          ByteBuffer buf_new = ByteBuffer.allocate((int) (buf.capacity() * 1.5f));
+          buf.flip();
+          buf_new.put(buf);
+          buf = buf_new;
+        }
+      }
+    } catch (IOException e) {
+      System.out.println("Error - DwInputReplay.load: "+e.getMessage());
+      return false;
+    }
+    buf.flip();
+    buf.order(ByteOrder.LITTLE_ENDIAN);
+
+    num_records = 0;
+    num_events  = 0;
+    num_frames  = 0;
+    num_steps   = 0;
+
+    try {
+      if(buf.getInt() != DwInputRecorder.MAGIC){
+        System.out.println("Error - DwInputReplay.load: not an input recording");
+        return false;
+      }
+      int version = buf.getInt();
+      if(version != DwInputRecorder.VERSION){
+        System.out.println("Error - DwInputReplay.load: unsupported version "+version);
+        return false;
+      }
+      screen_w     = buf.getFloat();
+      screen_h     = buf.getFloat();
+      screen_scale = buf.getFloat();
+      int num      = buf.getInt();
+
+      rec_type     = new byte [num];
+      rec_event    = new Event[num];
+      rec_timestep = new float[num];
+      rec_iter     = new int  [num * 2];
+      for(int i = 0; i < num; i++){
+        byte type = buf.get();
+        rec_type[i] = type;
+        switch(type){
+          case DwInputRecorder.REC_FRAME  : num_frames++; break;
+          case DwInputRecorder.REC_STEP   : num_steps++; break;
+          case DwInputRecorder.REC_DESTROY: break;
+          case DwInputRecorder.REC_PARAMS: {
+            rec_timestep[i]         = buf.getFloat();
+            rec_iter    [i * 2 + 0] = buf.getInt();
+            rec_iter    [i * 2 + 1] = buf.getInt();
+          }
+          break;
+          case DwInputRecorder.REC_MOUSE: {
+            int action    = buf.get();
+            int modifiers = buf.getShort();
+            int x         = buf.getInt();
+            int y         = buf.getInt();
+            int button    = buf.getShort();
+            int count     = buf.getShort();
+            rec_event[i] = new MouseEvent(null, 0, action, modifiers, x, y, button, count);
+            num_events++;
+          }
+          break;
+          case DwInputRecorder.REC_KEY: {
+            int     action    = buf.get();
+            int     modifiers = buf.getShort();
+            char    key       = buf.getChar();
+            int     keyCode   = buf.getInt();
+            boolean repeat    = buf.get() != 0;
+            rec_event[i] = new KeyEvent(null, 0, action, modifiers, key, keyCode, repeat);
+            num_events++;
+          }
+          break;
+          default:
+            System.out.println("Error - DwInputReplay.load: unknown record type "+type);
+            return false;
+        }
+      }
+      num_records = num;
+    } catch (BufferUnderflowException e) {
+      System.out.println("Error - DwInputReplay.load: unexpected end of recording");
+      return false;
+    }
+
+    rewind();
+    return true;
+  }
+
+
+
+  public void rewind(){
+    rec_next = 0;
+  }
+
+  public boolean isFinished(){
+    return rec_next >= num_records;
+  }
+
+
+  /**
+   * 
+   * Replays the next recorded frame: the pending events, updateBegin(), its
+   * steps and destroys, followed by the shape/particle update.<br>
+   * 
+   * @return false, if the recording is finished
+   */
+  public boolean replayFrame(DwWorld world){
+    if(isFinished()){
+      return false;
+    }
+    boolean frame = false;
+    for(; rec_next < num_records; rec_next++){
+      int i = rec_next;
+      switch(rec_type[i]){
+        case DwInputRecorder.REC_FRAME: {
+          if(frame){
+            break; // next frame
+          }
+          frame = true;
+          world.updateBegin();
+        }
+        continue;
+        case DwInputRecorder.REC_STEP:
+          world.step(timestep, iter_velocity, iter_position);
+          continue;
+        case DwInputRecorder.REC_DESTROY:
+          world.destroyQueued();
+          continue;
+        case DwInputRecorder.REC_PARAMS:
+          timestep      = rec_timestep[i];
+          iter_velocity = rec_iter[i * 2 + 0];
+          iter_position = rec_iter[i * 2 + 1];
+          continue;
+        case DwInputRecorder.REC_MOUSE:
+          world.mouseEvent((MouseEvent) rec_event[i]);
+          continue;
+        case DwInputRecorder.REC_KEY:
+          world.keyEvent((KeyEvent) rec_event[i]);
+          continue;
+        default:
+          continue;
+      }
+      break;
+    }
+    world.updateEnd(1f, 0f);
+    return true;
+  }
+
+
+  /**
+   * 
+   * Replays the recording at maximum speed, frame by frame, plus "steps_after"
+   * updates with the last step params.<br>
+   * 
+   * @return number of updates
+   */
+  public int run(DwWorld world, int steps_after){
+    if(world.transform.screen_dimx != screen_w ||
+       world.transform.screen_dimy != screen_h ||
+       world.transform.screen_scale != screen_scale)
+    {
+      System.out.println("Error - DwInputReplay.run: screen transform differs from the recording");
+    }
+
+    rewind();
+
+    int num = num_frames + 1 + Math.max(0, steps_after);
+    if(stat_step_duration.length < num){
+      stat_step_duration = new float[num];
+    }
+    stat_steps      = 0;
+    stat_total      = 0;
+    stat_spike      = 0;
+    stat_spike_step = -1;
+
+    int updates_after = 0;
+    while(updates_after < steps_after || !isFinished()){
+      int step = world.getStepCount();
+      long timer = System.nanoTime();
+      if(!replayFrame(world)){
+        world.update(timestep, iter_velocity, iter_position);
+        updates_after++;
+      }
+      float duration = (System.nanoTime() - timer) / 1E6f;
+
+      stat_step_duration[stat_steps++] = duration;
+      stat_total += duration;
+      if(duration > stat_spike){
+        stat_spike      = duration;
+        stat_spike_step = step;
+      }
+    }
+    return stat_steps;
+  }
+
+}
@@ -0,0 +1,136 @@
+/**
+ * 
+ * LiquidFunProcessing | Copyright 2017 Thomas Diewald - www.thomasdiewald.com
+ * 
+ * https://github.com/diwi/LiquidFunProcessing.git
+ * 
+ * Box2d / LiquidFun Library for Processing.
+ * MIT License: https://opensource.org/licenses/MIT
+ * 
+ */
+
+
+
+package com.thomasdiewald.liquidfun.java;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.List;
+import java.util.Locale;
+
+
+
+/**
+ * 
+ * Allocation rate and garbage-collection statistics, per frame.<br>
+ * <br>
+ * {@link #update()} is called once per frame and computes the difference to
+ * the previous call: number of collections, time spent in the collector and
+ * bytes allocated by the calling thread (if supported by the JVM, otherwise -1).<br>
+ * 
+ * @author Thomas Diewald
+ * 
+ */
+public class DwMemoryStats {
+
+  protected List<GarbageCollectorMXBean> gc_beans;
+  protected com.sun.management.ThreadMXBean thread_bean = null;
+
+  protected long gc_count_last = -1;
+  protected long gc_time_last  = -1;
+  protected long alloc_last    = -1;
+  protected long time_last     = -1;
+
+  // last frame
+  public long  gc_count = 0;    // number of collections
+  public long  gc_time  = 0;    // milliseconds
+  public long  alloc    = 0;    // bytes, -1 if not supported
+  public float alloc_rate = 0;  // MB per second, -1 if not supported
+
+  // totals, since the first update
+  public long gc_count_total = 0;
+  public long gc_time_total  = 0;
+  public long gc_time_max    = 0; // longest collection time of a single frame
+
+  // heap
+  public long heap_used = 0; // bytes
+  public long heap_max  = 0; // bytes
+
+
+  public DwMemoryStats(){
+    gc_beans = ManagementFactory.getGarbageCollectorMXBeans();
+
+    ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+    if(bean instanceof com.sun.management.ThreadMXBean){
+      thread_bean = (com.sun.management.ThreadMXBean) bean;
+      if(!thread_bean.isThreadAllocatedMemorySupported()){
+        thread_bean = null;
+      } else if(!thread_bean.isThreadAllocatedMemoryEnabled()){
+        thread_bean.setThreadAllocatedMemoryEnabled(true);
+      }
+    }
+  }
+
+
+  /**
+   * computes the statistics since the last call.
+   */
+  public void update(){
+    long time_now = System.nanoTime();
+
+    long count_now = 0;
+    long time_gc_now = 0;
+    for(GarbageCollectorMXBean bean : gc_beans){
+      count_now   += Math.max(0, bean.getCollectionCount());
+      time_gc_now += Math.max(0, bean.getCollectionTime());
+    }
+
+    long alloc_now = -1;
+    if(thread_bean != null){
+      alloc_now = thread_bean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    if(time_last != -1){
+      gc_count = count_now - gc_count_last;
+      gc_time  = time_gc_now - gc_time_last;
+      gc_count_total += gc_count;
+      gc_time_total  += gc_time;
+      gc_time_max = Math.max(gc_time_max, gc_time);
+
+      if(alloc_now != -1 && alloc_last != -1){
+        alloc = alloc_now - alloc_last;
+        float dt = (time_now - time_last) * 1E-9f;
+        alloc_rate = (dt > 0) ? alloc / (1024f * 1024f) / dt : 0;
+      } else {
+        alloc = -1;
+        alloc_rate = -1;
+      }
+    }
+
+    gc_count_last = count_now;
+    gc_time_last  = time_gc_now;
+    alloc_last    = alloc_now;
+    time_last     = time_now;
+
+    Runtime runtime = Runtime.getRuntime();
+    heap_used = runtime.totalMemory() - runtime.freeMemory();
+    heap_max  = runtime.maxMemory();
+  }
+
+
+  public void reset(){
+    gc_count_total = 0;
+    gc_time_total  = 0;
+    gc_time_max    = 0;
+  }
+
+
+  public void toDebugStrings(List<String> lines){
+    float mb = 1f / (1024 * 1024);
+    lines.add(String.format(Locale.ENGLISH, "alloc      %7.1f MB/s %7.1f KB/frame", alloc_rate, alloc / 1024f));
+    lines.add(String.format(Locale.ENGLISH, "gc         %7d ms   %7d total  %7d max", gc_time, gc_time_total, gc_time_max));
+    lines.add(String.format(Locale.ENGLISH, "heap       %7.1f MB   %7.1f max", heap_used * mb, heap_max * mb));
+  }
+
+}
@@ -0,0 +1,269 @@
+/**
+ * 
+ * LiquidFunProcessing | Copyright 2017 Thomas Diewald - www.thomasdiewald.com
+ * 
+ * https://github.com/diwi/LiquidFunProcessing.git
+ * 
+ * Box2d / LiquidFun Library for Processing.
+ * MIT License: https://opensource.org/licenses/MIT
+ * 
+ */
+
+
+
+package com.thomasdiewald.liquidfun.java;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+import org.jbox2d.collision.AABB;
+import org.jbox2d.common.Vec2;
+import org.jbox2d.particle.ParticleGroup;
+import org.jbox2d.particle.ParticleType;
+
+
+
+/**
+ * 
+ * Group-bounds culling for {@link DwWorld#removeLostParticles()}.<br>
+ * <br>
+ * The particle buffer is split into ranges: one per ParticleGroup, and one per
+ * gap of particles that don't belong to any group. For each range the
+ * bounding box is cached, together with the step it was computed at.<br>
+ * LiquidFun limits the particle velocity to about one particle-diameter per
+ * step, so the cached box grown by (steps * diameter) contains all particles of
+ * the range. Only if this grown box is not fully inside the zombie bounds, the
+ * particles of the range are tested again (and its box is updated).<br>
+ * <br>
+ * Group ranges are matched by their ParticleGroup, a cached box is only reused
+ * if the group didn't grow, i.e. it still holds (a subset of) the same
+ * particles. Gap ranges have no identity, their cached box is only reused if
+ * no particles were created, destroyed or regrouped since the last update.<br>
+ * 
+ * @author Thomas Diewald
+ * 
+ */
+public class DwParticleBoundsCache {
+
+  // max particle movement per step, in particle-diameters
+  public float max_step_distance = 1.0f;
+
+  // ranges of the current and the previous update: [start, count]
+  protected int   range_num = 0;
+  protected int[] range = new int[0];
+  protected float[] range_aabb = new float[0]; // [xmin, ymin, xmax, ymax]
+  protected int[] range_step = new int[0];
+  protected ParticleGroup[] range_group = new ParticleGroup[0]; // null for gaps
+
+  protected int   prev_num = 0;
+  protected int[] prev = new int[0];
+  protected float[] prev_aabb = new float[0];
+  protected int[] prev_step = new int[0];
+  protected ParticleGroup[] prev_group = new ParticleGroup[0];
+
+  // particle-buffer state of the previous update, for matching gap ranges
+  protected int prev_pcount  = -1;
+  protected int prev_changes = -1;
+  protected int prev_groups  = -1;
+
+  protected ParticleGroup[] groups = new ParticleGroup[0];
+
+  // stats of the last update
+  public int stat_ranges = 0;
+  public int stat_ranges_tested = 0;
+  public int stat_particles_tested = 0;
+
+
+  static protected final Comparator<ParticleGroup> BY_BUFFER_INDEX = new Comparator<ParticleGroup>() {
+    @Override
+    public int compare(ParticleGroup a, ParticleGroup b) {
+      return Integer.compare(a.getBufferIndex(), b.getBufferIndex());
+    }
+  };
+
+
+  /**
+   * forces a test of all particles, at the next update.
+   */
+  public void invalidate(){
+    prev_num = 0;
+  }
+
+
+  /**
+   * flags all particles outside the given bounds as b2_zombieParticle.
+   * 
+   * @param step number of physics steps, since the world was created
+   */
+  public void removeLostParticles(DwWorld world, AABB bounds, int step){
+
+    int    pcount = world.getParticleCount();
+    Vec2[] pverts = world.getParticlePositionBuffer();
+    int[]  pflags = world.getParticleFlagsBuffer();
+
+    float margin_per_step = world.getParticleRadius() * 2 * max_step_distance;
+
+    int changes = world.getParticleBufferChanges();
+    int groups  = world.getParticleGroupCount();
+
+    buildRanges(world, pcount);
+    matchRanges(pcount == prev_pcount && changes == prev_changes && groups == prev_groups);
+
+    stat_ranges = range_num;
+    stat_ranges_tested = 0;
+    stat_particles_tested = 0;
+
+    for(int r = 0; r < range_num; r++){
+      int ia = r * 4;
+
+      // cached bounds, grown by the max possible movement since
+      if(range_step[r] >= 0){
+        float margin = (step - range_step[r]) * margin_per_step;
+        if(range_aabb[ia+0] - margin > bounds.lowerBound.x &&
+           range_aabb[ia+1] - margin > bounds.lowerBound.y &&
+           range_aabb[ia+2] + margin < bounds.upperBound.x &&
+           range_aabb[ia+3] + margin < bounds.upperBound.y)
+        {
+          continue;
+        }
+      }
+
+      // test all particles of the range, and update its bounds
+      float xmin = Float.MAX_VALUE, ymin = Float.MAX_VALUE;
+      float xmax = -Float.MAX_VALUE, ymax = -Float.MAX_VALUE;
+
+      int start = range[r*2+0];
+      int end   = start + range[r*2+1];
+      for(int i = start; i < end; i++){
+        Vec2 vert = pverts[i];
+        if(vert.x < bounds.lowerBound.x || vert.x > bounds.upperBound.x ||
+           vert.y < bounds.lowerBound.y || vert.y > bounds.upperBound.y)
+        {
+          pflags[i] |= ParticleType.b2_zombieParticle;
+        }
+        if(vert.x < xmin) xmin = vert.x;
+        if(vert.y < ymin) ymin = vert.y;
+        if(vert.x > xmax) xmax = vert.x;
+        if(vert.y > ymax) ymax = vert.y;
+      }
+
+      range_aabb[ia+0] = xmin;
+      range_aabb[ia+1] = ymin;
+      range_aabb[ia+2] = xmax;
+      range_aabb[ia+3] = ymax;
+      range_step[r] = step;
+
+      stat_ranges_tested++;
+      stat_particles_tested += end - start;
+    }
+
+    // current -> previous
+    int[]   tmp_range = prev;      prev      = range;      range      = tmp_range;
+    float[] tmp_aabb  = prev_aabb; prev_aabb = range_aabb; range_aabb = tmp_aabb;
+    int[]   tmp_step  = prev_step; prev_step = range_step; range_step = tmp_step;
+    ParticleGroup[] tmp_group = prev_group; prev_group = range_group; range_group = tmp_group;
+    Arrays.fill(range_group, null);
+    prev_num = range_num;
+
+    prev_pcount  = pcount;
+    prev_changes = changes;
+    prev_groups  = groups;
+  }
+
+
+
+  /**
+   * splits the particle buffer into ranges: groups, and the gaps in between.
+   */
+  protected void buildRanges(DwWorld world, int pcount){
+    int group_num = world.getParticleGroupCount();
+    if(groups.length < group_num){
+      groups = new ParticleGroup[(int) Math.ceil(group_num * 1.5f)];
+    }
+
+    group_num = 0;
+    for(ParticleGroup pg = world.getParticleGroupList(); pg != null; pg = pg.getNext()){
+      if(pg.getParticleCount() > 0){
+        groups[group_num++] = pg;
+      }
+    }
+    Arrays.sort(groups, 0, group_num, BY_BUFFER_INDEX);
+
+    // max number of ranges: groups + gaps
+    int max_ranges = group_num * 2 + 1;
+    if(range.length < max_ranges * 2){
+      range      = new int  [max_ranges * 2 * 2];
+      range_aabb = new float[max_ranges * 4 * 2];
+      range_step = new int  [max_ranges * 2];
+      range_group = new ParticleGroup[max_ranges * 2];
+    }
+
+    range_num = 0;
+    int pos = 0;
+    for(int i = 0; i < group_num; i++){
+      int start = groups[i].getBufferIndex();
+      int count = groups[i].getParticleCount();
+      if(start > pos){
+        addRange(pos, start - pos, null);
+      }
+      addRange(start, count, groups[i]);
+      pos = start + count;
+      groups[i] = null;
+    }
+    if(pcount > pos){
+      addRange(pos, pcount - pos, null);
+    }
+  }
+
+  protected void addRange(int start, int count, ParticleGroup group){
+    range[range_num*2+0] = start;
+    range[range_num*2+1] = count;
+    range_group[range_num] = group;
+    range_num++;
+  }
+
+
+  /**
+   * copies the cached bounds of unchanged ranges from the previous update.<br>
+   * Groups are matched by identity. Gaps only by [start, count], and only if
+   * the particle-buffer is unchanged ("gaps_valid").
+   */
+  protected void matchRanges(boolean gaps_valid){
+    int p = 0; // previous groups, mostly in the same order
+    int g = 0; // previous gaps, sorted by start
+    for(int r = 0; r < range_num; r++){
+      int start = range[r*2+0];
+      int count = range[r*2+1];
+      ParticleGroup group = range_group[r];
+
+      int match = -1;
+      if(group != null){
+        for(int i = p; i < prev_num; i++){
+          if(prev_group[i] == group){
+            // particles are only removed from a group, unless it was joined
+            if(count <= prev[i*2+1]){
+              match = i;
+            }
+            p = i + 1;
+            break;
+          }
+        }
+      } else if(gaps_valid){
+        while(g < prev_num && prev[g*2+0] < start){
+          g++;
+        }
+        if(g < prev_num && prev_group[g] == null && prev[g*2+0] == start && prev[g*2+1] == count){
+          match = g;
+        }
+      }
+
+      if(match != -1){
+        System.arraycopy(prev_aabb, match*4, range_aabb, r*4, 4);
+        range_step[r] = prev_step[match];
+      } else {
+        range_step[r] = -1;
+      }
+    }
+  }
+
+}
@@ -0,0 +1,268 @@
+/**
+ * 
+ * LiquidFunProcessing | Copyright 2017 Thomas Diewald - www.thomasdiewald.com
+ * 
+ * https://github.com/diwi/LiquidFunProcessing.git
+ * 
+ * Box2d / LiquidFun Library for Processing.
+ * MIT License: https://opensource.org/licenses/MIT
+ * 
+ */
+
+
+package com.thomasdiewald.liquidfun.java;
+
+import java.util.ArrayList;
+
+import org.jbox2d.dynamics.World;
+import org.jbox2d.particle.ParticleColor;
+import org.jbox2d.particle.ParticleType;
+
+
+
+/**
+ * 
+ * Caps the number of particles, by evicting the oldest ones in bulk.<br>
+ * <br>
+ * Particles are tagged with a {@link Batch} (one per physics step) as
+ * particle user-data, by {@link DwParticleEmitter} and
+ * {@link com.thomasdiewald.liquidfun.java.interaction.DwParticleSpawn}.
+ * Since the user-data is moved along with the particle when the ParticleSystem
+ * compacts its buffers, the birth order survives any destruction.<br>
+ * <br>
+ * When the particle count exceeds max_particles, the oldest batches are
+ * evicted until the count is below max_particles * (1 - evict_ratio). Evicted
+ * particles are optionally faded out (color alpha) over fade_steps updates,
+ * then flagged as b2_zombieParticle and removed by the next step. While
+ * fading, no further evictions are started.<br>
+ * Counting and evicting cost one pass over the user-data buffer, and only
+ * happen when the cap is reached (or while fading).<br>
+ * Batches whose particles were destroyed otherwise (zombie culling,
+ * destroyers, ...) are pruned by the same counting pass, whenever the number
+ * of batches exceeds max_batches, or twice the number of live batches after
+ * the previous pass. So the number of batches stays bounded, even if the cap
+ * is never reached.<br>
+ * <br>
+ * Particles with other user-data, or created elsewhere, are not tracked and
+ * never evicted.<br>
+ * 
+ * @author Thomas Diewald
+ * 
+ */
+public class DwParticleBudget {
+
+
+  /**
+   * birth tag, shared by all particles created during the same step.
+   */
+  static public class Batch {
+    public final int step;
+    protected int alive = 0;
+    protected int fade = -1; // remaining fade steps, -1 if not evicted
+
+    public Batch(int step){
+      this.step = step;
+    }
+  }
+
+
+  public DwWorld world;
+
+  public int   max_particles;
+  public float evict_ratio = 0.1f;
+  public int   fade_steps  = 0; // 0 = evict immediately
+  public int   max_batches = 256; // counting pass, when exceeded
+
+  // live batches, oldest first
+  protected ArrayList<Batch> batches = new ArrayList<Batch>();
+  protected Batch batch = null;
+  protected boolean fading = false;
+  protected int prune_limit = 0;
+
+  // stats
+  public int stat_evicted       = 0; // last eviction
+  public int stat_evicted_total = 0;
+  public int stat_evictions     = 0;
+
+
+  public DwParticleBudget(DwWorld world, int max_particles){
+    this.world = world;
+    this.max_particles = max_particles;
+  }
+
+
+  /**
+   * @return the user-data for new particles: the batch of the current step,
+   * or the given user-data if it is not a batch.
+   */
+  public Object tag(Object user_data){
+    if(user_data != null && !(user_data instanceof Batch)){
+      return user_data;
+    }
+    int step = world.getStepCount();
+    if(batch == null || batch.step != step){
+      batch = new Batch(step);
+      batches.add(batch);
+    }
+    return batch;
+  }
+
+
+  /**
+   * same as {@link #tag(Object)}, if the world has a particle budget.
+   */
+  static public Object tag(World world, Object user_data){
+    if(world instanceof DwWorld){
+      DwParticleBudget budget = ((DwWorld) world).getParticleBudget();
+      if(budget != null){
+        return budget.tag(user_data);
+      }
+    }
+    return user_data;
+  }
+
+
+  public int getNumBatches(){
+    return batches.size();
+  }
+
+  public boolean isFading(){
+    return fading;
+  }
+
+
+  /**
+   * called by DwWorld, before the physics step.
+   */
+  public void update(){
+    if(fading){
+      fade();
+      return;
+    }
+
+    int num = world.getParticleCount();
+    if(num <= max_particles){
+      // batches of particles, destroyed by others
+      if(batches.size() > Math.max(max_batches, prune_limit)){
+        Object[] user_data = world.getParticleUserDataBuffer();
+        if(user_data != null){
+          count(user_data, num);
+        }
+      }
+      return;
+    }
+    Object[] user_data = world.getParticleUserDataBuffer();
+    if(user_data == null){
+      return;
+    }
+
+    // 1) particles per batch
+    count(user_data, num);
+
+    // 2) oldest batches, until the count is below the low watermark
+    int excess = num - (int) (max_particles * (1f - evict_ratio));
+    int evicted = 0;
+    for(Batch b : batches){
+      if(evicted >= excess){
+        break;
+      }
+      if(b.alive > 0){
+        b.fade = fade_steps;
+        evicted += b.alive;
+      }
+    }
+    if(evicted == 0){
+      return;
+    }
+
+    stat_evicted = evicted;
+    stat_evicted_total += evicted;
+    stat_evictions++;
+
+    fading = true;
+    fade();
+  }
+
+
+  /**
+   * counts the particles per batch, and removes the empty batches.
+   */
+  protected void count(Object[] user_data, int num){
+    for(Batch b : batches){
+      b.alive = 0;
+    }
+    for(int i = 0; i < num; i++){
+      Object obj = user_data[i];
+      if(obj instanceof Batch){
+        ((Batch) obj).alive++;
+      }
+    }
+    int live = 0;
+    for(int i = 0, len = batches.size(); i < len; i++){
+      Batch b = batches.get(i);
+      if(b.alive > 0 || b == batch){
+        batches.set(live++, b);
+      }
+    }
+    while(batches.size() > live){
+      batches.remove(batches.size() - 1);
+    }
+    // the next pruning pass, amortized if most batches are alive
+    prune_limit = live * 2;
+  }
+
+
+  /**
+   * fades the evicted batches, and flags them as zombies when done.
+   */
+  protected void fade(){
+    int            num       = world.getParticleCount();
+    Object       [] user_data = world.getParticleUserDataBuffer();
+    int          [] flags     = world.getParticleFlagsBuffer();
+    ParticleColor[] colors    = world.getParticleColorBuffer();
+
+    for(int i = 0; i < num; i++){
+      Object obj = user_data[i];
+      if(!(obj instanceof Batch)){
+        continue;
+      }
+      Batch b = (Batch) obj;
+      if(b.fade > 0){
+        if(colors != null){
+          // linear, reaches 0 after the remaining steps
+          ParticleColor c = colors[i];
+          c.a = (byte) (((c.a & 0xFF) * (b.fade - 1)) / b.fade);
+        }
+      } else if(b.fade == 0){
+        flags[i] |= ParticleType.b2_zombieParticle;
+      }
+    }
+
+    // advance, remove finished batches
+    fading = false;
+    for(int i = batches.size() - 1; i >= 0; i--){
+      Batch b = batches.get(i);
+      if(b.fade == 0){
+        batches.remove(i);
+        if(b == batch){
+          batch = null;
+        }
+      } else if(b.fade > 0){
+        b.fade--;
+        fading = true;
+      }
+    }
+  }
+
+
+  /**
+   * stops tracking, the particles keep their user-data.
+   */
+  public void clear(){
+    batches.clear();
+    batch = null;
+    fading = false;
+    prune_limit = 0;
+  }
+
+}
@@ -104,6 +104,7 @@ public class DwParticleEmitter {
       // create Particle
       pdef.position.set(pos_x, pos_y);
       pdef.velocity.set(vel_x, vel_y);
+      pdef.userData = DwParticleBudget.tag(world, pdef.userData);
       world.createParticle(pdef);
       
       counter++;
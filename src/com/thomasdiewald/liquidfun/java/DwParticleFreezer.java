@@ -0,0 +1,423 @@
+/**
+ * 
+ * LiquidFunProcessing | Copyright 2017 Thomas Diewald - www.thomasdiewald.com
+ * 
+ * https://github.com/diwi/LiquidFunProcessing.git
+ * 
+ * Box2d / LiquidFun Library for Processing.
+ * MIT License: https://opensource.org/licenses/MIT
+ * 
+ */
+
+
+package com.thomasdiewald.liquidfun.java;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+
+import org.jbox2d.callbacks.QueryCallback;
+import org.jbox2d.collision.AABB;
+import org.jbox2d.common.Vec2;
+import org.jbox2d.dynamics.Body;
+import org.jbox2d.dynamics.BodyType;
+import org.jbox2d.dynamics.Fixture;
+import org.jbox2d.particle.ParticleGroup;
+import org.jbox2d.particle.ParticleGroupType;
+import org.jbox2d.particle.ParticleType;
+
+import processing.event.MouseEvent;
+
+
+
+/**
+ * 
+ * Freezes particle groups that came to rest, and wakes them up again on
+ * contact.<br>
+ * <br>
+ * The kinetic energy of each group (mean squared particle velocity) is
+ * tracked every update. A group that stays below energy_threshold for
+ * "window" consecutive updates is frozen: its particles are flagged as
+ * b2_wallParticle, which the ParticleSystem treats as immovable (zero velocity,
+ * no integration) but still collides with. The renderer keeps the render data
+ * of frozen groups from the previous update instead of copying it again, see
+ * {@link com.thomasdiewald.liquidfun.java.render.DwParticleRender#updateBuffers()}.<br>
+ * <br>
+ * A frozen group wakes up (flags restored, tracking restarts) when its bounds
+ * are touched by an awake dynamic body (incl. bullets), by a moving particle
+ * of another group or an ungrouped one, by a pressed mouse interaction, or
+ * when its particles are destroyed or moved in the buffers.<br>
+ * <br>
+ * Rigid groups, and groups that already contain wall particles, are never
+ * frozen.<br>
+ * <br>
+ * Usage: world.useParticleFreezer(true);<br>
+ * 
+ * @author Thomas Diewald
+ * 
+ */
+public class DwParticleFreezer {
+
+
+  /**
+   * tracking state of a particle group.
+   */
+  static public class State {
+    public final ParticleGroup group;
+
+    public boolean frozen = false;
+    public boolean ignore = false; // never frozen
+    public int     calm   = 0;     // consecutive updates below the threshold
+    public float   energy = 0;     // mean squared velocity, last update
+
+    // buffer range and bounds, at the time of freezing
+    public int  index = -1;
+    public int  count = -1;
+    public final AABB aabb = new AABB();
+
+    // buffer range, at the time of the last render update
+    protected int render_index = -1;
+    protected int render_count = -1;
+
+    protected double v2_sum = 0;
+    protected int    v2_num = 0;
+    protected int    stamp  = 0;
+
+    public State(ParticleGroup group){
+      this.group = group;
+    }
+  }
+
+
+  public DwWorld world;
+
+  public float energy_threshold = 0.01f; // mean squared velocity, (m/s)^2
+  public int   window           = 60;    // updates, below the threshold
+  public float wake_velocity    = 0.5f;  // m/s, particles faster than this wake frozen groups
+  public float wake_margin      = 0.1f;  // m, added to the bounds of frozen groups
+  public float wake_radius      = 1.0f;  // m, around the mouse, while pressed
+
+  protected IdentityHashMap<ParticleGroup, State> states = new IdentityHashMap<ParticleGroup, State>();
+  protected ArrayList<State> frozen = new ArrayList<State>();
+  protected int stamp = 0;
+
+  // mouse, in world space, while a button is pressed
+  protected boolean mouse_pressed = false;
+  protected final Vec2 mouse = new Vec2();
+
+  // particle ranges [lo, hi), whose render data is unchanged
+  public int   static_ranges_count = 0;
+  public int[] static_ranges = new int[0];
+
+  // stats
+  public int stat_frozen_groups    = 0;
+  public int stat_frozen_particles = 0;
+  public int stat_freezes          = 0;
+  public int stat_wakes            = 0;
+
+
+  public DwParticleFreezer(DwWorld world){
+    this.world = world;
+  }
+
+
+  public State getState(ParticleGroup group){
+    return states.get(group);
+  }
+
+  public boolean isFrozen(ParticleGroup group){
+    State state = states.get(group);
+    return state != null && state.frozen;
+  }
+
+  public int getNumFrozen(){
+    return frozen.size();
+  }
+
+
+
+  /**
+   * called by DwWorld, before the physics step.
+   */
+  public void update(){
+    stamp++;
+
+    // renderers may be replaced anytime
+    if(world.particles != null){
+      world.particles.freezer = this;
+    }
+
+    // 1) groups, validate frozen ranges
+    for(ParticleGroup group = world.getParticleGroupList(); group != null; group = group.getNext()){
+      State state = states.get(group);
+      if(state == null){
+        state = new State(group);
+        states.put(group, state);
+      }
+      state.stamp = stamp;
+      state.v2_sum = 0;
+      state.v2_num = 0;
+      if(state.frozen && (state.index != group.getBufferIndex() || state.count != group.getParticleCount())){
+        wake(state);
+      }
+    }
+
+    // destroyed groups
+    for(Iterator<State> it = states.values().iterator(); it.hasNext();){
+      State state = it.next();
+      if(state.stamp != stamp){
+        it.remove();
+        frozen.remove(state);
+      }
+    }
+
+    // 2) bodies, interactions
+    if(frozen.size() > 0){
+      wakeByBodies();
+    }
+    if(frozen.size() > 0 && mouse_pressed){
+      wake(mouse.x - wake_radius, mouse.y - wake_radius, mouse.x + wake_radius, mouse.y + wake_radius);
+    }
+
+    // 3) particles, energy per group, moving particles wake frozen groups
+    int             num    = world.getParticleCount();
+    Vec2         [] pos    = world.getParticlePositionBuffer();
+    Vec2         [] vel    = world.getParticleVelocityBuffer();
+    ParticleGroup[] groups = world.getParticleGroupBuffer();
+
+    if(num > 0 && pos != null && vel != null){
+      float wake_v2 = wake_velocity * wake_velocity;
+      ParticleGroup group = null;
+      State state = null;
+      for(int i = 0; i < num; i++){
+        ParticleGroup group_i = (groups != null) ? groups[i] : null;
+        if(group_i != group){
+          group = group_i;
+          state = (group != null) ? states.get(group) : null;
+        }
+        if(state != null && state.frozen){
+          continue;
+        }
+        Vec2 v = vel[i];
+        float v2 = v.x * v.x + v.y * v.y;
+        if(state != null){
+          state.v2_sum += v2;
+          state.v2_num++;
+        }
+        if(v2 > wake_v2 && frozen.size() > 0){
+          Vec2 p = pos[i];
+          wake(p.x, p.y, p.x, p.y);
+        }
+      }
+    }
+
+    // 4) settled groups
+    for(State state : states.values()){
+      if(state.frozen || state.ignore){
+        continue;
+      }
+      state.energy = (state.v2_num > 0) ? (float) (state.v2_sum / state.v2_num) : 0;
+      state.calm = (state.v2_num > 0 && state.energy < energy_threshold) ? state.calm + 1 : 0;
+      if(state.calm >= window){
+        freeze(state);
+      }
+    }
+
+    stat_frozen_groups    = frozen.size();
+    stat_frozen_particles = 0;
+    for(State state : frozen){
+      stat_frozen_particles += state.count;
+    }
+  }
+
+
+  protected void freeze(State state){
+    ParticleGroup group = state.group;
+    int lo = group.getBufferIndex();
+    int hi = lo + group.getParticleCount();
+
+    int  [] flags = world.getParticleFlagsBuffer();
+    Vec2 [] pos   = world.getParticlePositionBuffer();
+    Vec2 [] vel   = world.getParticleVelocityBuffer();
+
+    if((group.getGroupFlags() & ParticleGroupType.b2_rigidParticleGroup) != 0 || flags == null || hi <= lo){
+      state.ignore = true;
+      return;
+    }
+    for(int i = lo; i < hi; i++){
+      if((flags[i] & ParticleType.b2_wallParticle) != 0){
+        state.ignore = true;
+        return;
+      }
+    }
+
+    float r = world.getParticleRadius() + wake_margin;
+    float xmin = Float.MAX_VALUE, ymin = Float.MAX_VALUE;
+    float xmax = -Float.MAX_VALUE, ymax = -Float.MAX_VALUE;
+    for(int i = lo; i < hi; i++){
+      flags[i] |= ParticleType.b2_wallParticle;
+      vel[i].setZero();
+      Vec2 p = pos[i];
+      if(p.x < xmin) xmin = p.x;
+      if(p.y < ymin) ymin = p.y;
+      if(p.x > xmax) xmax = p.x;
+      if(p.y > ymax) ymax = p.y;
+    }
+    state.aabb.lowerBound.set(xmin - r, ymin - r);
+    state.aabb.upperBound.set(xmax + r, ymax + r);
+
+    state.index  = lo;
+    state.count  = hi - lo;
+    state.frozen = true;
+    frozen.add(state);
+    stat_freezes++;
+  }
+
+
+  protected void wake(State state){
+    ParticleGroup group = state.group;
+    int lo = group.getBufferIndex();
+    int hi = lo + group.getParticleCount();
+
+    int[] flags = world.getParticleFlagsBuffer();
+    for(int i = lo; i < hi && flags != null; i++){
+      flags[i] &= ~ParticleType.b2_wallParticle;
+    }
+
+    state.frozen = false;
+    state.calm   = 0;
+    state.render_index = -1;
+    state.render_count = -1;
+    frozen.remove(state);
+    stat_wakes++;
+  }
+
+
+  /**
+   * wakes all frozen groups, whose bounds overlap the given area.
+   */
+  public void wake(float xmin, float ymin, float xmax, float ymax){
+    for(int i = frozen.size() - 1; i >= 0; i--){
+      State state = frozen.get(i);
+      AABB aabb = state.aabb;
+      if(xmin <= aabb.upperBound.x && xmax >= aabb.lowerBound.x &&
+         ymin <= aabb.upperBound.y && ymax >= aabb.lowerBound.y)
+      {
+        wake(state);
+      }
+    }
+  }
+
+
+  /**
+   * wakes all frozen groups.
+   */
+  public void wakeAll(){
+    for(int i = frozen.size() - 1; i >= 0; i--){
+      wake(frozen.get(i));
+    }
+  }
+
+
+  protected State query_state;
+
+  protected final QueryCallback query_bodies = new QueryCallback() {
+    @Override
+    public boolean reportFixture(Fixture fixture) {
+      Body body = fixture.getBody();
+      if(body.getType() == BodyType.DYNAMIC && body.isAwake()){
+        wake(query_state);
+        return false;
+      }
+      return true;
+    }
+  };
+
+  protected void wakeByBodies(){
+    for(int i = frozen.size() - 1; i >= 0; i--){
+      query_state = frozen.get(i);
+      world.queryAABB(query_bodies, query_state.aabb);
+    }
+    query_state = null;
+  }
+
+
+  /**
+   * called by DwWorld, tracks the mouse while a button is pressed.
+   */
+  public void mouseEvent(MouseEvent event){
+    switch(event.getAction()){
+      case MouseEvent.PRESS:
+      case MouseEvent.DRAG:
+        mouse_pressed = true;
+        world.transform.getScreen2box(event.getX(), event.getY(), mouse);
+        break;
+      case MouseEvent.RELEASE:
+        mouse_pressed = false;
+        break;
+    }
+  }
+
+
+
+  /**
+   * 
+   * Collects the particle ranges of the groups, that were frozen during the
+   * previous render update and are still at the same buffer location.<br>
+   * Called by the renderer, before copying the particle data.<br>
+   * 
+   * @return number of ranges, [lo, hi) pairs in static_ranges, sorted
+   */
+  public int updateStaticRanges(){
+    static_ranges_count = 0;
+    static_ranges = DwUtils.resizeBuffer(static_ranges, frozen.size() * 2);
+    for(State state : frozen){
+      ParticleGroup group = state.group;
+      int lo = group.getBufferIndex();
+      int hi = lo + group.getParticleCount();
+      if(state.render_index == lo && state.render_count == hi - lo && hi > lo){
+        static_ranges[static_ranges_count * 2 + 0] = lo;
+        static_ranges[static_ranges_count * 2 + 1] = hi;
+        static_ranges_count++;
+      }
+    }
+
+    // sort by lo, insertion sort, the list is short and mostly sorted
+    for(int i = 1; i < static_ranges_count; i++){
+      int lo = static_ranges[i * 2 + 0];
+      int hi = static_ranges[i * 2 + 1];
+      int j = i - 1;
+      for(; j >= 0 && static_ranges[j * 2] > lo; j--){
+        static_ranges[j * 2 + 2] = static_ranges[j * 2 + 0];
+        static_ranges[j * 2 + 3] = static_ranges[j * 2 + 1];
+      }
+      static_ranges[j * 2 + 2] = lo;
+      static_ranges[j * 2 + 3] = hi;
+    }
+    return static_ranges_count;
+  }
+
+
+  /**
+   * Called by the renderer, after copying the particle data. The ranges of
+   * the currently frozen groups are up to date from now on.
+   */
+  public void setRendered(){
+    for(State state : frozen){
+      state.render_index = state.group.getBufferIndex();
+      state.render_count = state.group.getParticleCount();
+    }
+  }
+
+
+  /**
+   * wakes all frozen groups and stops tracking.
+   */
+  public void clear(){
+    wakeAll();
+    states.clear();
+    frozen.clear();
+    static_ranges_count = 0;
+  }
+
+}
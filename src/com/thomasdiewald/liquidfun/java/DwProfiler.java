@@ -0,0 +1,235 @@
+/**
+ * 
+ * LiquidFunProcessing | Copyright 2017 Thomas Diewald - www.thomasdiewald.com
+ * 
+ * https://github.com/diwi/LiquidFunProcessing.git
+ * 
+ * Box2d / LiquidFun Library for Processing.
+ * MIT License: https://opensource.org/licenses/MIT
+ * 
+ */
+
+
+
+package com.thomasdiewald.liquidfun.java;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+
+import processing.core.PConstants;
+import processing.core.PGraphics;
+
+
+
+/**
+ * 
+ * Simple frame profiler.<br>
+ * Each phase is timed with System.nanoTime(), the durations of the last
+ * {@link #window} frames are kept for the min/mean/p95/max statistics.<br>
+ * <br>
+ * Usage:<br>
+ * profiler.begin("step");<br>
+ * ...<br>
+ * profiler.end("step");<br>
+ * <br>
+ * float p95 = profiler.get("step").p95(); // milliseconds<br>
+ * 
+ * @author Thomas Diewald
+ * 
+ */
+public class DwProfiler {
+
+  static public class Phase {
+
+    public final String name;
+
+    protected long[] samples; // nanoseconds
+    protected long[] sorted;
+    protected int    samples_num = 0;
+    protected int    samples_pos = 0;
+    protected long   sample_last = 0;
+    protected long   time_begin  = 0;
+
+    protected Phase(String name, int window){
+      this.name = name;
+      this.samples = new long[Math.max(1, window)];
+      this.sorted  = new long[samples.length];
+    }
+
+    public void begin(){
+      time_begin = System.nanoTime();
+    }
+
+    public void end(){
+      add(System.nanoTime() - time_begin);
+    }
+
+    /**
+     * adds a sample, in nanoseconds.
+     */
+    public void add(long duration){
+      sample_last = duration;
+      samples[samples_pos] = duration;
+      samples_pos = (samples_pos + 1) % samples.length;
+      samples_num = Math.min(samples_num + 1, samples.length);
+    }
+
+    public void reset(){
+      samples_num = 0;
+      samples_pos = 0;
+      sample_last = 0;
+    }
+
+    /** @return number of samples in the window */
+    public int count(){ return samples_num; }
+
+    /** @return the last sample, in milliseconds */
+    public float last(){ return sample_last * 1E-6f; }
+
+    /** @return minimum of the window, in milliseconds */
+    public float min(){ return percentile(0f); }
+
+    /** @return maximum of the window, in milliseconds */
+    public float max(){ return percentile(1f); }
+
+    /** @return 95th percentile of the window, in milliseconds */
+    public float p95(){ return percentile(0.95f); }
+
+    /** @return mean of the window, in milliseconds */
+    public float mean(){
+      if(samples_num == 0) return 0;
+      long sum = 0;
+      for(int i = 0; i < samples_num; i++){
+        sum += samples[i];
+      }
+      return sum * 1E-6f / samples_num;
+    }
+
+    /**
+     * @param p [0, 1]
+     * @return percentile of the window, in milliseconds
+     */
+    public float percentile(float p){
+      if(samples_num == 0) return 0;
+      System.arraycopy(samples, 0, sorted, 0, samples_num);
+      Arrays.sort(sorted, 0, samples_num);
+      int idx = Math.round(p * (samples_num - 1));
+      return sorted[idx] * 1E-6f;
+    }
+
+    @Override
+    public String toString(){
+      return String.format(Locale.ENGLISH, "%-10s %7.3f %7.3f %7.3f %7.3f %7.3f", name, last(), min(), mean(), p95(), max());
+    }
+  }
+
+
+  // number of samples per phase, for the statistics
+  public int window = 120;
+
+  protected ArrayList<Phase> phases = new ArrayList<Phase>();
+  protected HashMap<String, Phase> phases_map = new HashMap<String, Phase>();
+
+
+  public DwProfiler(){
+  }
+
+  public DwProfiler(int window){
+    this.window = window;
+  }
+
+
+  /**
+   * @return the phase with the given name, created if it doesn't exist.
+   */
+  public Phase get(String name){
+    Phase phase = phases_map.get(name);
+    if(phase == null){
+      phase = new Phase(name, window);
+      phases_map.put(name, phase);
+      phases.add(phase);
+    }
+    return phase;
+  }
+
+  public boolean has(String name){
+    return phases_map.containsKey(name);
+  }
+
+  /**
+   * @return all phases, in the order of their first use.
+   */
+  public List<Phase> getPhases(){
+    return phases;
+  }
+
+  public void begin(String name){
+    get(name).begin();
+  }
+
+  public void end(String name){
+    get(name).end();
+  }
+
+  public void add(String name, long duration){
+    get(name).add(duration);
+  }
+
+  public void reset(){
+    for(Phase phase : phases){
+      phase.reset();
+    }
+  }
+
+
+  /**
+   * one line per phase: name, last, min, mean, p95, max [ms]
+   */
+  public void toDebugStrings(List<String> lines){
+    lines.add(String.format(Locale.ENGLISH, "%-10s %7s %7s %7s %7s %7s", "[ms]", "last", "min", "mean", "p95", "max"));
+    for(Phase phase : phases){
+      lines.add(phase.toString());
+    }
+  }
+
+  @Override
+  public String toString(){
+    ArrayList<String> lines = new ArrayList<String>();
+    toDebugStrings(lines);
+    StringBuilder sb = new StringBuilder();
+    for(String line : lines){
+      sb.append(line).append('\n');
+    }
+    return sb.toString();
+  }
+
+
+
+  /**
+   * Draws the given lines as a text overlay, starting at the given position.
+   */
+  static public void display(PGraphics canvas, List<String> lines, float px, float py){
+    float line_h = 14;
+    float char_w = 7;
+    int max_len = 0;
+    for(String line : lines){
+      max_len = Math.max(max_len, line.length());
+    }
+
+    canvas.pushStyle();
+    canvas.noStroke();
+    canvas.fill(0, 160);
+    canvas.rect(px, py, max_len * char_w + 10, lines.size() * line_h + 10);
+    canvas.fill(220);
+    canvas.textAlign(PConstants.LEFT, PConstants.TOP);
+    canvas.textSize(12);
+    for(int i = 0; i < lines.size(); i++){
+      canvas.text(lines.get(i), px + 5, py + 5 + i * line_h);
+    }
+    canvas.popStyle();
+  }
+
+}
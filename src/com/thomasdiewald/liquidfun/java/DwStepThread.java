@@ -0,0 +1,173 @@
+/**
+ * 
+ * LiquidFunProcessing | Copyright 2017 Thomas Diewald - www.thomasdiewald.com
+ * 
+ * https://github.com/diwi/LiquidFunProcessing.git
+ * 
+ * Box2d / LiquidFun Library for Processing.
+ * MIT License: https://opensource.org/licenses/MIT
+ * 
+ */
+
+
+
+package com.thomasdiewald.liquidfun.java;
+
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+
+
+/**
+ * 
+ * Background thread for stepping a DwWorld.<br>
+ * <br>
+ * After each step, the render relevant world state is captured into the back
+ * snapshot. The animation thread swaps it with the front snapshot and applies it
+ * to the render components, while the next step is already running.<br>
+ * <br>
+ * Any world access (creating/destroying bodies, particles, etc...) must be done
+ * while holding the {@link #lock}. DwWorld does this for its update-step and
+ * the mouse/key interactions.<br>
+ * <br>
+ * Usage: see {@link DwWorld#startStepThread()}, {@link DwWorld#updateAsync()}
+ * 
+ * @author Thomas Diewald
+ * 
+ */
+public class DwStepThread implements Runnable {
+
+  public final DwWorld world;
+
+  public float timestep      = 1/60f;
+  public int   iter_velocity = 8;
+  public int   iter_position = 4;
+
+  public final ReentrantLock lock = new ReentrantLock();
+  protected final Condition step_signal = lock.newCondition();
+
+  protected DwWorldSnapshot snapshot_front = new DwWorldSnapshot();
+  protected DwWorldSnapshot snapshot_back  = new DwWorldSnapshot();
+
+  protected Thread thread;
+  protected volatile boolean running = false;
+
+  // guarded by lock
+  protected boolean step_requested = false;
+  protected boolean step_published = false;
+  protected int     step_count = 0;
+
+  // duration of the last step + capture, in milliseconds
+  public volatile float step_duration = 0;
+
+
+
+  public DwStepThread(DwWorld world){
+    this.world = world;
+  }
+
+
+  public void start(){
+    if(running){
+      return;
+    }
+    running = true;
+    thread = new Thread(this, "DwStepThread");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+
+  public void stop(){
+    if(!running){
+      return;
+    }
+    lock.lock();
+    try {
+      running = false;
+      step_signal.signalAll();
+    } finally {
+      lock.unlock();
+    }
+
+    try {
+      thread.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    thread = null;
+  }
+
+
+  public boolean isRunning(){
+    return running;
+  }
+
+
+
+  /**
+   * must be called while holding the lock.
+   * @return true, if a step is requested, but has not finished yet.
+   */
+  public boolean isStepPending(){
+    return step_requested;
+  }
+
+  /**
+   * Requests the next step. Must be called while holding the lock.
+   */
+  public void requestStep(){
+    step_requested = true;
+    step_signal.signalAll();
+  }
+
+  /**
+   * Must be called while holding the lock.
+   * 
+   * @return the latest published snapshot, or null if there is no new one.
+   */
+  public DwWorldSnapshot swap(){
+    if(!step_published){
+      return null;
+    }
+    DwWorldSnapshot tmp = snapshot_front;
+    snapshot_front = snapshot_back;
+    snapshot_back = tmp;
+    step_published = false;
+    return snapshot_front;
+  }
+
+
+
+  @Override
+  public void run() {
+    lock.lock();
+    try {
+      while(running){
+
+        while(running && !step_requested){
+          step_signal.awaitUninterruptibly();
+        }
+        if(!running){
+          break;
+        }
+
+        long timer = System.nanoTime();
+
+        world.step(timestep, iter_velocity, iter_position);
+        step_count++;
+
+        snapshot_back.capture(world);
+        snapshot_back.step = step_count;
+
+        step_duration = (System.nanoTime() - timer) / 1E6f;
+
+        step_requested = false;
+        step_published = true;
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+}
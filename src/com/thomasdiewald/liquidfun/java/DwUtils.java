@@ -20,6 +20,8 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.Arrays;
 
 import org.jbox2d.common.Transform;
@@ -510,6 +512,13 @@ public class DwUtils {
     if(buffer == null) return new byte[len];
     return (buffer.length >= len) ? buffer : new byte[(int) Math.ceil(len * 1.5f)];
   }
+  /**
+   * allocates a new direct ByteBuffer (native byte order) only if buffer.capacity() < len
+   */
+  static final public ByteBuffer resizeBuffer(ByteBuffer buffer, int len){
+    if(buffer == null) return ByteBuffer.allocateDirect(len).order(ByteOrder.nativeOrder());
+    return (buffer.capacity() >= len) ? buffer : ByteBuffer.allocateDirect((int) Math.ceil(len * 1.5f)).order(ByteOrder.nativeOrder());
+  }
   
   
   static final public float clamp(float val, float lo, float hi){
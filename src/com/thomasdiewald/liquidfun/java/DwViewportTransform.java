@@ -12,6 +12,7 @@
 
 package com.thomasdiewald.liquidfun.java;
 
+import org.jbox2d.collision.AABB;
 import org.jbox2d.common.IViewportTransform;
 import org.jbox2d.common.Mat22;
 import org.jbox2d.common.Vec2;
@@ -314,4 +315,35 @@ public class DwViewportTransform implements IViewportTransform {
 
   
   
+  /**
+   * 
+   * Computes the world-space AABB of the visible screen area [0, screen_dimx] x
+   * [0, screen_dimy], using mat_screen2box.<br>
+   * 
+   * @param margin screen-space border, added on each side
+   * @param out_aabb result, or null to create a new one
+   */
+  public AABB getVisibleAABB(float margin, AABB out_aabb){
+    if(out_aabb == null){
+      out_aabb = new AABB();
+    }
+    float x0 = -margin, x1 = screen_dimx + margin;
+    float y0 = -margin, y1 = screen_dimy + margin;
+    
+    float min_x = Float.MAX_VALUE, max_x = -Float.MAX_VALUE;
+    float min_y = Float.MAX_VALUE, max_y = -Float.MAX_VALUE;
+    for(int i = 0; i < 4; i++){
+      xy1[0] = (i & 1) == 0 ? x0 : x1;
+      xy1[1] = (i & 2) == 0 ? y0 : y1;
+      mat_screen2box.mult(xy1, xy2);
+      min_x = Math.min(min_x, xy2[0]); max_x = Math.max(max_x, xy2[0]);
+      min_y = Math.min(min_y, xy2[1]); max_y = Math.max(max_y, xy2[1]);
+    }
+    out_aabb.lowerBound.set(min_x, min_y);
+    out_aabb.upperBound.set(max_x, max_y);
+    return out_aabb;
+  }
+
+  
+  
 }
\ No newline at end of file
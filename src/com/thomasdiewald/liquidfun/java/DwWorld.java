@@ -14,17 +14,23 @@
 package com.thomasdiewald.liquidfun.java;
 
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 
 import org.jbox2d.collision.AABB;
 import org.jbox2d.common.Transform;
 import org.jbox2d.common.Vec2;
 import org.jbox2d.dynamics.Body;
+import org.jbox2d.dynamics.BodyType;
 import org.jbox2d.dynamics.Fixture;
 import org.jbox2d.dynamics.World;
 import org.jbox2d.dynamics.joints.Joint;
+import org.jbox2d.dynamics.joints.JointEdge;
 import org.jbox2d.dynamics.joints.JointType;
 import org.jbox2d.dynamics.joints.PulleyJoint;
+import org.jbox2d.particle.ParticleDef;
+import org.jbox2d.particle.ParticleGroup;
+import org.jbox2d.particle.ParticleGroupDef;
 import org.jbox2d.particle.ParticleType;
 
 import com.thomasdiewald.liquidfun.java.interaction.DwMouseShootBullet;
@@ -35,12 +41,14 @@ import com.thomasdiewald.liquidfun.java.interaction.DwMouseDragBodies;
 import com.thomasdiewald.liquidfun.java.interaction.DwMouseDragParticles;
 import com.thomasdiewald.liquidfun.java.render.DwBody;
 import com.thomasdiewald.liquidfun.java.render.DwBodyGroup;
+import com.thomasdiewald.liquidfun.java.render.DwBodyPool;
 import com.thomasdiewald.liquidfun.java.render.DwDebugDraw;
 import com.thomasdiewald.liquidfun.java.render.DwFixture;
 import com.thomasdiewald.liquidfun.java.render.DwJoint;
 import com.thomasdiewald.liquidfun.java.render.DwParticleRender;
 import com.thomasdiewald.liquidfun.java.render.DwParticleRenderGL;
 import com.thomasdiewald.liquidfun.java.render.DwParticleRenderP5;
+import com.thomasdiewald.liquidfun.java.render.ShapeStyle;
 
 import processing.core.PApplet;
 import processing.core.PGraphics;
@@ -102,6 +110,24 @@ public class DwWorld extends World{
 
   
   public DwWorld(PApplet papplet, float scale){
+    this(papplet, papplet.width, papplet.height, scale);
+  }
+  
+  
+  /**
+   * 
+   * Headless world, no PApplet, no OpenGL context and no render components.<br>
+   * The screen dimensions are only used for the viewport transform, e.g. for
+   * the zombie bounds and the interactions.<br>
+   * 
+   */
+  public DwWorld(int screen_w, int screen_h, float scale){
+    this(null, screen_w, screen_h, scale);
+  }
+  
+  
+  
+  protected DwWorld(PApplet papplet, int screen_w, int screen_h, float scale){
     super(new Vec2(0, -10f));
     
     this.papplet = papplet;
@@ -113,27 +139,20 @@ public class DwWorld extends World{
     super.setParticleRadius(0.25f);
     
     
-    int w = papplet.width;
-    int h = papplet.height;
-    transform = new DwViewportTransform(papplet);
+    int w = screen_w;
+    int h = screen_h;
+    transform = new DwViewportTransform();
     transform.setScreen(w, h, scale, w/2, h);
     
     
     createZombieBounds();
-  
-    debug_draw = new DwDebugDraw(papplet, this, transform);
     
+    if(papplet != null){
+      createRenderers();
       
-    bodies = new DwBodyGroup(papplet, this, transform);
-    
-    if(INIT_GL_PARTICLES){
-      particles = new DwParticleRenderGL(papplet, this, transform);
-    } else {
-      particles = new DwParticleRenderP5(papplet, this, transform);
-    }
-    
-    for(int i = 0; i < registered_methods.length; i++){
-      papplet.registerMethod(registered_methods[i], this);
+      for(int i = 0; i < registered_methods.length; i++){
+        papplet.registerMethod(registered_methods[i], this);
+      }
     }
 
     
@@ -150,6 +169,45 @@ public class DwWorld extends World{
     addMouseAction(mouse_destroy_particles);
   }
   
+  
+  
+  /**
+   * 
+   * Creates the default render components (debug-draw, body-shapes, particles),
+   * in case they don't exist yet.<br>
+   * Does nothing for a headless world (papplet == null).<br>
+   * 
+   */
+  public void createRenderers(){
+    if(papplet == null){
+      return;
+    }
+    
+    if(debug_draw == null){
+      debug_draw = new DwDebugDraw(papplet, this, transform);
+    }
+    
+    if(bodies == null){
+      bodies = new DwBodyGroup(papplet, this, transform);
+    }
+    
+    if(particles == null){
+      if(INIT_GL_PARTICLES){
+        particles = new DwParticleRenderGL(papplet, this, transform);
+      } else {
+        particles = new DwParticleRenderP5(papplet, this, transform);
+      }
+    }
+  }
+  
+  
+  /**
+   * @return true, if this world was created without a PApplet.
+   */
+  public boolean isHeadless(){
+    return papplet == null;
+  }
+  
 
   
 
@@ -157,8 +215,12 @@ public class DwWorld extends World{
    * called by processing
    */
   public void dispose(){
-    for(int i = 0; i < registered_methods.length; i++){
-      papplet.unregisterMethod(registered_methods[i], this);
+    stopStepThread();
+    
+    if(papplet != null){
+      for(int i = 0; i < registered_methods.length; i++){
+        papplet.unregisterMethod(registered_methods[i], this);
+      }
     }
     
     if(bodies != null) bodies.release(); bodies = null;
@@ -183,7 +245,11 @@ public class DwWorld extends World{
   
  
   public void update(){
-    update(1/60f, 8, 4);
+    if(governor != null){
+      governor.update();
+    } else {
+      update(1/60f, 8, 4);
+    }
   }
   
   /**
@@ -194,71 +260,665 @@ public class DwWorld extends World{
    * @param positionIterations for the position constraint solver.
    */
   public void update(float timestep, int iter_velocity, int iter_position){
-    
-//    bodies.addBullet(true, 0xFF000000, false, 0xFF000000, 1f);
-    bodies.addBullet(true, 0xFF806040, false, 0xFF000000, 1f);
-//    bodies.addBullet(true, papplet.color(128), true, papplet.color(0), 1f);
+    profileBegin(PROFILE_UPDATE);
+    updateBegin();
+    profileBegin(PROFILE_STEP);
+    step(timestep, iter_velocity, iter_position);
+    destroyQueued();
+    profileEnd(PROFILE_STEP);
+    updateEnd(1f, 0f);
+    profileEnd(PROFILE_UPDATE);
+  }
+  
+  
+  // number of physics steps, since the world was created
+  protected int step_count = 0;
+  
+  /**
+   * physics step only, also called by the {@link DwStepThread}, so there is no
+   * shape related work in here, see {@link #destroyQueued()}.
+   */
+  @Override
+  public void step(float timestep, int iter_velocity, int iter_position){
+    if(input_recorder != null){
+      input_recorder.recordStep(timestep, iter_velocity, iter_position);
+    }
+    super.step(timestep, iter_velocity, iter_position);
+    step_count++;
+  }
+  
+  public int getStepCount(){
+    return step_count;
+  }
+  
+  
+  /**
+   * bullets, mouse-actions and zombie cleanup, before the physics step.
+   */
+  protected void updateBegin(){
+    if(input_recorder != null){
+      input_recorder.recordFrame();
+    }
+    if(memory_stats != null){
+      memory_stats.update();
+    }
+    profileBegin(PROFILE_INPUT);
+    if(bodies != null){
+//      bodies.addBullet(true, 0xFF000000, false, 0xFF000000, 1f);
+      bodies.addBullet(true, 0xFF806040, false, 0xFF000000, 1f);
+//      bodies.addBullet(true, papplet.color(128), true, papplet.color(0), 1f);
+    } else {
+      // headless, bullets have no shape
+      mouse_shoot_bullet.popBullet();
+    }
     
     mouseUpdateAction();
+    profileEnd(PROFILE_INPUT);
     
     if(zombie_aabb_enabled){
+      profileBegin(PROFILE_ZOMBIES);
       removeLostParticles();
       removeLostBodies();
+      profileEnd(PROFILE_ZOMBIES);
+    }
+    
+    if(particle_budget != null){
+      particle_budget.update();
+    }
+    
+    if(particle_freezer != null){
+      particle_freezer.update();
+    }
+  }
+  
+  /**
+   * body/joint shapes and particle buffers, after the physics step.
+   * 
+   * @param alpha interpolation factor between the previous and the current state
+   * @param particle_dt time the particles are moved back along their velocity
+   */
+  protected void updateEnd(float alpha, float particle_dt){
+    if(bodies != null && isShapeUpdateDue()){
+      profileBegin(PROFILE_BODIES);
+      updateBodies(alpha);
+      profileEnd(PROFILE_BODIES);
+      profileBegin(PROFILE_JOINTS);
+      updateJoints(alpha);
+      profileEnd(PROFILE_JOINTS);
+    }
+    if(particles != null){
+      profileBegin(PROFILE_PARTICLES);
+      particles.interpolation_dt = particle_dt;
+      particles.update();
+      profileEnd(PROFILE_PARTICLES);
+    }
+  }
+  
+  
+  
+  
+  
+  
+  //////////////////////////////////////////////////////////////////////////////
+  //
+  // Fixed Timestep, with render interpolation
+  //
+  //////////////////////////////////////////////////////////////////////////////
+  
+  // upper limit of physics steps per update, to avoid spiraling on frame spikes
+  public int fixed_substeps_max = 4;
+  
+  protected float fixed_accumulator = 0;
+  protected float fixed_alpha       = 1;
+  protected int   fixed_substeps    = 0;
+  protected long  fixed_time_last   = 0;
+  
+  
+  /**
+   * Fixed timestep update, using the real elapsed time since the last call.
+   */
+  public void updateFixed(){
+    long time_now = System.nanoTime();
+    float elapsed = (fixed_time_last == 0) ? 1/60f : (time_now - fixed_time_last) * 1E-9f;
+    fixed_time_last = time_now;
+    if(governor != null){
+      governor.updateFixed(elapsed);
+    } else {
+      updateFixed(elapsed, 1/60f, 8, 4);
+    }
+  }
+  
+  /**
+   * Fixed timestep update.<br>
+   * The elapsed time is accumulated and consumed in steps of constant size. 
+   * The remaining fraction is used to interpolate the body-shapes and particles 
+   * between the previous and the current physics state.<br>
+   * 
+   * @param elapsed real time since the last update, in seconds.
+   * @param timeStep the amount of time to simulate per step.
+   * @param velocityIterations for the velocity constraint solver.
+   * @param positionIterations for the position constraint solver.
+   */
+  public void updateFixed(float elapsed, float timestep, int iter_velocity, int iter_position){
+    profileBegin(PROFILE_UPDATE);
+    updateBegin();
+    
+    fixed_accumulator += Math.max(elapsed, 0);
+    
+    // drop time that can't be simulated within the substep limit
+    float accumulator_max = timestep * fixed_substeps_max;
+    if(fixed_accumulator > accumulator_max){
+      fixed_accumulator = accumulator_max;
+    }
+    
+    fixed_substeps = 0;
+    profileBegin(PROFILE_STEP);
+    while(fixed_accumulator >= timestep){
+      storeBodyTransforms();
+      step(timestep, iter_velocity, iter_position);
+      destroyQueued();
+      fixed_accumulator -= timestep;
+      fixed_substeps++;
+    }
+    profileEnd(PROFILE_STEP);
+    
+    fixed_alpha = fixed_accumulator / timestep;
+    
+    updateEnd(fixed_alpha, (1f - fixed_alpha) * timestep);
+    profileEnd(PROFILE_UPDATE);
+  }
+  
+  /**
+   * @return interpolation factor [0, 1] of the last fixed timestep update.
+   */
+  public float getInterpolationAlpha(){
+    return fixed_alpha;
+  }
+  
+  /**
+   * @return number of physics steps of the last fixed timestep update.
+   */
+  public int getSubsteps(){
+    return fixed_substeps;
+  }
+  
+  
+  /**
+   * saves the current body transforms, as the previous state for interpolation.
+   */
+  protected void storeBodyTransforms(){
+    for (Body body = super.getBodyList(); body != null; body = body.getNext()) {
+      DwBody dwbody = getShape(body);
+      if(dwbody != null){
+        dwbody.xf_prev.set(body.getTransform());
+        dwbody.xf_prev_valid = true;
+      }
+    }
+  }
+  
+  
+  /**
+   * Blends the previous (alpha = 0) and the current (alpha = 1) body transform.
+   */
+  public Transform getTransform(Body body, float alpha, Transform out){
+    Transform xf = body.getTransform();
+    DwBody dwbody = getShape(body);
+    if(alpha >= 1 || dwbody == null || !dwbody.xf_prev_valid){
+      return out.set(xf);
+    }
+    
+    Transform xf_prev = dwbody.xf_prev;
+    
+    // shortest rotation
+    float angle_prev = xf_prev.q.getAngle();
+    float angle_diff = xf.q.getAngle() - angle_prev;
+    if(angle_diff >  Math.PI) angle_diff -= Math.PI * 2;
+    if(angle_diff < -Math.PI) angle_diff += Math.PI * 2;
+    
+    out.q.set(angle_prev + angle_diff * alpha);
+    out.p.x = DwUtils.mix(xf_prev.p.x, xf.p.x, alpha);
+    out.p.y = DwUtils.mix(xf_prev.p.y, xf.p.y, alpha);
+    return out;
+  }
+  
+  
+  
+
+  // if true, only shapes of bodies/joints that moved since the last update are updated
+  public boolean shape_dirty_tracking = true;
+  
+  // body/joint shapes are updated every n-th update only, e.g. set by the DwFrameGovernor
+  public int shape_update_interval = 1;
+  protected int shape_update_counter = 0;
+  
+  // shape updates of the last frame, skipped: static, sleeping or unchanged
+  public int stat_bodies_updated = 0;
+  public int stat_bodies_skipped = 0;
+  public int stat_joints_updated = 0;
+  public int stat_joints_skipped = 0;
+  
+
+  protected boolean isShapeUpdateDue(){
+    if(++shape_update_counter >= shape_update_interval){
+      shape_update_counter = 0;
+      return true;
+    }
+    return false;
+  }
+  
+  public void updateBodies(){
+    updateBodies(1f);
+  }
+  
+  public void updateBodies(float alpha){
+    Transform xf = new Transform();
+    
+    stat_bodies_updated = 0;
+    stat_bodies_skipped = 0;
+    
+    for (Body body = super.getBodyList(); body != null; body = body.getNext()) {
+      
+      DwBody dwbody = getShape(body);
+      if(dwbody != null){
+        // resting bodies don't need to be interpolated
+        if(body.getType() == BodyType.STATIC || !body.isAwake()){
+          xf.set(body.getTransform());
+        } else {
+          getTransform(body, alpha, xf);
+        }
+        if(dwbody.updateShape(xf, !shape_dirty_tracking)){
+          stat_bodies_updated++;
+        } else {
+          stat_bodies_skipped++;
+        }
+      }
+      
+//      for (Fixture fixture = body.getFixtureList(); fixture != null; fixture = fixture.getNext()) {
+//        PShape shp_fixture = DwBodyRenderP5.getShape(fixture);
+//        if(shp_fixture != null){
+//          shp_fixture.resetMatrix();
+//          shp_fixture.rotate(xf.q.getAngle());
+//          shp_fixture.translate(xf.p.x, xf.p.y);
+//        }
+//      }
+    }
+  }
+  
+  
+  public void updateJoints(){
+    updateJoints(1f);
+  }
+  
+  public void updateJoints(float alpha){
+    Vec2 ancA = new Vec2();
+    Vec2 ancB = new Vec2();
+    Transform xf = new Transform();
+    
+    stat_joints_updated = 0;
+    stat_joints_skipped = 0;
+ 
+    for (Joint joint = super.getJointList(); joint != null; joint = joint.getNext()) {
+      
+      DwJoint dwjoint = getShape(joint);
+      if(dwjoint != null){
+        PShape shape = dwjoint.shape;
+        
+        JointType type = joint.getType();
+        
+        joint.getAnchorA(ancA);
+        joint.getAnchorB(ancB);
+        
+        // move anchors, from the current to the interpolated body transform
+        if(alpha < 1){
+          Body bodyA = joint.getBodyA();
+          Body bodyB = joint.getBodyB();
+          Transform.mulTransToOut(bodyA.getTransform(), ancA, ancA);
+          Transform.mulTransToOut(bodyB.getTransform(), ancB, ancB);
+          Transform.mulToOut(getTransform(bodyA, alpha, xf), ancA, ancA);
+          Transform.mulToOut(getTransform(bodyB, alpha, xf), ancB, ancB);
+        }
+        
+        if(!dwjoint.setAnchors(ancA, ancB, !shape_dirty_tracking)){
+          stat_joints_skipped++;
+          continue;
+        }
+        stat_joints_updated++;
+        
+//        Body bodyA = joint.getBodyA();
+//        Body bodyB = joint.getBodyB();
+//        Transform xfA = bodyA.getTransform();
+//        Transform xfB = bodyB.getTransform();
+//        Vec2 posA = xfA.p;
+//        Vec2 posB = xfB.p;
+        
+        if(type == JointType.PULLEY){
+          PulleyJoint pulley = (PulleyJoint) joint;
+          Vec2 gancA = pulley.getGroundAnchorA();
+          Vec2 gancB = pulley.getGroundAnchorB();
+
+          updateLineShape(shape.getChild(0), ancA, gancA);
+          updateLineShape(shape.getChild(1), ancB, gancB);
+          updateLineShape(shape.getChild(2), gancA, gancB);
+        } else {
+          updateLineShape(shape, ancA, ancB);
+        }
+      }
+      
+    }
+
+  }
+  
+  
+  //////////////////////////////////////////////////////////////////////////////
+  //
+  // Particle Budget, age-based eviction
+  //
+  //////////////////////////////////////////////////////////////////////////////
+  
+  protected DwParticleBudget particle_budget;
+  
+  /**
+   * 
+   * Enables/disables the {@link DwParticleBudget}. If enabled, particles of 
+   * emitters and spawners are tagged with their birth step, and the oldest
+   * ones are evicted when the count exceeds max_particles.<br>
+   * 
+   */
+  public DwParticleBudget useParticleBudget(boolean enable, int max_particles){
+    if(!enable){
+      particle_budget = null;
+    } else if(particle_budget == null){
+      particle_budget = new DwParticleBudget(this, max_particles);
+    } else {
+      particle_budget.max_particles = max_particles;
+    }
+    return particle_budget;
+  }
+  
+  public DwParticleBudget getParticleBudget(){
+    return particle_budget;
+  }
+  
+  
+  
+  //////////////////////////////////////////////////////////////////////////////
+  //
+  // Particle Freezer, settled particle groups
+  //
+  //////////////////////////////////////////////////////////////////////////////
+  
+  protected DwParticleFreezer particle_freezer;
+  
+  /**
+   * 
+   * Enables/disables the {@link DwParticleFreezer}. If enabled, particle groups
+   * that came to rest are frozen (immovable, render data not updated) until
+   * a body, a moving particle or a mouse interaction touches them.<br>
+   * 
+   */
+  public DwParticleFreezer useParticleFreezer(boolean enable){
+    if(!enable){
+      if(particle_freezer != null){
+        particle_freezer.clear();
+        particle_freezer = null;
+      }
+    } else if(particle_freezer == null){
+      particle_freezer = new DwParticleFreezer(this);
+    }
+    if(particles != null){
+      particles.freezer = particle_freezer;
+    }
+    return particle_freezer;
+  }
+  
+  public DwParticleFreezer getParticleFreezer(){
+    return particle_freezer;
+  }
+  
+  
+  
+  //////////////////////////////////////////////////////////////////////////////
+  //
+  // Frame Governor, adaptive quality
+  //
+  //////////////////////////////////////////////////////////////////////////////
+  
+  protected DwFrameGovernor governor;
+  
+  /**
+   * 
+   * Enables/disables the {@link DwFrameGovernor}. If enabled, {@link #update()},
+   * {@link #updateFixed()} and {@link #updateAsync()} adapt solver iterations,
+   * particle LOD, render-group rebuilds and shape updates to keep the frame
+   * time within the given budget.<br>
+   * 
+   */
+  public DwFrameGovernor useFrameGovernor(boolean enable, float budget_ms){
+    if(governor != null){
+      governor.reset();
+      governor = null;
+    }
+    if(enable){
+      governor = new DwFrameGovernor(this, budget_ms);
+    }
+    return governor;
+  }
+  
+  public DwFrameGovernor getFrameGovernor(){
+    return governor;
+  }
+  
+  
+  
+  //////////////////////////////////////////////////////////////////////////////
+  //
+  // Save / Restore, binary world snapshots
+  //
+  //////////////////////////////////////////////////////////////////////////////
+
+  /**
+   *
+   * Saves bodies, joints, particles and shape-styles to a binary file,
+   * see {@link DwWorldSerializer}.<br>
+   *
+   */
+  public boolean save(String filename){
+    DwStepThread thread = step_thread;
+    if(thread != null) thread.lock.lock();
+    try {
+      return new DwWorldSerializer().save(this, filename);
+    } finally {
+      if(thread != null) thread.lock.unlock();
+    }
+  }
+
+  /**
+   *
+   * Restores a file, written by {@link #save(String)}, into this world.<br>
+   * This world must be fresh, i.e. without any bodies or particles.<br>
+   *
+   */
+  public boolean restore(String filename){
+    return new DwWorldSerializer().restore(this, filename);
+  }
+
+
+
+  //////////////////////////////////////////////////////////////////////////////
+  //
+  // Asynchronous Update, physics step on a background thread
+  //
+  //////////////////////////////////////////////////////////////////////////////
+  
+  protected DwStepThread step_thread;
+  
+  
+  /**
+   * 
+   * Starts a background thread for the physics step.<br>
+   * From now on, {@link #updateAsync()} must be used instead of update().<br>
+   * 
+   */
+  public DwStepThread startStepThread(){
+    if(step_thread == null){
+      step_thread = new DwStepThread(this);
+    }
+    step_thread.start();
+    return step_thread;
+  }
+  
+  public void stopStepThread(){
+    if(step_thread != null){
+      step_thread.stop();
+      step_thread = null;
+    }
+  }
+  
+  public DwStepThread getStepThread(){
+    return step_thread;
+  }
+  
+  
+  /**
+   * 
+   * Non-blocking update, for use with {@link #startStepThread()}.<br>
+   * If the step thread is idle, the latest snapshot is applied to the 
+   * body-shapes and particles and the next step is requested.
+   * Otherwise the previous state is kept for displaying.<br>
+   * 
+   */
+  public void updateAsync(){
+    if(governor != null){
+      governor.updateAsync();
+    } else {
+      updateAsyncStep();
+    }
+  }
+  
+  
+  /**
+   * see {@link #updateAsync()}.
+   * 
+   * @return duration of the physics step of the applied snapshot, in 
+   *         milliseconds, -1 if there was no new snapshot.
+   */
+  protected float updateAsyncStep(){
+    DwStepThread thread = step_thread;
+    if(thread == null || !thread.isRunning()){
+      return -1;
+    }
+    
+    if(!thread.lock.tryLock()){
+      return -1; // step in progress
+    }
+    
+    profileBegin(PROFILE_UPDATE);
+    
+    DwWorldSnapshot snapshot = null;
+    float step_duration = -1;
+    try {
+      if(thread.isStepPending()){
+        return -1;
+      }
+      
+      snapshot = thread.swap();
+      if(snapshot != null){
+        step_duration = thread.step_duration;
+      }
+      
+      // released shapes are skipped by updateBodies/updateJoints(snapshot)
+      destroyQueued();
+      if(snapshot != null && profiler != null){
+        // the step was timed by the step-thread
+        profiler.add(PROFILE_STEP, (long) (thread.step_duration * 1E6));
+      }
+      if(snapshot != null && particles != null){
+        // particles created since the capture, e.g. by mouse-events
+        if(snapshot.particle_num != getParticleCount()){
+          snapshot.captureParticles(this);
+        }
+        particles.generateParticleGroups();
+      }
+
+      updateBegin();
+      if(governor != null){
+        governor.apply(thread);
+      }
+      thread.requestStep();
+    } finally {
+      thread.lock.unlock();
     }
     
-    super.step(timestep, iter_velocity, iter_position);
-    updateBodies();
-    updateJoints();
-    particles.update();
+    // the next step is running now
+    if(snapshot != null){
+      if(bodies != null && isShapeUpdateDue()){
+        profileBegin(PROFILE_BODIES);
+        updateBodies(snapshot);
+        profileEnd(PROFILE_BODIES);
+        profileBegin(PROFILE_JOINTS);
+        updateJoints(snapshot);
+        profileEnd(PROFILE_JOINTS);
+      }
+      if(particles != null){
+        profileBegin(PROFILE_PARTICLES);
+        particles.update(snapshot);
+        profileEnd(PROFILE_PARTICLES);
+      }
+    }
+    profileEnd(PROFILE_UPDATE);
+    return step_duration;
   }
-
-
-  public void updateBodies(){
-    for (Body body = super.getBodyList(); body != null; body = body.getNext()) {
-      Transform xf = body.getTransform();
-      
-      DwBody dwbody = getShape(body);
-      if(dwbody != null){
-        dwbody.shape.resetMatrix();
-        dwbody.shape.rotate(xf.q.getAngle());
-        dwbody.shape.translate(xf.p.x, xf.p.y);
+  
+  
+  public void updateBodies(DwWorldSnapshot snapshot){
+    Transform xf = new Transform();
+    
+    stat_bodies_updated = 0;
+    stat_bodies_skipped = 0;
+    
+    float[] body_xf = snapshot.body_xf;
+    for(int i = 0, idx = 0; i < snapshot.body_num; i++, idx += 4){
+      DwBody dwbody = snapshot.body_shapes[i];
+      // skip shapes that have been released (or reused by the pool) after capturing
+      if(dwbody.body == snapshot.body_refs[i]){
+        xf.p.set(body_xf[idx+0], body_xf[idx+1]);
+        xf.q.s = body_xf[idx+2];
+        xf.q.c = body_xf[idx+3];
+        if(dwbody.updateShape(xf, !shape_dirty_tracking)){
+          stat_bodies_updated++;
+        } else {
+          stat_bodies_skipped++;
+        }
       }
-      
-//      for (Fixture fixture = body.getFixtureList(); fixture != null; fixture = fixture.getNext()) {
-//        PShape shp_fixture = DwBodyRenderP5.getShape(fixture);
-//        if(shp_fixture != null){
-//          shp_fixture.resetMatrix();
-//          shp_fixture.rotate(xf.q.getAngle());
-//          shp_fixture.translate(xf.p.x, xf.p.y);
-//        }
-//      }
     }
   }
   
   
-  public void updateJoints(){
+  public void updateJoints(DwWorldSnapshot snapshot){
     Vec2 ancA = new Vec2();
     Vec2 ancB = new Vec2();
- 
-    for (Joint joint = super.getJointList(); joint != null; joint = joint.getNext()) {
-      
-      DwJoint dwjoint = getShape(joint);
-      if(dwjoint != null){
+    
+    stat_joints_updated = 0;
+    stat_joints_skipped = 0;
+    
+    float[] anc = snapshot.joint_anchors;
+    for(int i = 0, idx = 0; i < snapshot.joint_num; i++, idx += 4){
+      DwJoint dwjoint = snapshot.joint_shapes[i];
+      // skip shapes that have been released (or reused by the pool) after capturing
+      if(dwjoint.joint == snapshot.joint_refs[i]){
         PShape shape = dwjoint.shape;
+        Joint joint = dwjoint.joint;
         
-        JointType type = joint.getType();
-        
-        joint.getAnchorA(ancA);
-        joint.getAnchorB(ancB);
+        ancA.set(anc[idx+0], anc[idx+1]);
+        ancB.set(anc[idx+2], anc[idx+3]);
         
-//        Body bodyA = joint.getBodyA();
-//        Body bodyB = joint.getBodyB();
-//        Transform xfA = bodyA.getTransform();
-//        Transform xfB = bodyB.getTransform();
-//        Vec2 posA = xfA.p;
-//        Vec2 posB = xfB.p;
+        if(!dwjoint.setAnchors(ancA, ancB, !shape_dirty_tracking)){
+          stat_joints_skipped++;
+          continue;
+        }
+        stat_joints_updated++;
         
-        if(type == JointType.PULLEY){
+        if(joint.getType() == JointType.PULLEY){
           PulleyJoint pulley = (PulleyJoint) joint;
           Vec2 gancA = pulley.getGroundAnchorA();
           Vec2 gancB = pulley.getGroundAnchorB();
@@ -270,12 +930,14 @@ public class DwWorld extends World{
           updateLineShape(shape, ancA, ancB);
         }
       }
-      
     }
-
   }
   
   
+  
+  
+  
+  
   protected void updateLineShape(PShape shp, Vec2 p0, Vec2 p1){
     Vec2 AB = p1.sub(p0);
     
@@ -298,6 +960,91 @@ public class DwWorld extends World{
   
   
   
+  //////////////////////////////////////////////////////////////////////////////
+  //
+  // Profiler
+  //
+  //////////////////////////////////////////////////////////////////////////////
+  
+  static public final String PROFILE_UPDATE    = "update";
+  static public final String PROFILE_INPUT     = "input";
+  static public final String PROFILE_ZOMBIES   = "zombies";
+  static public final String PROFILE_STEP      = "step";
+  static public final String PROFILE_BODIES    = "bodies";
+  static public final String PROFILE_JOINTS    = "joints";
+  static public final String PROFILE_PARTICLES = "particles";
+  
+  // null, if profiling is disabled
+  public DwProfiler profiler = null;
+  public DwMemoryStats memory_stats = null;
+  
+  /**
+   * enables/disables the per-phase timing of the update, and the per-frame
+   * allocation/gc statistics.<br>
+   * phases: update (total), input, zombies, step, bodies, joints, particles
+   */
+  public void enableProfiler(boolean enable){
+    if(enable && profiler == null){
+      profiler = new DwProfiler();
+      memory_stats = new DwMemoryStats();
+    }
+    if(!enable){
+      profiler = null;
+      memory_stats = null;
+    }
+  }
+  
+  public DwProfiler getProfiler(){
+    return profiler;
+  }
+  
+  public DwMemoryStats getMemoryStats(){
+    return memory_stats;
+  }
+  
+  protected void profileBegin(String phase){
+    if(profiler != null) profiler.begin(phase);
+  }
+  
+  protected void profileEnd(String phase){
+    if(profiler != null) profiler.end(phase);
+  }
+  
+  /**
+   * Solver breakdown of the last step, see World.getProfile().
+   */
+  public void getSolverProfile(List<String> lines){
+    getProfile().toDebugStrings(lines);
+  }
+  
+  protected ArrayList<String> profiler_lines = new ArrayList<String>();
+  
+  /**
+   * Draws the profiler statistics and the solver breakdown.
+   */
+  public void displayProfiler(PGraphics canvas, float px, float py){
+    if(profiler == null){
+      return;
+    }
+    profiler_lines.clear();
+    profiler.toDebugStrings(profiler_lines);
+    profiler_lines.add("");
+    getSolverProfile(profiler_lines);
+    if(memory_stats != null){
+      profiler_lines.add("");
+      memory_stats.toDebugStrings(profiler_lines);
+    }
+    if(bodies != null && bodies.pool != null){
+      profiler_lines.add("");
+      bodies.pool.toDebugStrings(profiler_lines);
+    }
+    DwProfiler.display(canvas, profiler_lines, px, py);
+  }
+  
+  
+  
+  
+  
   //////////////////////////////////////////////////////////////////////////////
   //
   // Bounds, for removing lost particles/bodies (b2_zombieParticle);
@@ -319,6 +1066,9 @@ public class DwWorld extends World{
    */
   public void createZombieBounds(AABB aabb_world){
     zombie_aabb.set(aabb_world);
+    if(zombie_bounds_cache != null){
+      zombie_bounds_cache.invalidate();
+    }
   }
 
   /**
@@ -336,6 +1086,63 @@ public class DwWorld extends World{
     transform.getScreen2box(screenw+off,       0-off, zombie_aabb.upperBound);
   }
   
+  // group-bounds culling for removeLostParticles(), null to test each particle
+  protected DwParticleBoundsCache zombie_bounds_cache = null;
+  
+  // removeLostParticles() is only executed every N-th time
+  public int zombie_particles_interval = 1;
+  protected int zombie_particles_counter = 0;
+  
+  /**
+   * enables/disables the group-bounds culling of removeLostParticles().<br>
+   * Only particle-groups whose (cached) bounds are not fully inside the 
+   * zombie_aabb are tested per particle.<br>
+   * see {@link DwParticleBoundsCache}
+   */
+  public void useZombieGroupCulling(boolean enable){
+    if(enable && zombie_bounds_cache == null){
+      zombie_bounds_cache = new DwParticleBoundsCache();
+    }
+    if(!enable){
+      zombie_bounds_cache = null;
+    }
+  }
+  
+  public DwParticleBoundsCache getZombieBoundsCache(){
+    return zombie_bounds_cache;
+  }
+  
+  
+  // number of particle-buffer changes, other than destroying particles
+  protected int particle_buffer_changes = 0;
+  
+  /**
+   * @return number of createParticle(), createParticleGroup() and
+   * joinParticleGroups() calls, e.g. to detect a changed particle-buffer 
+   * layout, see {@link DwParticleBoundsCache}.
+   */
+  public int getParticleBufferChanges(){
+    return particle_buffer_changes;
+  }
+  
+  @Override
+  public int createParticle(ParticleDef def){
+    particle_buffer_changes++;
+    return super.createParticle(def);
+  }
+  
+  @Override
+  public ParticleGroup createParticleGroup(ParticleGroupDef def){
+    particle_buffer_changes++;
+    return super.createParticleGroup(def);
+  }
+  
+  @Override
+  public void joinParticleGroups(ParticleGroup groupA, ParticleGroup groupB){
+    particle_buffer_changes++;
+    super.joinParticleGroups(groupA, groupB);
+  }
+  
   /**
    * removes particles outside the zombie_aabb from the world.
    */
@@ -345,6 +1152,18 @@ public class DwWorld extends World{
       createZombieBounds();
     }
     
+    if(zombie_particles_interval > 1){
+      if(++zombie_particles_counter < zombie_particles_interval){
+        return;
+      }
+      zombie_particles_counter = 0;
+    }
+    
+    if(zombie_bounds_cache != null){
+      zombie_bounds_cache.removeLostParticles(this, zombie_aabb, step_count);
+      return;
+    }
+    
     int    pcount = getParticleCount();
     Vec2[] pverts = getParticlePositionBuffer();
     int[]  pflags = getParticleFlagsBuffer();
@@ -365,16 +1184,21 @@ public class DwWorld extends World{
    * removes bodies outside the zombie_aabb from the world.
    */
   public void removeLostBodies(){
+    lost_bodies.clear();
     for (Body body = getBodyList(); body != null; body = body.getNext()) {
       Vec2 vert = body.getTransform().p;
       if(vert.x < zombie_aabb.lowerBound.x || vert.x > zombie_aabb.upperBound.x ||
          vert.y < zombie_aabb.lowerBound.y || vert.y > zombie_aabb.upperBound.y)
       {
-        destroyBody(body);
+        lost_bodies.add(body);
       }
     }
+    destroyBodies(lost_bodies);
+    lost_bodies.clear();
   }
   
+  protected ArrayList<Body> lost_bodies = new ArrayList<Body>();
+  
   
   
   
@@ -391,13 +1215,15 @@ public class DwWorld extends World{
   //////////////////////////////////////////////////////////////////////////////
   
   public void display(PGraphics2D canvas){
-    bodies.display(canvas);
-    particles.display(canvas);
+    createRenderers();
+    if(bodies    != null) bodies.display(canvas);
+    if(particles != null) particles.display(canvas);
   }
   
   
   public void displayDebugDraw(PGraphics canvas){
-    debug_draw.display(canvas);
+    createRenderers();
+    if(debug_draw != null) debug_draw.display(canvas);
   }
   
   
@@ -435,14 +1261,36 @@ public class DwWorld extends World{
   protected ArrayList<DwInteractionEvent> mouse_actions = new ArrayList<>();
 
   public void mouseEvent(MouseEvent event){
-    for(DwInteractionEvent maction : mouse_actions){
-      maction.mouseEvent(event);
+    // interactions modify the world, so wait for a running step
+    DwStepThread thread = step_thread;
+    if(thread != null) thread.lock.lock();
+    try {
+      if(input_recorder != null){
+        input_recorder.record(event);
+      }
+      if(particle_freezer != null){
+        particle_freezer.mouseEvent(event);
+      }
+      for(DwInteractionEvent maction : mouse_actions){
+        maction.mouseEvent(event);
+      }
+    } finally {
+      if(thread != null) thread.lock.unlock();
     }
   }
   
   public void keyEvent(KeyEvent event){
-    for(DwInteractionEvent maction : mouse_actions){
-      maction.keyEvent(event);
+    DwStepThread thread = step_thread;
+    if(thread != null) thread.lock.lock();
+    try {
+      if(input_recorder != null){
+        input_recorder.record(event);
+      }
+      for(DwInteractionEvent maction : mouse_actions){
+        maction.keyEvent(event);
+      }
+    } finally {
+      if(thread != null) thread.lock.unlock();
     }
   }
   
@@ -512,6 +1360,55 @@ public class DwWorld extends World{
   
   
   
+  //////////////////////////////////////////////////////////////////////////////
+  //
+  // Input Recording, see DwInputReplay
+  //
+  //////////////////////////////////////////////////////////////////////////////
+  
+  protected DwInputRecorder input_recorder;
+  
+  /**
+   * 
+   * Starts recording all mouse/key events, frames and physics steps, see
+   * {@link DwInputRecorder}. Works with update(), updateFixed() and
+   * updateAsync().<br>
+   * 
+   */
+  public DwInputRecorder startRecording(){
+    // the step-thread records its steps too
+    DwStepThread thread = step_thread;
+    if(thread != null) thread.lock.lock();
+    try {
+      input_recorder = new DwInputRecorder(transform);
+      return input_recorder;
+    } finally {
+      if(thread != null) thread.lock.unlock();
+    }
+  }
+  
+  /**
+   * @return the recorder, or null if there was no recording.
+   */
+  public DwInputRecorder stopRecording(){
+    DwStepThread thread = step_thread;
+    if(thread != null) thread.lock.lock();
+    try {
+      DwInputRecorder recorder = input_recorder;
+      input_recorder = null;
+      return recorder;
+    } finally {
+      if(thread != null) thread.lock.unlock();
+    }
+  }
+  
+  public DwInputRecorder getRecorder(){
+    return input_recorder;
+  }
+  
+  
+  
+  
   
   
 
@@ -548,6 +1445,40 @@ public class DwWorld extends World{
     bodies = body_render;
   }
   
+  /**
+   * Enables/disables pooling of released body/fixture/joint shapes, for scenes
+   * that create and destroy bodies continuously. See {@link DwBodyPool}.
+   */
+  public void useBodyPooling(boolean enable){
+    if(bodies != null){
+      bodies.usePool(enable);
+    }
+  }
+  
+  /**
+   * Enables/disables shared PShapes for fixtures with identical geometry.
+   * See {@link DwBodyGroup#useSharedShapes(boolean)}.
+   */
+  public void useSharedShapes(boolean enable){
+    if(bodies != null){
+      bodies.useSharedShapes(enable);
+    }
+  }
+  
+  /**
+   * Enables/disables view-frustum culling of bodies, joints and particles,
+   * based on the visible area of the viewport transform.
+   * See {@link DwBodyGroup#useCulling(boolean)}, {@link DwParticleRender#useCulling(boolean)}.
+   */
+  public void useCulling(boolean enable){
+    if(bodies != null){
+      bodies.useCulling(enable);
+    }
+    if(particles != null){
+      particles.useCulling(enable);
+    }
+  }
+  
   
   
   //////////////////////////////////////////////////////////////////////////////
@@ -557,16 +1488,81 @@ public class DwWorld extends World{
   //////////////////////////////////////////////////////////////////////////////
   
   public void destroyBody(Body body){
+    if(isLocked()){
+      destroyBodyLater(body);
+      return;
+    }
+    // joints are destroyed together with the body
+    for(JointEdge je = body.getJointList(); je != null; je = je.next){
+      release(je.joint);
+    }
     release(body);
     super.destroyBody(body);
   }
   
+  
+  /**
+   * Destroys all given bodies (and their joints).<br>
+   * The shapes are released in one batch, so this takes linear time, 
+   * regardless of the number of bodies.
+   */
+  public void destroyBodies(List<Body> list){
+    if(isLocked()){
+      for(Body body : list){
+        destroyBodyLater(body);
+      }
+      return;
+    }
+    
+    release_groups.clear();
+    
+    for(Body body : list){
+      for(JointEdge je = body.getJointList(); je != null; je = je.next){
+        DwJoint dwjoint = getShape(je.joint);
+        if(dwjoint != null){
+          addReleaseGroup(dwjoint.parent);
+          dwjoint.release(true);
+        }
+      }
+      DwBody dwbody = getShape(body);
+      if(dwbody != null){
+        addReleaseGroup(dwbody.parent);
+        dwbody.release(true);
+      }
+    }
+    
+    for(DwBodyGroup group : release_groups){
+      group.removeDeferredShapes();
+    }
+    release_groups.clear();
+    
+    for(Body body : list){
+      super.destroyBody(body);
+    }
+  }
+  
+  protected ArrayList<DwBodyGroup> release_groups = new ArrayList<DwBodyGroup>();
+  
+  protected void addReleaseGroup(DwBodyGroup group){
+    if(!release_groups.contains(group)){
+      release_groups.add(group);
+    }
+  }
+  
   public void destroyJoint(Joint joint){
+    if(isLocked()){
+      destroyJointLater(joint);
+      return;
+    }
     release(joint);
     super.destroyJoint(joint);
   }
   
   public void destroyFixture(Fixture fixture){
+    if(isLocked()){
+      destroyFixtureLater(fixture);
+      return;
+    }
     release(fixture);
     Body body = fixture.getBody();
     body.destroyFixture(fixture);
@@ -574,6 +1570,117 @@ public class DwWorld extends World{
   }
   
   
+  
+  //////////////////////////////////////////////////////////////////////////////
+  //
+  // Destruction Queue
+  //
+  //////////////////////////////////////////////////////////////////////////////
+  
+  protected ArrayList<Body>    destroy_bodies   = new ArrayList<Body>();
+  protected ArrayList<Fixture> destroy_fixtures = new ArrayList<Fixture>();
+  protected ArrayList<Joint>   destroy_joints   = new ArrayList<Joint>();
+  protected HashSet<Object>    destroy_set      = new HashSet<Object>();
+  
+  /**
+   * Queues the body for destruction after the next step (or the next call of
+   * {@link #destroyQueued()}). Can be called while the world is locked,
+   * e.g. in contact callbacks, also on the {@link DwStepThread}.
+   */
+  public void destroyBodyLater(Body body){
+    if(body != null) destroy_bodies.add(body);
+  }
+  
+  /**
+   * see {@link #destroyBodyLater(Body)}
+   */
+  public void destroyFixtureLater(Fixture fixture){
+    if(fixture != null) destroy_fixtures.add(fixture);
+  }
+  
+  /**
+   * see {@link #destroyBodyLater(Body)}
+   */
+  public void destroyJointLater(Joint joint){
+    if(joint != null) destroy_joints.add(joint);
+  }
+  
+  public boolean hasDestroyQueued(){
+    return !(destroy_bodies.isEmpty() && destroy_fixtures.isEmpty() && destroy_joints.isEmpty());
+  }
+  
+  
+  /**
+   * Destroys all queued joints, fixtures and bodies in one batch.<br>
+   * Duplicates are ignored, as well as joints and fixtures of queued bodies.
+   * The shapes are released in bulk.<br>
+   * Called automatically by update() and updateFixed() after each step, and by
+   * updateAsync() on the animation thread, while holding the step-thread lock.
+   * Never on the step-thread, since it modifies the render-shapes.
+   */
+  public void destroyQueued(){
+    if(isLocked() || !hasDestroyQueued()){
+      return;
+    }
+    if(input_recorder != null){
+      input_recorder.recordDestroy();
+    }
+    
+    // bodies, without duplicates
+    destroy_set.clear();
+    int num_bodies = 0;
+    for(int i = 0; i < destroy_bodies.size(); i++){
+      Body body = destroy_bodies.get(i);
+      if(destroy_set.add(body)){
+        destroy_bodies.set(num_bodies++, body);
+      }
+    }
+    while(destroy_bodies.size() > num_bodies){
+      destroy_bodies.remove(destroy_bodies.size()-1);
+    }
+    
+    // joints, unless they are destroyed together with their bodies
+    release_groups.clear();
+    for(Joint joint : destroy_joints){
+      if(destroy_set.contains(joint.getBodyA()) || destroy_set.contains(joint.getBodyB())){
+        continue;
+      }
+      if(destroy_set.add(joint)){
+        DwJoint dwjoint = getShape(joint);
+        if(dwjoint != null){
+          addReleaseGroup(dwjoint.parent);
+          dwjoint.release(true);
+        }
+        super.destroyJoint(joint);
+      }
+    }
+    for(DwBodyGroup group : release_groups){
+      group.removeDeferredShapes();
+    }
+    release_groups.clear();
+    
+    // fixtures, unless they are destroyed together with their bodies
+    for(Fixture fixture : destroy_fixtures){
+      Body body = fixture.getBody();
+      if(destroy_set.contains(body)){
+        continue;
+      }
+      if(destroy_set.add(fixture)){
+        release(fixture);
+        body.destroyFixture(fixture);
+      }
+    }
+    
+    // bodies, and their joints
+    destroyBodies(destroy_bodies);
+    
+    destroy_bodies.clear();
+    destroy_fixtures.clear();
+    destroy_joints.clear();
+    destroy_set.clear();
+  }
+  
+  
 
   static public void release(Body body){
     DwBody shp = getShape(body);
@@ -643,6 +1750,10 @@ public class DwWorld extends World{
   ){
     DwBody dwbody = getShape(body);
     dwbody.style.set(fill_enabled, fill_color, stroke_enabled, stroke_color, stroke_weight);
+    // shared fixture-shapes use the body style too
+    for(DwFixture dwfixture : dwbody.children){
+      dwfixture.style = null;
+    }
     return setStyle(dwbody.shape, fill_enabled, fill_color, stroke_enabled, stroke_color, stroke_weight);
   }
   
@@ -654,6 +1765,14 @@ public class DwWorld extends World{
       , float   stroke_weight
   ){
     DwFixture dwfixture = getShape(fixture);
+    if(dwfixture.style == null){
+      dwfixture.style = new ShapeStyle();
+    }
+    dwfixture.style.set(fill_enabled, fill_color, stroke_enabled, stroke_color, stroke_weight);
+    if(dwfixture.isShared()){
+      // the shape is used by other fixtures too, the style is applied when drawing
+      return dwfixture.shape;
+    }
     return setStyle(dwfixture.shape, fill_enabled, fill_color, stroke_enabled, stroke_color, stroke_weight);
   }
   
@@ -665,6 +1784,10 @@ public class DwWorld extends World{
       , float   stroke_weight
   ){
     DwJoint dwjoint = getShape(joint);
+    if(dwjoint.style == null){
+      dwjoint.style = new ShapeStyle();
+    }
+    dwjoint.style.set(fill_enabled, fill_color, stroke_enabled, stroke_color, stroke_weight);
     return setStyle(dwjoint.shape, fill_enabled, fill_color, stroke_enabled, stroke_color, stroke_weight);
   }
   
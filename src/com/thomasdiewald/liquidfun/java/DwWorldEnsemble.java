@@ -0,0 +1,295 @@
+/**
+ * 
+ * LiquidFunProcessing | Copyright 2017 Thomas Diewald - www.thomasdiewald.com
+ * 
+ * https://github.com/diwi/LiquidFunProcessing.git
+ * 
+ * Box2d / LiquidFun Library for Processing.
+ * MIT License: https://opensource.org/licenses/MIT
+ * 
+ */
+
+
+package com.thomasdiewald.liquidfun.java;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import org.jbox2d.common.Vec2;
+import org.jbox2d.dynamics.Body;
+
+
+
+/**
+ * 
+ * Steps many independent headless DwWorlds concurrently, e.g. for parameter
+ * studies of the same scene with different particle settings.<br>
+ * <br>
+ * Each member owns its world, and a world is only ever stepped by one task at
+ * a time, so there is no shared state between the threads. The pool is
+ * bounded to the number of cores (or less), members are distributed over the
+ * pool as independent tasks.<br>
+ * <br>
+ * Usage:<br>
+ * DwWorldEnsemble ensemble = new DwWorldEnsemble(800, 600, 20, scene);<br>
+ * ensemble.add(damping, gravity_scale, radius); ...<br>
+ * ensemble.run(600);<br>
+ * System.out.println(ensemble.toTable());<br>
+ * ensemble.release();<br>
+ * 
+ * @author Thomas Diewald
+ * 
+ */
+public class DwWorldEnsemble {
+
+
+  /**
+   * creates the scene of a member world, called on a worker thread, before
+   * the first step.
+   */
+  static public interface Scene {
+    public void setup(DwWorld world, Member member);
+  }
+
+
+  static public class Member {
+
+    public final int index;
+
+    // particle settings, applied before the scene is set up
+    public float particle_damping;
+    public float particle_gravity_scale;
+    public float particle_radius;
+
+    public DwWorld world;
+    protected boolean initialized = false;
+
+    // metrics, of the last run
+    public int   steps          = 0;
+    public float step_total     = 0; // ms
+    public float step_avg       = 0; // ms
+    public float step_max       = 0; // ms
+    public int   particle_count = 0;
+    public int   body_count     = 0;
+    public float energy_particles = 0; // kinetic energy
+    public float energy_bodies    = 0; // kinetic energy
+
+    public Member(int index, float particle_damping, float particle_gravity_scale, float particle_radius){
+      this.index = index;
+      this.particle_damping       = particle_damping;
+      this.particle_gravity_scale = particle_gravity_scale;
+      this.particle_radius        = particle_radius;
+    }
+  }
+
+
+
+  public int   screen_w;
+  public int   screen_h;
+  public float screen_scale;
+
+  public float timestep      = 1/60f;
+  public int   iter_velocity = 8;
+  public int   iter_position = 4;
+
+  public Scene scene;
+
+  public final ArrayList<Member> members = new ArrayList<Member>();
+
+  protected ExecutorService pool;
+  protected int num_threads;
+
+  // stats of the last run
+  public float stat_duration   = 0; // ms, wall time
+  public float stat_throughput = 0; // steps per second, all members
+
+
+  public DwWorldEnsemble(int screen_w, int screen_h, float screen_scale, Scene scene){
+    this(screen_w, screen_h, screen_scale, scene, Runtime.getRuntime().availableProcessors());
+  }
+
+  public DwWorldEnsemble(int screen_w, int screen_h, float screen_scale, Scene scene, int num_threads){
+    this.screen_w     = screen_w;
+    this.screen_h     = screen_h;
+    this.screen_scale = screen_scale;
+    this.scene        = scene;
+    this.num_threads  = Math.max(1, num_threads);
+  }
+
+
+
+  public Member add(float particle_damping, float particle_gravity_scale, float particle_radius){
+    Member member = new Member(members.size(), particle_damping, particle_gravity_scale, particle_radius);
+    members.add(member);
+    return member;
+  }
+
+
+  public void release(){
+    if(pool != null){
+      pool.shutdown();
+      pool = null;
+    }
+    for(Member member : members){
+      if(member.world != null){
+        member.world.release();
+        member.world = null;
+      }
+      member.initialized = false;
+    }
+  }
+
+
+  protected ExecutorService getPool(){
+    if(pool == null){
+      pool = Executors.newFixedThreadPool(num_threads, new ThreadFactory() {
+        int count = 0;
+        @Override
+        public Thread newThread(Runnable r) {
+          Thread thread = new Thread(r, "DwWorldEnsemble-"+(count++));
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+    }
+    return pool;
+  }
+
+
+
+  /**
+   * 
+   * Steps all members "steps" times, blocks until all are done.<br>
+   * 
+   * @return false, if any member failed
+   */
+  public boolean run(final int steps){
+    long timer = System.nanoTime();
+
+    List<Future<Member>> results = new ArrayList<Future<Member>>(members.size());
+    for(final Member member : members){
+      results.add(getPool().submit(new Callable<Member>() {
+        @Override
+        public Member call() {
+          return step(member, steps);
+        }
+      }));
+    }
+
+    boolean success = true;
+    for(Future<Member> result : results){
+      try {
+        result.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return false;
+      } catch (ExecutionException e) {
+        System.out.println("Error - DwWorldEnsemble.run: "+e.getCause());
+        success = false;
+      }
+    }
+
+    stat_duration = (System.nanoTime() - timer) / 1E6f;
+    stat_throughput = (stat_duration > 0) ? members.size() * steps * 1000f / stat_duration : 0;
+    return success;
+  }
+
+
+  /**
+   * runs on a worker thread, for this member only.
+   */
+  protected Member step(Member member, int steps){
+    if(!member.initialized){
+      DwWorld world = new DwWorld(screen_w, screen_h, screen_scale);
+      world.setParticleDamping     (member.particle_damping);
+      world.setParticleGravityScale(member.particle_gravity_scale);
+      world.setParticleRadius      (member.particle_radius);
+      member.world = world;
+      if(scene != null){
+        scene.setup(world, member);
+      }
+      member.initialized = true;
+    }
+
+    DwWorld world = member.world;
+
+    float total = 0;
+    float max   = 0;
+    for(int i = 0; i < steps; i++){
+      long timer = System.nanoTime();
+      world.update(timestep, iter_velocity, iter_position);
+      float duration = (System.nanoTime() - timer) / 1E6f;
+      total += duration;
+      max = Math.max(max, duration);
+    }
+
+    member.steps      = steps;
+    member.step_total = total;
+    member.step_avg   = (steps > 0) ? total / steps : 0;
+    member.step_max   = max;
+    measure(member);
+    return member;
+  }
+
+
+  /**
+   * particle/body counts and kinetic energies.
+   */
+  protected void measure(Member member){
+    DwWorld world = member.world;
+
+    // particles, same mass for all: density * stride^2
+    int   num    = world.getParticleCount();
+    float stride = 0.75f * 2 * world.getParticleRadius();
+    float mass   = world.getParticleDensity() * stride * stride;
+    Vec2[] vel   = world.getParticleVelocityBuffer();
+    double vv = 0;
+    for(int i = 0; i < num && vel != null; i++){
+      vv += vel[i].x * vel[i].x + vel[i].y * vel[i].y;
+    }
+    member.particle_count   = num;
+    member.energy_particles = (float) (0.5 * mass * vv);
+
+    // bodies, linear + angular, about the center of mass
+    double energy = 0;
+    for(Body body = world.getBodyList(); body != null; body = body.getNext()){
+      float m = body.getMass();
+      if(m == 0){
+        continue;
+      }
+      Vec2  v  = body.getLinearVelocity();
+      float w  = body.getAngularVelocity();
+      float Ic = body.getInertia() - m * Vec2.dot(body.getLocalCenter(), body.getLocalCenter());
+      energy += 0.5 * m * Vec2.dot(v, v) + 0.5 * Ic * w * w;
+    }
+    member.body_count    = world.getBodyCount();
+    member.energy_bodies = (float) energy;
+  }
+
+
+
+  /**
+   * @return the metrics of all members, one line per member.
+   */
+  public String toTable(){
+    StringBuilder sb = new StringBuilder();
+    sb.append(String.format(Locale.ENGLISH, "%5s %8s %8s %8s %6s %9s %9s %9s %9s %7s %12s %12s%n",
+        "index", "damping", "gravity", "radius", "steps", "total ms", "avg ms", "max ms",
+        "particles", "bodies", "energy p", "energy b"));
+    for(Member m : members){
+      sb.append(String.format(Locale.ENGLISH, "%5d %8.3f %8.3f %8.3f %6d %9.2f %9.3f %9.3f %9d %7d %12.3f %12.3f%n",
+          m.index, m.particle_damping, m.particle_gravity_scale, m.particle_radius,
+          m.steps, m.step_total, m.step_avg, m.step_max,
+          m.particle_count, m.body_count, m.energy_particles, m.energy_bodies));
+    }
+    return sb.toString();
+  }
+
+}
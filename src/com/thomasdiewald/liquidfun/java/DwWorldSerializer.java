@@ -0,0 +1,1112 @@
+/**
+ * 
+ * LiquidFunProcessing | Copyright 2017 Thomas Diewald - www.thomasdiewald.com
+ * 
+ * https://github.com/diwi/LiquidFunProcessing.git
+ * 
+ * Box2d / LiquidFun Library for Processing.
+ * MIT License: https://opensource.org/licenses/MIT
+ * 
+ */
+
+
+package com.thomasdiewald.liquidfun.java;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+
+import org.jbox2d.collision.AABB;
+import org.jbox2d.collision.RayCastInput;
+import org.jbox2d.collision.RayCastOutput;
+import org.jbox2d.collision.shapes.ChainShape;
+import org.jbox2d.collision.shapes.CircleShape;
+import org.jbox2d.collision.shapes.EdgeShape;
+import org.jbox2d.collision.shapes.MassData;
+import org.jbox2d.collision.shapes.PolygonShape;
+import org.jbox2d.collision.shapes.Shape;
+import org.jbox2d.collision.shapes.ShapeType;
+import org.jbox2d.common.Transform;
+import org.jbox2d.common.Vec2;
+import org.jbox2d.dynamics.Body;
+import org.jbox2d.dynamics.BodyDef;
+import org.jbox2d.dynamics.BodyType;
+import org.jbox2d.dynamics.Filter;
+import org.jbox2d.dynamics.Fixture;
+import org.jbox2d.dynamics.FixtureDef;
+import org.jbox2d.dynamics.World;
+import org.jbox2d.dynamics.joints.DistanceJoint;
+import org.jbox2d.dynamics.joints.DistanceJointDef;
+import org.jbox2d.dynamics.joints.FrictionJoint;
+import org.jbox2d.dynamics.joints.FrictionJointDef;
+import org.jbox2d.dynamics.joints.Joint;
+import org.jbox2d.dynamics.joints.JointDef;
+import org.jbox2d.dynamics.joints.JointType;
+import org.jbox2d.dynamics.joints.PrismaticJoint;
+import org.jbox2d.dynamics.joints.PrismaticJointDef;
+import org.jbox2d.dynamics.joints.PulleyJoint;
+import org.jbox2d.dynamics.joints.PulleyJointDef;
+import org.jbox2d.dynamics.joints.RevoluteJoint;
+import org.jbox2d.dynamics.joints.RevoluteJointDef;
+import org.jbox2d.dynamics.joints.RopeJoint;
+import org.jbox2d.dynamics.joints.RopeJointDef;
+import org.jbox2d.dynamics.joints.WeldJoint;
+import org.jbox2d.dynamics.joints.WeldJointDef;
+import org.jbox2d.dynamics.joints.WheelJoint;
+import org.jbox2d.dynamics.joints.WheelJointDef;
+import org.jbox2d.particle.ParticleColor;
+import org.jbox2d.particle.ParticleDef;
+import org.jbox2d.particle.ParticleGroup;
+import org.jbox2d.particle.ParticleGroupDef;
+
+import com.thomasdiewald.liquidfun.java.render.DwBody;
+import com.thomasdiewald.liquidfun.java.render.DwFixture;
+import com.thomasdiewald.liquidfun.java.render.DwJoint;
+import com.thomasdiewald.liquidfun.java.render.ShapeStyle;
+
+
+
+/**
+ * 
+ * Compact binary world snapshot, for saving and restoring a complete world.<br>
+ * <br>
+ * Content: world settings, bodies, fixtures (shape, material, filter), joints,
+ * particle buffers (positions, velocities, flags, colors), particle groups and
+ * the ShapeStyle of DwBody/DwFixture/DwJoint shapes.<br>
+ * <br>
+ * Everything is packed into one little-endian ByteBuffer and written/read
+ * through NIO channels in a single pass. Particles are stored as flat arrays,
+ * the restore creates them in buffer order and then overwrites the world
+ * buffers in bulk.<br>
+ * <br>
+ * Not stored: user-data, contacts, sleep-timers, gear-, mouse-,
+ * constant-volume joints, and the rest-lengths of elastic/spring particle
+ * groups (they are rebuilt from the restored positions).<br>
+ * 
+ * @author Thomas Diewald
+ * 
+ */
+public class DwWorldSerializer {
+
+  static public final int MAGIC   = 0x53574644; // "DFWS"
+  static public final int VERSION = 2; // 2: joint styles
+
+  static protected final byte SHAPE_CIRCLE  = 0;
+  static protected final byte SHAPE_EDGE    = 1;
+  static protected final byte SHAPE_POLYGON = 2;
+  static protected final byte SHAPE_CHAIN   = 3;
+
+  // pack buffer, reused
+  protected ByteBuffer buf;
+
+  // version of the snapshot, that is currently unpacked
+  protected int version = VERSION;
+
+  // stats of the last save/restore
+  public int   stat_bytes     = 0;
+  public int   stat_bodies    = 0;
+  public int   stat_joints    = 0;
+  public int   stat_particles = 0;
+  public float stat_duration  = 0; // ms
+
+
+  public DwWorldSerializer(){
+  }
+
+
+
+  //////////////////////////////////////////////////////////////////////////////
+  //
+  // Save
+  //
+  //////////////////////////////////////////////////////////////////////////////
+
+  public boolean save(World world, String filename){
+    try(FileChannel channel = FileChannel.open(Paths.get(filename),
+        StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
+    {
+      return save(world, channel);
+    } catch (IOException e) {
+      System.out.println("Error - DwWorldSerializer.save: "+e.getMessage());
+      return false;
+    }
+  }
+
+
+  public boolean save(World world, WritableByteChannel channel){
+    long timer = System.nanoTime();
+
+    ByteBuffer buf = pack(world);
+    try {
+      while(buf.hasRemaining()){
+        channel.write(buf);
+      }
+    } catch (IOException e) {
+      System.out.println("Error - DwWorldSerializer.save: "+e.getMessage());
+      return false;
+    }
+
+    stat_duration = (System.nanoTime() - timer) / 1E6f;
+    return true;
+  }
+
+
+  /**
+   * packs the world into the internal buffer, ready for reading.
+   */
+  public ByteBuffer pack(World world){
+    if(buf != null) buf.clear();
+    ensure(1 << 16);
+
+    buf.putInt(MAGIC);
+    buf.putInt(VERSION);
+
+    // world
+    putVec2(world.getGravity());
+    buf.put((byte) (world.isAllowSleep() ? 1 : 0));
+    buf.putFloat(world.getParticleRadius());
+    buf.putFloat(world.getParticleDensity());
+    buf.putFloat(world.getParticleDamping());
+    buf.putFloat(world.getParticleGravityScale());
+    buf.putInt  (world.getParticleMaxCount());
+
+    // bodies, in creation order (the world list is newest first)
+    ArrayList<Body> bodies = new ArrayList<Body>();
+    for(Body body = world.getBodyList(); body != null; body = body.getNext()){
+      bodies.add(body);
+    }
+    reverse(bodies);
+
+    IdentityHashMap<Body, Integer> body_idx = new IdentityHashMap<Body, Integer>();
+
+    ensure(4);
+    buf.putInt(bodies.size());
+    for(Body body : bodies){
+      body_idx.put(body, body_idx.size());
+      putBody(body);
+    }
+
+    // joints, in creation order
+    ArrayList<Joint> joints = new ArrayList<Joint>();
+    for(Joint joint = world.getJointList(); joint != null; joint = joint.getNext()){
+      JointType type = joint.getType();
+      if(type == JointType.MOUSE){
+        continue; // interaction only
+      }
+      if(!isSupported(type)){
+        System.out.println("Error - DwWorldSerializer.pack: JointType not supported: "+type);
+        continue;
+      }
+      joints.add(joint);
+    }
+    reverse(joints);
+
+    ensure(4);
+    buf.putInt(joints.size());
+    for(Joint joint : joints){
+      putJoint(joint, body_idx);
+    }
+
+    // particles
+    putParticles(world);
+
+    buf.flip();
+
+    stat_bytes  = buf.limit();
+    stat_bodies = bodies.size();
+    stat_joints = joints.size();
+    return buf;
+  }
+
+
+
+  protected void putBody(Body body){
+    ensure(64);
+    buf.put((byte) body.getType().ordinal());
+    putVec2(body.getPosition());
+    buf.putFloat(body.getAngle());
+    putVec2(body.getLinearVelocity());
+    buf.putFloat(body.getAngularVelocity());
+    buf.putFloat(body.getLinearDamping());
+    buf.putFloat(body.getAngularDamping());
+    buf.putFloat(body.getGravityScale());
+
+    int flags = 0;
+    if(body.isSleepingAllowed()) flags |= 0x01;
+    if(body.isAwake         ()) flags |= 0x02;
+    if(body.isFixedRotation ()) flags |= 0x04;
+    if(body.isBullet        ()) flags |= 0x08;
+    if(body.isActive        ()) flags |= 0x10;
+    buf.put((byte) flags);
+
+    DwBody dwbody = DwWorld.getShape(body);
+    putStyle(dwbody != null ? dwbody.style : null);
+    ensure(4);
+
+    // fixtures, in creation order
+    ArrayList<Fixture> fixtures = new ArrayList<Fixture>();
+    for(Fixture fixture = body.getFixtureList(); fixture != null; fixture = fixture.getNext()){
+      fixtures.add(fixture);
+    }
+    reverse(fixtures);
+
+    buf.putInt(fixtures.size());
+    for(Fixture fixture : fixtures){
+      putFixture(fixture);
+    }
+  }
+
+
+  protected void putFixture(Fixture fixture){
+    ensure(64);
+    buf.putFloat(fixture.getFriction());
+    buf.putFloat(fixture.getRestitution());
+    buf.putFloat(fixture.getDensity());
+    buf.put((byte) (fixture.isSensor() ? 1 : 0));
+
+    Filter filter = fixture.getFilterData();
+    buf.putInt(filter.categoryBits);
+    buf.putInt(filter.maskBits);
+    buf.putInt(filter.groupIndex);
+
+    putShape(fixture.getShape());
+
+    DwFixture dwfixture = DwWorld.getShape(fixture);
+    putStyle(dwfixture != null ? dwfixture.style : null);
+  }
+
+
+  protected void putShape(Shape shape){
+    ensure(64);
+    buf.putFloat(shape.m_radius);
+
+    switch(shape.getType()){
+      case CIRCLE: {
+        CircleShape circle = (CircleShape) shape;
+        buf.put(SHAPE_CIRCLE);
+        putVec2(circle.m_p);
+      }
+      break;
+      case EDGE: {
+        EdgeShape edge = (EdgeShape) shape;
+        buf.put(SHAPE_EDGE);
+        putVec2(edge.m_vertex0);
+        putVec2(edge.m_vertex1);
+        putVec2(edge.m_vertex2);
+        putVec2(edge.m_vertex3);
+        buf.put((byte) (edge.m_hasVertex0 ? 1 : 0));
+        buf.put((byte) (edge.m_hasVertex3 ? 1 : 0));
+      }
+      break;
+      case POLYGON: {
+        PolygonShape poly = (PolygonShape) shape;
+        buf.put(SHAPE_POLYGON);
+        putVec2(poly.m_vertices, poly.m_count);
+      }
+      break;
+      case CHAIN: {
+        ChainShape chain = (ChainShape) shape;
+        buf.put(SHAPE_CHAIN);
+        putVec2(chain.m_vertices, chain.m_count);
+        ensure(32);
+        putVec2(chain.m_prevVertex);
+        putVec2(chain.m_nextVertex);
+        buf.put((byte) (chain.m_hasPrevVertex ? 1 : 0));
+        buf.put((byte) (chain.m_hasNextVertex ? 1 : 0));
+      }
+      break;
+      default:
+        break;
+    }
+  }
+
+
+  protected boolean isSupported(JointType type){
+    switch(type){
+      case REVOLUTE :
+      case PRISMATIC:
+      case DISTANCE :
+      case PULLEY   :
+      case WHEEL    :
+      case WELD     :
+      case FRICTION :
+      case ROPE     : return true;
+      default       : return false;
+    }
+  }
+
+
+  protected void putJoint(Joint joint, IdentityHashMap<Body, Integer> body_idx){
+    ensure(128);
+    buf.put((byte) joint.getType().ordinal());
+    buf.putInt(body_idx.get(joint.getBodyA()));
+    buf.putInt(body_idx.get(joint.getBodyB()));
+    buf.put((byte) (joint.getCollideConnected() ? 1 : 0));
+    DwJoint dwjoint = DwWorld.getShape(joint);
+    buf.put((byte) (dwjoint != null ? 1 : 0));
+    if(dwjoint != null){
+      putStyle(dwjoint.style);
+    }
+
+    switch(joint.getType()){
+      case REVOLUTE: {
+        RevoluteJoint j = (RevoluteJoint) joint;
+        putVec2(j.getLocalAnchorA());
+        putVec2(j.getLocalAnchorB());
+        buf.putFloat(j.getReferenceAngle());
+        buf.put((byte) (j.isLimitEnabled() ? 1 : 0));
+        buf.putFloat(j.getLowerLimit());
+        buf.putFloat(j.getUpperLimit());
+        buf.put((byte) (j.isMotorEnabled() ? 1 : 0));
+        buf.putFloat(j.getMotorSpeed());
+        buf.putFloat(j.getMaxMotorTorque());
+      }
+      break;
+      case PRISMATIC: {
+        PrismaticJoint j = (PrismaticJoint) joint;
+        putVec2(j.getLocalAnchorA());
+        putVec2(j.getLocalAnchorB());
+        putVec2(j.getLocalAxisA());
+        buf.putFloat(j.getReferenceAngle());
+        buf.put((byte) (j.isLimitEnabled() ? 1 : 0));
+        buf.putFloat(j.getLowerLimit());
+        buf.putFloat(j.getUpperLimit());
+        buf.put((byte) (j.isMotorEnabled() ? 1 : 0));
+        buf.putFloat(j.getMotorSpeed());
+        buf.putFloat(j.getMaxMotorForce());
+      }
+      break;
+      case DISTANCE: {
+        DistanceJoint j = (DistanceJoint) joint;
+        putVec2(j.getLocalAnchorA());
+        putVec2(j.getLocalAnchorB());
+        buf.putFloat(j.getLength());
+        buf.putFloat(j.getFrequency());
+        buf.putFloat(j.getDampingRatio());
+      }
+      break;
+      case PULLEY: {
+        PulleyJoint j = (PulleyJoint) joint;
+        putVec2(j.getGroundAnchorA());
+        putVec2(j.getGroundAnchorB());
+        putVec2(j.getLocalAnchorA());
+        putVec2(j.getLocalAnchorB());
+        buf.putFloat(j.getLengthA());
+        buf.putFloat(j.getLengthB());
+        buf.putFloat(j.getRatio());
+      }
+      break;
+      case WHEEL: {
+        WheelJoint j = (WheelJoint) joint;
+        putVec2(j.getLocalAnchorA());
+        putVec2(j.getLocalAnchorB());
+        putVec2(j.getLocalAxisA());
+        buf.put((byte) (j.isMotorEnabled() ? 1 : 0));
+        buf.putFloat(j.getMotorSpeed());
+        buf.putFloat(j.getMaxMotorTorque());
+        buf.putFloat(j.getSpringFrequencyHz());
+        buf.putFloat(j.getSpringDampingRatio());
+      }
+      break;
+      case WELD: {
+        WeldJoint j = (WeldJoint) joint;
+        putVec2(j.getLocalAnchorA());
+        putVec2(j.getLocalAnchorB());
+        buf.putFloat(j.getReferenceAngle());
+        buf.putFloat(j.getFrequency());
+        buf.putFloat(j.getDampingRatio());
+      }
+      break;
+      case FRICTION: {
+        FrictionJoint j = (FrictionJoint) joint;
+        putVec2(j.getLocalAnchorA());
+        putVec2(j.getLocalAnchorB());
+        buf.putFloat(j.getMaxForce());
+        buf.putFloat(j.getMaxTorque());
+      }
+      break;
+      case ROPE: {
+        RopeJoint j = (RopeJoint) joint;
+        putVec2(j.getLocalAnchorA());
+        putVec2(j.getLocalAnchorB());
+        buf.putFloat(j.getMaxLength());
+      }
+      break;
+      default:
+        break;
+    }
+  }
+
+
+  protected void putParticles(World world){
+    int num = world.getParticleCount();
+
+    Vec2         [] pos   = world.getParticlePositionBuffer();
+    Vec2         [] vel   = world.getParticleVelocityBuffer();
+    int          [] flags = world.getParticleFlagsBuffer();
+    ParticleColor[] col   = world.getParticleColorBuffer();
+
+    boolean has_col = col != null;
+
+    ensure(8 + num * (4 * 5 + 4));
+    buf.putInt(num);
+    buf.put((byte) (has_col ? 1 : 0));
+    for(int i = 0; i < num; i++){
+      buf.putFloat(pos[i].x);
+      buf.putFloat(pos[i].y);
+    }
+    for(int i = 0; i < num; i++){
+      buf.putFloat(vel[i].x);
+      buf.putFloat(vel[i].y);
+    }
+    for(int i = 0; i < num; i++){
+      buf.putInt(flags[i]);
+    }
+    if(has_col){
+      for(int i = 0; i < num; i++){
+        ParticleColor c = col[i];
+        buf.put(c.r).put(c.g).put(c.b).put(c.a);
+      }
+    }
+
+    // groups, in buffer order
+    ArrayList<ParticleGroup> groups = new ArrayList<ParticleGroup>();
+    for(ParticleGroup group = world.getParticleGroupList(); group != null; group = group.getNext()){
+      if(group.getParticleCount() > 0){
+        groups.add(group);
+      }
+    }
+    groups.sort(new Comparator<ParticleGroup>() {
+      @Override
+      public int compare(ParticleGroup a, ParticleGroup b) {
+        return Integer.compare(a.getBufferIndex(), b.getBufferIndex());
+      }
+    });
+
+    ensure(4 + groups.size() * 12);
+    buf.putInt(groups.size());
+    for(ParticleGroup group : groups){
+      buf.putInt(group.getBufferIndex());
+      buf.putInt(group.getParticleCount());
+      buf.putInt(group.getGroupFlags());
+    }
+
+    stat_particles = num;
+  }
+
+
+
+  //////////////////////////////////////////////////////////////////////////////
+  //
+  // Restore
+  //
+  //////////////////////////////////////////////////////////////////////////////
+
+  public boolean restore(DwWorld world, String filename){
+    try(FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)){
+      return restore(world, channel, (int) channel.size());
+    } catch (IOException e) {
+      System.out.println("Error - DwWorldSerializer.restore: "+e.getMessage());
+      return false;
+    }
+  }
+
+
+  public boolean restore(DwWorld world, ReadableByteChannel channel){
+    return restore(world, channel, 1 << 16);
+  }
+
+
+  /**
+   * reads the channel until its end, and restores the world.
+   */
+  protected boolean restore(DwWorld world, ReadableByteChannel channel, int size_hint){
+    long timer = System.nanoTime();
+
+    if(buf != null) buf.clear();
+    ensure(size_hint);
+    try {
+      while(true){
+        ensure(1 << 16);
+        if(channel.read(buf) < 0){
+          break;
+        }
+      }
+    } catch (IOException e) {
+      System.out.println("Error - DwWorldSerializer.restore: "+e.getMessage());
+      return false;
+    }
+    buf.flip();
+
+    boolean success = unpack(world, buf);
+
+    stat_duration = (System.nanoTime() - timer) / 1E6f;
+    return success;
+  }
+
+
+  /**
+   * 
+   * Restores a packed snapshot (see {@link #pack(World)}) into the given world.<br>
+   * The world is expected to be fresh, i.e. without bodies or particles.<br>
+   * 
+   */
+  public boolean unpack(DwWorld world, ByteBuffer buf){
+    if(world.getBodyCount() > 0 || world.getParticleCount() > 0){
+      System.out.println("Error - DwWorldSerializer.unpack: world is not empty");
+      return false;
+    }
+
+    buf.order(ByteOrder.LITTLE_ENDIAN);
+
+    try {
+      if(buf.getInt() != MAGIC){
+        System.out.println("Error - DwWorldSerializer.unpack: not a world snapshot");
+        return false;
+      }
+      version = buf.getInt();
+      if(version < 1 || version > VERSION){
+        System.out.println("Error - DwWorldSerializer.unpack: unsupported version "+version);
+        return false;
+      }
+
+      // world
+      world.setGravity(getVec2(buf, new Vec2()));
+      world.setAllowSleep(buf.get() != 0);
+      world.setParticleRadius      (buf.getFloat());
+      world.setParticleDensity     (buf.getFloat());
+      world.setParticleDamping     (buf.getFloat());
+      world.setParticleGravityScale(buf.getFloat());
+      world.setParticleMaxCount    (buf.getInt());
+
+      // bodies
+      Body[] bodies = new Body[buf.getInt()];
+      for(int i = 0; i < bodies.length; i++){
+        bodies[i] = getBody(world, buf);
+      }
+
+      // joints
+      int num_joints = buf.getInt();
+      for(int i = 0; i < num_joints; i++){
+        getJoint(world, buf, bodies);
+      }
+
+      // particles
+      if(!getParticles(world, buf)){
+        return false;
+      }
+
+      stat_bytes  = buf.limit();
+      stat_bodies = bodies.length;
+      stat_joints = num_joints;
+
+    } catch (BufferUnderflowException e) {
+      System.out.println("Error - DwWorldSerializer.unpack: unexpected end of snapshot");
+      return false;
+    } catch (RuntimeException e) {
+      System.out.println("Error - DwWorldSerializer.unpack: corrupt snapshot, "+e);
+      return false;
+    }
+
+    return true;
+  }
+
+
+
+  protected Body getBody(DwWorld world, ByteBuffer buf){
+    BodyDef bd = new BodyDef();
+    bd.type = BodyType.values()[buf.get()];
+    getVec2(buf, bd.position);
+    bd.angle = buf.getFloat();
+    getVec2(buf, bd.linearVelocity);
+    bd.angularVelocity = buf.getFloat();
+    bd.linearDamping   = buf.getFloat();
+    bd.angularDamping  = buf.getFloat();
+    bd.gravityScale    = buf.getFloat();
+
+    int flags = buf.get();
+    bd.allowSleep    = (flags & 0x01) != 0;
+    bd.awake         = (flags & 0x02) != 0;
+    bd.fixedRotation = (flags & 0x04) != 0;
+    bd.bullet        = (flags & 0x08) != 0;
+    bd.active        = (flags & 0x10) != 0;
+
+    ShapeStyle style = getStyle(buf);
+
+    Body body = world.createBody(bd);
+
+    int num_fixtures = buf.getInt();
+    Fixture  [] fixtures = new Fixture  [num_fixtures];
+    ShapeStyle[] styles  = new ShapeStyle[num_fixtures];
+    for(int i = 0; i < num_fixtures; i++){
+      FixtureDef fd = new FixtureDef();
+      fd.friction    = buf.getFloat();
+      fd.restitution = buf.getFloat();
+      fd.density     = buf.getFloat();
+      fd.isSensor    = buf.get() != 0;
+      fd.filter.categoryBits = buf.getInt();
+      fd.filter.maskBits     = buf.getInt();
+      fd.filter.groupIndex   = buf.getInt();
+      fd.shape = getShape(buf);
+      fixtures[i] = body.createFixture(fd);
+      styles  [i] = getStyle(buf);
+    }
+
+    // render shapes, fixture-shapes are created with the body, so only their
+    // styles are applied
+    if(world.bodies != null && style != null){
+      world.bodies.add(body, style);
+      for(int i = 0; i < num_fixtures; i++){
+        if(styles[i] != null){
+          world.bodies.setStyle(fixtures[i], styles[i]);
+        }
+      }
+    }
+
+    return body;
+  }
+
+
+  protected Shape getShape(ByteBuffer buf){
+    float radius = buf.getFloat();
+    byte  type   = buf.get();
+
+    Shape shape = null;
+    switch(type){
+      case SHAPE_CIRCLE: {
+        CircleShape circle = new CircleShape();
+        getVec2(buf, circle.m_p);
+        shape = circle;
+      }
+      break;
+      case SHAPE_EDGE: {
+        EdgeShape edge = new EdgeShape();
+        getVec2(buf, edge.m_vertex0);
+        getVec2(buf, edge.m_vertex1);
+        getVec2(buf, edge.m_vertex2);
+        getVec2(buf, edge.m_vertex3);
+        edge.m_hasVertex0 = buf.get() != 0;
+        edge.m_hasVertex3 = buf.get() != 0;
+        shape = edge;
+      }
+      break;
+      case SHAPE_POLYGON: {
+        Vec2[] verts = getVec2Array(buf);
+        PolygonShape poly = new PolygonShape();
+        poly.set(verts, verts.length);
+        shape = poly;
+      }
+      break;
+      case SHAPE_CHAIN: {
+        Vec2[] verts = getVec2Array(buf);
+        ChainShape chain = new ChainShape();
+        chain.createChain(verts, verts.length);
+        Vec2 prev = getVec2(buf, new Vec2());
+        Vec2 next = getVec2(buf, new Vec2());
+        if(buf.get() != 0) chain.setPrevVertex(prev);
+        if(buf.get() != 0) chain.setNextVertex(next);
+        shape = chain;
+      }
+      break;
+      default:
+        throw new IllegalStateException("unknown shape type "+type);
+    }
+
+    shape.m_radius = radius;
+    return shape;
+  }
+
+
+  protected Joint getJoint(DwWorld world, ByteBuffer buf, Body[] bodies){
+    JointType type = JointType.values()[buf.get()];
+    Body    body_a    = bodies[buf.getInt()];
+    Body    body_b    = bodies[buf.getInt()];
+    boolean collide   = buf.get() != 0;
+    boolean has_shape = buf.get() != 0;
+    ShapeStyle style  = (has_shape && version >= 2) ? getStyle(buf) : null;
+
+    JointDef jd = null;
+    switch(type){
+      case REVOLUTE: {
+        RevoluteJointDef def = new RevoluteJointDef();
+        getVec2(buf, def.localAnchorA);
+        getVec2(buf, def.localAnchorB);
+        def.referenceAngle = buf.getFloat();
+        def.enableLimit    = buf.get() != 0;
+        def.lowerAngle     = buf.getFloat();
+        def.upperAngle     = buf.getFloat();
+        def.enableMotor    = buf.get() != 0;
+        def.motorSpeed     = buf.getFloat();
+        def.maxMotorTorque = buf.getFloat();
+        jd = def;
+      }
+      break;
+      case PRISMATIC: {
+        PrismaticJointDef def = new PrismaticJointDef();
+        getVec2(buf, def.localAnchorA);
+        getVec2(buf, def.localAnchorB);
+        getVec2(buf, def.localAxisA);
+        def.referenceAngle   = buf.getFloat();
+        def.enableLimit      = buf.get() != 0;
+        def.lowerTranslation = buf.getFloat();
+        def.upperTranslation = buf.getFloat();
+        def.enableMotor      = buf.get() != 0;
+        def.motorSpeed       = buf.getFloat();
+        def.maxMotorForce    = buf.getFloat();
+        jd = def;
+      }
+      break;
+      case DISTANCE: {
+        DistanceJointDef def = new DistanceJointDef();
+        getVec2(buf, def.localAnchorA);
+        getVec2(buf, def.localAnchorB);
+        def.length       = buf.getFloat();
+        def.frequencyHz  = buf.getFloat();
+        def.dampingRatio = buf.getFloat();
+        jd = def;
+      }
+      break;
+      case PULLEY: {
+        PulleyJointDef def = new PulleyJointDef();
+        getVec2(buf, def.groundAnchorA);
+        getVec2(buf, def.groundAnchorB);
+        getVec2(buf, def.localAnchorA);
+        getVec2(buf, def.localAnchorB);
+        def.lengthA = buf.getFloat();
+        def.lengthB = buf.getFloat();
+        def.ratio   = buf.getFloat();
+        jd = def;
+      }
+      break;
+      case WHEEL: {
+        WheelJointDef def = new WheelJointDef();
+        getVec2(buf, def.localAnchorA);
+        getVec2(buf, def.localAnchorB);
+        getVec2(buf, def.localAxisA);
+        def.enableMotor    = buf.get() != 0;
+        def.motorSpeed     = buf.getFloat();
+        def.maxMotorTorque = buf.getFloat();
+        def.frequencyHz    = buf.getFloat();
+        def.dampingRatio   = buf.getFloat();
+        jd = def;
+      }
+      break;
+      case WELD: {
+        WeldJointDef def = new WeldJointDef();
+        getVec2(buf, def.localAnchorA);
+        getVec2(buf, def.localAnchorB);
+        def.referenceAngle = buf.getFloat();
+        def.frequencyHz    = buf.getFloat();
+        def.dampingRatio   = buf.getFloat();
+        jd = def;
+      }
+      break;
+      case FRICTION: {
+        FrictionJointDef def = new FrictionJointDef();
+        getVec2(buf, def.localAnchorA);
+        getVec2(buf, def.localAnchorB);
+        def.maxForce  = buf.getFloat();
+        def.maxTorque = buf.getFloat();
+        jd = def;
+      }
+      break;
+      case ROPE: {
+        RopeJointDef def = new RopeJointDef();
+        getVec2(buf, def.localAnchorA);
+        getVec2(buf, def.localAnchorB);
+        def.maxLength = buf.getFloat();
+        jd = def;
+      }
+      break;
+      default:
+        throw new IllegalStateException("unsupported joint type "+type);
+    }
+
+    jd.bodyA = body_a;
+    jd.bodyB = body_b;
+    jd.collideConnected = collide;
+
+    Joint joint = world.createJoint(jd);
+    if(has_shape && world.bodies != null){
+      if(style != null){
+        world.bodies.add(joint, style);
+      } else {
+        world.bodies.add(joint);
+      }
+    }
+    return joint;
+  }
+
+
+  /**
+   * 
+   * Creates the stored particles and groups, false if the world didn't create
+   * them exactly as stored (e.g. due to the particle max-count).<br>
+   * 
+   */
+  protected boolean getParticles(DwWorld world, ByteBuffer buf){
+    int     num     = buf.getInt();
+    boolean has_col = buf.get() != 0;
+
+    // flat copies, used for creating and for the final bulk update
+    float[] pos   = new float[num * 2];
+    float[] vel   = new float[num * 2];
+    int  [] flags = new int  [num];
+    byte [] col   = has_col ? new byte[num * 4] : null;
+    buf.asFloatBuffer().get(pos); buf.position(buf.position() + num * 8);
+    buf.asFloatBuffer().get(vel); buf.position(buf.position() + num * 8);
+    buf.asIntBuffer  ().get(flags); buf.position(buf.position() + num * 4);
+    if(has_col){
+      buf.get(col);
+    }
+
+    int   num_groups = buf.getInt();
+    int[] groups     = new int[num_groups * 3]; // [first, count, groupflags]
+    buf.asIntBuffer().get(groups); buf.position(buf.position() + num_groups * 12);
+
+    // create particles in buffer order, ungrouped particles one by one,
+    // groups as a whole
+    ParticleDef pd = new ParticleDef();
+    pd.color = has_col ? new ParticleColor() : null;
+
+    int idx = 0;
+    for(int g = 0; g <= num_groups; g++){
+      int first = (g < num_groups) ? groups[g * 3 + 0] : num;
+      for(; idx < first; idx++){
+        pd.flags = flags[idx];
+        pd.position.set(pos[idx * 2 + 0], pos[idx * 2 + 1]);
+        pd.velocity.set(vel[idx * 2 + 0], vel[idx * 2 + 1]);
+        if(has_col){
+          pd.color.set(col[idx * 4 + 0], col[idx * 4 + 1], col[idx * 4 + 2], col[idx * 4 + 3]);
+        }
+        world.createParticle(pd);
+      }
+
+      if(g < num_groups){
+        int count = groups[g * 3 + 1];
+        ParticleGroup group = createParticleGroup(world, pos, flags, col, idx, count, groups[g * 3 + 2]);
+        if(group == null || group.getParticleCount() != count || group.getBufferIndex() != first){
+          System.out.println("Error - DwWorldSerializer.getParticles: particle group "+g+" was not restored, "
+              + (group != null ? group.getParticleCount() : 0)+" of "+count+" particles");
+          return false;
+        }
+        idx += count;
+      }
+    }
+
+    if(world.getParticleCount() != num){
+      System.out.println("Error - DwWorldSerializer.getParticles: "+world.getParticleCount()+" of "+num+" particles restored");
+      return false;
+    }
+
+    // bulk update of the created particles
+
+    Vec2         [] wpos   = world.getParticlePositionBuffer();
+    Vec2         [] wvel   = world.getParticleVelocityBuffer();
+    int          [] wflags = world.getParticleFlagsBuffer();
+    ParticleColor[] wcol   = world.getParticleColorBuffer();
+
+    for(int i = 0; i < num; i++){
+      wpos[i].set(pos[i * 2 + 0], pos[i * 2 + 1]);
+      wvel[i].set(vel[i * 2 + 0], vel[i * 2 + 1]);
+    }
+    System.arraycopy(flags, 0, wflags, 0, num);
+    if(has_col && wcol != null){
+      for(int i = 0, ci = 0; i < num; i++){
+        ParticleColor c = wcol[i];
+        c.r = col[ci++];
+        c.g = col[ci++];
+        c.b = col[ci++];
+        c.a = col[ci++];
+      }
+    }
+
+    stat_particles = num;
+    return true;
+  }
+
+
+  /**
+   * 
+   * Creates a group of exactly "count" particles via {@link ParticleCloud}.
+   * The group-flags of the definition are the combined flags of all particles,
+   * so pairs/triads of elastic/spring groups are created too.<br>
+   * 
+   */
+  protected ParticleGroup createParticleGroup(World world, float[] pos, int[] flags, byte[] col, int first, int count, int group_flags){
+    int pflags = 0;
+    for(int i = first; i < first + count; i++){
+      pflags |= flags[i];
+    }
+
+    ParticleGroupDef gd = new ParticleGroupDef();
+    gd.flags      = pflags;
+    gd.groupFlags = group_flags;
+    gd.shape      = new ParticleCloud(pos, first, count, world.getParticleRadius());
+    if(col != null){
+      int ci = first * 4;
+      gd.color = new ParticleColor(col[ci + 0], col[ci + 1], col[ci + 2], col[ci + 3]);
+    } else {
+      gd.color = null;
+    }
+    return world.createParticleGroup(gd);
+  }
+
+
+
+  /**
+   * 
+   * Shape for (re-)creating a particle group with a given set of positions.<br>
+   * <br>
+   * The ParticleSystem fills a group by sampling a regular lattice within the
+   * shapes AABB. This shape reports an AABB with enough lattice points,
+   * accepts the first "count" samples and moves each accepted sample to the
+   * next stored position. The positions are set again after creation anyway.<br>
+   * 
+   */
+  static public class ParticleCloud extends Shape {
+
+    public final float[] pos;
+    public final int first;
+    public final int count;
+    public final float particle_radius;
+    public final float extent;
+
+    protected int sampled = 0;
+
+    public ParticleCloud(float[] pos, int first, int count, float particle_radius){
+      super(ShapeType.CIRCLE);
+      this.pos   = pos;
+      this.first = first;
+      this.count = count;
+      this.particle_radius = particle_radius;
+      // lattice stride is 0.75 * diameter, 1.5 leaves some slack
+      int side = (int) Math.ceil(Math.sqrt(count)) + 2;
+      this.extent = side * particle_radius * 2 * 1.5f;
+    }
+
+    @Override
+    public int getChildCount() {
+      return 1;
+    }
+
+    @Override
+    public boolean testPoint(Transform xf, Vec2 p) {
+      if(sampled >= count){
+        return false;
+      }
+      int i = (first + sampled++) * 2;
+      p.x = pos[i + 0];
+      p.y = pos[i + 1];
+      return true;
+    }
+
+    public float computeDistanceToOut(Transform xf, Vec2 p, int childIndex, Vec2 normalOut) {
+      normalOut.setZero();
+      return 1;
+    }
+
+    @Override
+    public boolean raycast(RayCastOutput output, RayCastInput input, Transform transform, int childIndex) {
+      return false;
+    }
+
+    @Override
+    public void computeAABB(AABB aabb, Transform xf, int childIndex) {
+      aabb.lowerBound.set(0, 0);
+      aabb.upperBound.set(extent, extent);
+    }
+
+    @Override
+    public void computeMass(MassData massData, float density) {
+      massData.mass = 0;
+      massData.I    = 0;
+      massData.center.setZero();
+    }
+
+    @Override
+    public Shape clone() {
+      return new ParticleCloud(pos, first, count, particle_radius);
+    }
+  }
+
+
+
+  //////////////////////////////////////////////////////////////////////////////
+  //
+  // Utils
+  //
+  //////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * makes sure the buffer has at least "bytes" remaining, keeps the content.
+   */
+  protected void ensure(int bytes){
+    if(buf == null){
+      buf = ByteBuffer.allocateDirect(Math.max(bytes, 1 << 16)).order(ByteOrder.LITTLE_ENDIAN);
+      return;
+    }
+    if(buf.remaining() < bytes){
+      int capacity = Math.max(buf.position() + bytes, (int) (buf.capacity() * 1.5f));
+      ByteBuffer buf_new = ByteBuffer.allocateDirect(capacity).order(ByteOrder.LITTLE_ENDIAN);
+      buf.flip();
+      buf_new.put(buf);
+      buf = buf_new;
+    }
+  }
+
+  protected void putStyle(ShapeStyle style){
+    ensure(16);
+    buf.put((byte) (style != null ? 1 : 0));
+    if(style != null){
+      style.write(buf);
+    }
+  }
+
+  protected ShapeStyle getStyle(ByteBuffer buf){
+    return (buf.get() != 0) ? new ShapeStyle().read(buf) : null;
+  }
+
+  protected void putVec2(Vec2 v){
+    buf.putFloat(v.x);
+    buf.putFloat(v.y);
+  }
+
+  protected void putVec2(Vec2[] v, int count){
+    ensure(4 + count * 8);
+    buf.putInt(count);
+    for(int i = 0; i < count; i++){
+      putVec2(v[i]);
+    }
+  }
+
+  protected Vec2 getVec2(ByteBuffer buf, Vec2 v){
+    v.x = buf.getFloat();
+    v.y = buf.getFloat();
+    return v;
+  }
+
+  protected Vec2[] getVec2Array(ByteBuffer buf){
+    Vec2[] v = new Vec2[buf.getInt()];
+    for(int i = 0; i < v.length; i++){
+      v[i] = new Vec2(buf.getFloat(), buf.getFloat());
+    }
+    return v;
+  }
+
+  static protected <T> void reverse(ArrayList<T> list){
+    for(int i = 0, j = list.size() - 1; i < j; i++, j--){
+      list.set(i, list.set(j, list.get(i)));
+    }
+  }
+
+}
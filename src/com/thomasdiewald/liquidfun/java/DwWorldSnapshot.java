@@ -0,0 +1,151 @@
+/**
+ * 
+ * LiquidFunProcessing | Copyright 2017 Thomas Diewald - www.thomasdiewald.com
+ * 
+ * https://github.com/diwi/LiquidFunProcessing.git
+ * 
+ * Box2d / LiquidFun Library for Processing.
+ * MIT License: https://opensource.org/licenses/MIT
+ * 
+ */
+
+
+
+package com.thomasdiewald.liquidfun.java;
+
+import java.util.Arrays;
+
+import org.jbox2d.common.Transform;
+import org.jbox2d.common.Vec2;
+import org.jbox2d.dynamics.Body;
+import org.jbox2d.dynamics.World;
+import org.jbox2d.dynamics.joints.Joint;
+
+import com.thomasdiewald.liquidfun.java.render.DwBody;
+import com.thomasdiewald.liquidfun.java.render.DwJoint;
+import com.thomasdiewald.liquidfun.java.render.DwParticleRender;
+
+
+
+/**
+ * 
+ * Copy of the render relevant world state after a physics step.<br>
+ * particles: positions, velocities, colors, contacts<br>
+ * bodies: transforms of all bodies that have a DwBody shape<br>
+ * joints: anchors of all joints that have a DwJoint shape<br>
+ * <br>
+ * Captured by the {@link DwStepThread}, and applied to the render components
+ * on the animation thread.<br>
+ * 
+ * @author Thomas Diewald
+ * 
+ */
+public class DwWorldSnapshot {
+
+  // number of physics steps, at the time of capturing
+  public int step = 0;
+
+  // particles
+  public int     particle_num = 0;
+  public float   particle_rad = 0;
+  public float[] particle_pos = new float[0]; // [x, y]
+  public float[] particle_vel = new float[0]; // [x, y]
+  public byte [] particle_col = new byte [0]; // [r, g, b, a]
+  public float[] particle_con = new float[0]; // [weight, count]
+
+  // bodies
+  public int      body_num = 0;
+  public DwBody[] body_shapes = new DwBody[0];
+  public Body  [] body_refs   = new Body  [0]; // body of the shape, at the time of capturing
+  public float[]  body_xf = new float[0]; // [x, y, sin, cos]
+
+  // joints
+  public int       joint_num = 0;
+  public DwJoint[] joint_shapes = new DwJoint[0];
+  public Joint  [] joint_refs   = new Joint  [0]; // joint of the shape, at the time of capturing
+  public float[]   joint_anchors = new float[0]; // [ax, ay, bx, by]
+
+
+
+  public void capture(World world){
+    captureParticles(world);
+    captureBodies(world);
+    captureJoints(world);
+  }
+
+
+  protected void captureParticles(World world){
+    particle_num = world.getParticleCount();
+    particle_rad = world.getParticleRadius();
+
+    particle_pos = DwUtils.resizeBuffer(particle_pos, particle_num * 2);
+    particle_vel = DwUtils.resizeBuffer(particle_vel, particle_num * 2);
+    particle_col = DwUtils.resizeBuffer(particle_col, particle_num * 4);
+    particle_con = DwUtils.resizeBuffer(particle_con, particle_num * 2);
+
+    DwParticleRender.copyParticleData(world, particle_num, 0, particle_pos, particle_vel, particle_col, particle_con);
+  }
+
+
+  protected void captureBodies(World world){
+    int count = world.getBodyCount();
+    if(body_shapes.length < count){
+      body_shapes = Arrays.copyOf(body_shapes, (int) Math.ceil(count * 1.5f));
+      body_refs   = new Body[body_shapes.length];
+    }
+    body_xf = DwUtils.resizeBuffer(body_xf, body_shapes.length * 4);
+
+    body_num = 0;
+    for (Body body = world.getBodyList(); body != null; body = body.getNext()) {
+      DwBody dwbody = DwWorld.getShape(body);
+      if(dwbody != null){
+        Transform xf = body.getTransform();
+        int idx = body_num * 4;
+        body_refs  [body_num  ] = body;
+        body_shapes[body_num++] = dwbody;
+        body_xf[idx+0] = xf.p.x;
+        body_xf[idx+1] = xf.p.y;
+        body_xf[idx+2] = xf.q.s;
+        body_xf[idx+3] = xf.q.c;
+      }
+    }
+
+    // don't keep references to released shapes
+    Arrays.fill(body_shapes, body_num, body_shapes.length, null);
+    Arrays.fill(body_refs  , body_num, body_refs  .length, null);
+  }
+
+
+  protected void captureJoints(World world){
+    int count = world.getJointCount();
+    if(joint_shapes.length < count){
+      joint_shapes = Arrays.copyOf(joint_shapes, (int) Math.ceil(count * 1.5f));
+      joint_refs   = new Joint[joint_shapes.length];
+    }
+    joint_anchors = DwUtils.resizeBuffer(joint_anchors, joint_shapes.length * 4);
+
+    Vec2 ancA = new Vec2();
+    Vec2 ancB = new Vec2();
+
+    joint_num = 0;
+    for (Joint joint = world.getJointList(); joint != null; joint = joint.getNext()) {
+      DwJoint dwjoint = DwWorld.getShape(joint);
+      if(dwjoint != null){
+        joint.getAnchorA(ancA);
+        joint.getAnchorB(ancB);
+        int idx = joint_num * 4;
+        joint_refs  [joint_num  ] = joint;
+        joint_shapes[joint_num++] = dwjoint;
+        joint_anchors[idx+0] = ancA.x;
+        joint_anchors[idx+1] = ancA.y;
+        joint_anchors[idx+2] = ancB.x;
+        joint_anchors[idx+3] = ancB.y;
+      }
+    }
+
+    // don't keep references to released shapes
+    Arrays.fill(joint_shapes, joint_num, joint_shapes.length, null);
+    Arrays.fill(joint_refs  , joint_num, joint_refs  .length, null);
+  }
+
+}
@@ -23,6 +23,7 @@ import org.jbox2d.particle.ParticleGroup;
 import org.jbox2d.particle.ParticleGroupDef;
 import org.jbox2d.particle.ParticleType;
 
+import com.thomasdiewald.liquidfun.java.DwParticleBudget;
 import com.thomasdiewald.liquidfun.java.DwViewportTransform;
 
 import processing.core.PConstants;
@@ -153,6 +154,7 @@ public class DwParticleSpawn implements DwInteractionEvent{
 
     // spawn particles in group_def.shape
     group_old = group_new;
+    group_def.userData = DwParticleBudget.tag(world, group_def.userData);
     group_new = world.createParticleGroup(group_def);
     
     revertShapeTransform();
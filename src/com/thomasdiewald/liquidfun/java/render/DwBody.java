@@ -16,6 +16,9 @@
 package com.thomasdiewald.liquidfun.java.render;
 
 import java.util.ArrayList;
+import org.jbox2d.collision.AABB;
+import org.jbox2d.collision.shapes.Shape;
+import org.jbox2d.common.Transform;
 import org.jbox2d.dynamics.Body;
 import org.jbox2d.dynamics.Fixture;
 
@@ -44,15 +47,47 @@ public class DwBody{
   
   public ShapeStyle style = new ShapeStyle();
   
+  // previous body transform, for render interpolation
+  public final Transform xf_prev = new Transform();
+  public boolean xf_prev_valid = false;
+  
+  // transform, last applied to the shape
+  public final Transform xf_shape = new Transform();
+  public boolean xf_shape_valid = false;
+  
+  // world-space bounds of the fixtures at xf_shape, see getBounds()
+  protected final AABB aabb_shape = new AABB();
+  protected final AABB aabb_tmp   = new AABB();
+  protected boolean aabb_shape_valid = false;
+  
   // use m_userData here, instead of body.m_userData
   public Object m_userData = null;
+  
+  // index in parent.childrenB
+  protected int slot = -1;
 
   public DwBody(DwBodyGroup parent, Body body){
+    // create PShape
+    this.shape = parent.papplet.createShape(PConstants.GROUP);
+    attach(parent, body);
+  }
+  
+  
+  /**
+   * links this, and its existing shape, to the given body. Also used to reuse
+   * a pooled instance, see {@link DwBodyPool}.
+   */
+  protected void attach(DwBodyGroup parent, Body body){
     this.parent = parent;
     this.body = body;
+    this.m_userData = null;
+    this.xf_prev_valid = false;
+    this.xf_shape_valid = false;
+    this.aabb_shape_valid = false;
     
-    // create PShape
-    this.shape = parent.papplet.createShape(PConstants.GROUP);
+    // hidden, until the first transform is applied
+    shape.resetMatrix();
+    shape.setVisible(false);
     // link PShapes
     parent.shape.addChild(shape);
     
@@ -70,29 +105,118 @@ public class DwBody{
     if(dwfixture != null){
       dwfixture.release();
     }
-    dwfixture = new DwFixture(this, fixture);
+    DwBodyPool pool = parent.pool;
+    dwfixture = (pool != null) ? pool.obtain(this, fixture) : new DwFixture(this, fixture);
+    dwfixture.slot = children.size();
     children.add(dwfixture);
+    aabb_shape_valid = false;
     return dwfixture;
   }
   
   
+  /**
+   * removes the given child in O(1), by moving the last child to its slot.
+   */
+  protected void removeChild(DwFixture child){
+    int slot = child.slot;
+    if(slot < 0 || slot >= children.size() || children.get(slot) != child){
+      slot = children.indexOf(child);
+      if(slot == -1) return;
+    }
+    DwFixture last = children.remove(children.size()-1);
+    if(last != child){
+      children.set(slot, last);
+      last.slot = slot;
+    }
+    child.slot = -1;
+    aabb_shape_valid = false;
+  }
+  
+  
+  
+  /**
+   * applies the given body transform to the shape.<br>
+   * 
+   * @param force if false, the shape is only updated if the transform changed.
+   * @return true, if the shape was updated.
+   */
+  public boolean updateShape(Transform xf, boolean force){
+    if(!force && xf_shape_valid &&
+        xf.p.x == xf_shape.p.x && xf.p.y == xf_shape.p.y &&
+        xf.q.s == xf_shape.q.s && xf.q.c == xf_shape.q.c)
+    {
+      return false;
+    }
+    shape.resetMatrix();
+    shape.rotate(xf.q.getAngle());
+    shape.translate(xf.p.x, xf.p.y);
+    if(!xf_shape_valid){
+      shape.setVisible(true);
+    }
+    xf_shape.set(xf);
+    xf_shape_valid = true;
+    aabb_shape_valid = false;
+    return true;
+  }
+  
+  
+  /**
+   * 
+   * World-space bounds of the fixtures, at the transform last applied to the
+   * shape. Computed from the fixture geometry and xf_shape only, so it doesn't
+   * read the live body/broadphase state, e.g. while a step-thread is running.<br>
+   * 
+   * @return null, if there is no transform yet, or no fixtures.
+   */
+  public AABB getBounds(){
+    if(!xf_shape_valid || children.isEmpty()){
+      return null;
+    }
+    if(!aabb_shape_valid){
+      aabb_shape.lowerBound.set(+Float.MAX_VALUE, +Float.MAX_VALUE);
+      aabb_shape.upperBound.set(-Float.MAX_VALUE, -Float.MAX_VALUE);
+      for(DwFixture dwfixture : children){
+        Shape geometry = dwfixture.fixture.getShape();
+        for(int i = 0, count = geometry.getChildCount(); i < count; i++){
+          geometry.computeAABB(aabb_tmp, xf_shape, i);
+          aabb_shape.combine(aabb_tmp);
+        }
+      }
+      aabb_shape_valid = true;
+    }
+    return aabb_shape;
+  }
+  
+  
   
   public void release(){
-    for(int i = children.size()-1; i>= 0; i--){
-      children.get(i).release();
+    release(false);
+  }
+  
+  /**
+   * 
+   * @param deferred if true, the shape is not removed from the parent PShape
+   * immediately, but in one batch by {@link DwBodyGroup#removeDeferredShapes()}.
+   */
+  public void release(boolean deferred){
+    DwBodyPool pool = parent.pool;
+    if(pool != null){
+      pool.recycleChildren(this);
+    } else {
+      // the fixture-shapes are dropped together with this shape
+      for(int i = children.size()-1; i>= 0; i--){
+        children.get(i).detach();
+      }
     }
-//    for(DwFixture child : children){
-//      child.release();
-//    }
-    children.clear(); // should already be cleared
-    children = null;
-    
-    int idx = parent.shape.getChildIndex(shape);
-    parent.shape.removeChild(idx);
+    children.clear();
     
-    parent.childrenB.remove(this);
+    parent.removeChild(this, deferred);
 
-    shape = null;
+    // pooled instances keep their shape
+    if(pool == null || !pool.recycle(this, deferred)){
+      children = null;
+      shape = null;
+    }
     parent = null;
     body.setUserData(null);
     body = null;
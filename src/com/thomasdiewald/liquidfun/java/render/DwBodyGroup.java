@@ -15,11 +15,18 @@
 package com.thomasdiewald.liquidfun.java.render;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Set;
 
+import org.jbox2d.collision.AABB;
+import org.jbox2d.collision.shapes.ShapeType;
+import org.jbox2d.common.Transform;
 import org.jbox2d.dynamics.Body;
 import org.jbox2d.dynamics.Fixture;
 import org.jbox2d.dynamics.joints.Joint;
+import org.jbox2d.dynamics.joints.JointType;
 
 import com.thomasdiewald.liquidfun.java.DwViewportTransform;
 import com.thomasdiewald.liquidfun.java.DwWorld;
@@ -34,7 +41,11 @@ import processing.opengl.PGraphics2D;
 /**
  * 
  * Hierarchical PShape SceneGraph, built from all Box2D-World Body/Fixture shapes.<br>
- * 
+ * <br>
+ * Draw order: with {@link #useSharedShapes(boolean)}, all fixtures that use a
+ * shared shape are drawn first, followed by the PShape tree (joints and the
+ * other fixtures, in creation order). So shared fixtures always end up below
+ * joints and non-shared fixtures, regardless of the creation order.<br>
  * 
  * @author Thomas Diewald
  *
@@ -49,6 +60,12 @@ public class DwBodyGroup {
   public ArrayList<DwBody> childrenB = new ArrayList<DwBody>();
   public ArrayList<DwJoint> childrenJ = new ArrayList<DwJoint>();
   
+  // null, if pooling is disabled
+  public DwBodyPool pool = null;
+  
+  // null, if fixtures don't share their shapes
+  public DwShapeCache shape_cache = null;
+  
   public DwBodyGroup(PApplet papplet, DwWorld world, DwViewportTransform transform){
     this.papplet = papplet;
     this.world = world;
@@ -58,6 +75,56 @@ public class DwBodyGroup {
   }
   
   
+  /**
+   * 
+   * Enables/disables the reuse of released body/fixture/joint shapes, see
+   * {@link DwBodyPool}.<br>
+   * 
+   */
+  public void usePool(boolean enable){
+    if(enable && pool == null){
+      pool = new DwBodyPool(this);
+    }
+    if(!enable && pool != null){
+      pool.clear();
+      pool = null;
+    }
+  }
+  
+  public DwBodyPool getPool(){
+    return pool;
+  }
+  
+  
+  /**
+   * 
+   * Enables/disables shared fixture-shapes, see {@link DwShapeCache}.<br>
+   * Fixtures with identical geometry then use the same PShape, which is drawn
+   * once per fixture, using the body transform and the fixture/body style.
+   * This saves memory and tessellation time, when there are many equal
+   * bodies (bricks, dominos, bullets, ...).<br>
+   * Only affects fixtures that are added afterwards.<br>
+   * Shared fixtures are drawn below the PShape tree, see the class description.<br>
+   * 
+   */
+  public void useSharedShapes(boolean enable){
+    if(enable && shape_cache == null){
+      shape_cache = new DwShapeCache(papplet);
+    }
+    if(!enable){
+      shape_cache = null;
+    }
+    // pooled fixtures belong to the previous mode
+    if(pool != null){
+      pool.clear();
+    }
+  }
+  
+  public DwShapeCache getShapeCache(){
+    return shape_cache;
+  }
+  
+  
   /**
    * 
    * Add/create body-shape, using a new default shape-style.<br>
@@ -90,7 +157,8 @@ public class DwBodyGroup {
     if(child != null){
       child.release();
     }
-    child = new DwBody(this, body);
+    child = (pool != null) ? pool.obtain(body) : new DwBody(this, body);
+    child.slot = childrenB.size();
     childrenB.add(child);
     world.setStyle(body, style.fill_enabled, style.fill_color, style.stroke_enabled, style.stroke_color, style.stroke_weight);
     return child;
@@ -143,6 +211,18 @@ public class DwBodyGroup {
     return DwWorld.getShape(fixture);
   }
   
+  /**
+   * 
+   * Applies the given style to an existing fixture-shape, without recreating it.<br>
+   * 
+   */
+  public DwFixture setStyle(Fixture fixture, ShapeStyle style){
+    DwFixture dwfixture = DwWorld.getShape(fixture);
+    if(dwfixture == null) return null;
+    world.setStyle(fixture, style.fill_enabled, style.fill_color, style.stroke_enabled, style.stroke_color, style.stroke_weight);
+    return dwfixture;
+  }
+  
 
   
   
@@ -186,7 +266,8 @@ public class DwBodyGroup {
     if(child != null){
       child.release();
     }
-    child = new DwJoint(this, joint);
+    child = (pool != null) ? pool.obtain(joint) : new DwJoint(this, joint);
+    child.slot = childrenJ.size();
     childrenJ.add(child);
     world.setStyle(joint, style.fill_enabled, style.fill_color, style.stroke_enabled, style.stroke_color, style.stroke_weight);
     return child;
@@ -255,20 +336,139 @@ public class DwBodyGroup {
   
 
   
+  /**
+   * 
+   * removes the given child in O(1), by moving the last child to its slot.<br>
+   * If deferred, its PShape is removed later by {@link #removeDeferredShapes()}.<br>
+   * 
+   */
+  protected void removeChild(DwBody child, boolean deferred){
+    removeShape(child.shape, deferred);
+    
+    int slot = child.slot;
+    if(slot < 0 || slot >= childrenB.size() || childrenB.get(slot) != child){
+      slot = childrenB.indexOf(child);
+      if(slot == -1) return;
+    }
+    DwBody last = childrenB.remove(childrenB.size()-1);
+    if(last != child){
+      childrenB.set(slot, last);
+      last.slot = slot;
+    }
+    child.slot = -1;
+  }
+  
+  protected void removeChild(DwJoint child, boolean deferred){
+    removeShape(child.shape, deferred);
+    
+    int slot = child.slot;
+    if(slot < 0 || slot >= childrenJ.size() || childrenJ.get(slot) != child){
+      slot = childrenJ.indexOf(child);
+      if(slot == -1) return;
+    }
+    DwJoint last = childrenJ.remove(childrenJ.size()-1);
+    if(last != child){
+      childrenJ.set(slot, last);
+      last.slot = slot;
+    }
+    child.slot = -1;
+  }
+  
+  
+  
+  // PShapes, to be removed in one pass
+  protected Set<PShape> shapes_deferred = Collections.newSetFromMap(new IdentityHashMap<PShape, Boolean>());
+  protected ArrayList<PShape> shapes_keep = new ArrayList<PShape>();
+  
+  protected void removeShape(PShape child, boolean deferred){
+    if(child == null){
+      return;
+    }
+    if(deferred){
+      shapes_deferred.add(child);
+    } else {
+      int idx = shape.getChildIndex(child);
+      if(idx != -1){
+        shape.removeChild(idx);
+      }
+    }
+  }
+  
+  
+  /**
+   * 
+   * Removes the PShapes of all children that have been released deferred, in
+   * one pass (linear time), keeping the order of the remaining PShapes.<br>
+   * 
+   */
+  public void removeDeferredShapes(){
+    if(shapes_deferred.isEmpty()){
+      if(pool != null) pool.flush();
+      return;
+    }
+    
+    int count = shape.getChildCount();
+    shapes_keep.clear();
+    for(int i = 0; i < count; i++){
+      PShape child = shape.getChild(i);
+      if(!shapes_deferred.contains(child)){
+        shapes_keep.add(child);
+      }
+    }
+    
+    // removing the last child doesn't shift the others
+    for(int i = count-1; i >= 0; i--){
+      shape.removeChild(i);
+    }
+    for(PShape child : shapes_keep){
+      shape.addChild(child);
+    }
+    
+    shapes_keep.clear();
+    shapes_deferred.clear();
+    
+    if(pool != null) pool.flush();
+  }
+  
+  
+  /**
+   * 
+   * Releases all given bodies and joints, and removes their PShapes in one pass.<br>
+   * 
+   */
+  public void release(List<DwBody> bodies, List<DwJoint> joints){
+    if(bodies != null){
+      for(DwBody child : bodies){
+        if(child.parent == this) child.release(true);
+      }
+    }
+    if(joints != null){
+      for(DwJoint child : joints){
+        if(child.parent == this) child.release(true);
+      }
+    }
+    removeDeferredShapes();
+  }
+  
+  
   public void release(){
+    // the whole tree is dropped, so no need to remove the shapes one by one
     for(int i = childrenB.size()-1; i>= 0; i--){
-      childrenB.get(i).release();
+      childrenB.get(i).release(true);
     }
     childrenB.clear(); // should already be cleared
     childrenB = null;
     
     for(int i = childrenJ.size()-1; i>= 0; i--){
-      childrenJ.get(i).release();
+      childrenJ.get(i).release(true);
     }
     childrenJ.clear(); // should already be cleared
     childrenJ = null;
     
+    shapes_deferred.clear();
     shape = null;
+    
+    if(pool != null) pool.clear();
   }
   
 
@@ -279,7 +479,185 @@ public class DwBodyGroup {
    * 
    */
   public void display(PGraphics2D canvas){
-    canvas.shape(shape);
+    updateVisibility();
+    displaySharedShapes(canvas);
+    displayShapes(canvas);
+  }
+  
+  
+  /**
+   * 
+   * Displays the PShape tree. If culling is enabled and only a few children
+   * are visible, they are drawn one by one instead of the whole tree.<br>
+   * 
+   */
+  protected void displayShapes(PGraphics2D canvas){
+    int num_total   = childrenB.size() + childrenJ.size();
+    int num_visible = visible_bodies.size() + visible_joints.size();
+    if(!culling || num_visible >= num_total * culling_ratio){
+      canvas.shape(shape);
+      return;
+    }
+    for(DwBody dwbody : visible_bodies){
+      if(dwbody.shape.getChildCount() > 0){
+        canvas.shape(dwbody.shape);
+      }
+    }
+    for(DwJoint dwjoint : visible_joints){
+      canvas.shape(dwjoint.shape);
+    }
+  }
+  
+  
+  /**
+   * 
+   * Displays the fixtures that use shared shapes, one draw per fixture.<br>
+   * 
+   */
+  public void displaySharedShapes(PGraphics2D canvas){
+    if(shape_cache == null){
+      return;
+    }
+    
+    float screen_scale = transform.screen_scale;
+    
+    canvas.pushStyle();
+    for(DwBody dwbody : culling ? visible_bodies : childrenB){
+      // only the captured transform, the body may be stepped concurrently
+      if(!dwbody.xf_shape_valid){
+        continue;
+      }
+      Transform xf = dwbody.xf_shape;
+      boolean pushed = false;
+      for(DwFixture dwfixture : dwbody.children){
+        if(!dwfixture.shape_shared){
+          continue;
+        }
+        if(!pushed){
+          canvas.pushMatrix();
+          canvas.translate(xf.p.x, xf.p.y);
+          canvas.rotate(xf.q.getAngle());
+          pushed = true;
+        }
+        
+        ShapeStyle style = (dwfixture.style != null) ? dwfixture.style : dwbody.style;
+        // the shared shape has no style, chains/edges are outlines only
+        ShapeType type = dwfixture.fixture.getType();
+        boolean fill = style.fill_enabled && type != ShapeType.CHAIN && type != ShapeType.EDGE;
+        if(fill){
+          canvas.fill(style.fill_color);
+        } else {
+          canvas.noFill();
+        }
+        if(style.stroke_enabled){
+          canvas.stroke(style.stroke_color);
+          canvas.strokeWeight(style.stroke_weight / screen_scale);
+        } else {
+          canvas.noStroke();
+        }
+        canvas.shape(dwfixture.shape);
+      }
+      if(pushed){
+        canvas.popMatrix();
+      }
+    }
+    canvas.popStyle();
+  }
+  
+  
+  
+  //////////////////////////////////////////////////////////////////////////////
+  // Culling
+  //////////////////////////////////////////////////////////////////////////////
+  
+  protected boolean culling = false;
+  
+  // if at least this fraction of all children is visible, the whole PShape 
+  // tree is drawn at once, which is faster than drawing each child
+  public float culling_ratio = 0.5f;
+  
+  // screen-space border, in pixels, e.g. for stroke-weights
+  public float culling_margin = 4f;
+  
+  // world-space AABB of the viewport, last updated by updateVisibility()
+  public final AABB view_aabb = new AABB();
+  
+  // visible children, last updated by updateVisibility()
+  public final ArrayList<DwBody > visible_bodies = new ArrayList<DwBody >();
+  public final ArrayList<DwJoint> visible_joints = new ArrayList<DwJoint>();
+  
+  
+  /**
+   * 
+   * Enables/disables view-frustum culling.<br>
+   * Bodies and joints outside the visible area of the {@link DwViewportTransform}
+   * are not drawn. Useful for large worlds, with a camera that only shows a small
+   * part of it.<br>
+   * 
+   */
+  public void useCulling(boolean enable){
+    culling = enable;
+    visible_bodies.clear();
+    visible_joints.clear();
+  }
+  
+  public boolean isCulling(){
+    return culling;
+  }
+  
+  
+  /**
+   * 
+   * Computes the visible area and collects the visible bodies and joints.<br>
+   * Called by {@link #display(PGraphics2D)}.<br>
+   * 
+   */
+  public void updateVisibility(){
+    visible_bodies.clear();
+    visible_joints.clear();
+    if(!culling){
+      return;
+    }
+    
+    transform.getVisibleAABB(culling_margin, view_aabb);
+    
+    for(DwBody dwbody : childrenB){
+      if(isVisible(dwbody)){
+        visible_bodies.add(dwbody);
+      }
+    }
+    for(DwJoint dwjoint : childrenJ){
+      if(isVisible(dwjoint)){
+        visible_joints.add(dwjoint);
+      }
+    }
+  }
+  
+  
+  /**
+   * @return true, if the fixture bounds of the body overlap the visible area,
+   * see {@link DwBody#getBounds()}. Bodies without a transform yet are not
+   * visible.
+   */
+  public boolean isVisible(DwBody dwbody){
+    AABB aabb = dwbody.getBounds();
+    return aabb != null && AABB.testOverlap(view_aabb, aabb);
+  }
+  
+  
+  /**
+   * @return true, if the bounds of the joint-anchors overlap the visible area.
+   * Pulley joints, and joints without valid anchors, are always visible.
+   */
+  public boolean isVisible(DwJoint dwjoint){
+    if(!dwjoint.anchors_shape_valid || dwjoint.joint.getType() == JointType.PULLEY){
+      return true;
+    }
+    float[] anc = dwjoint.anchors_shape;
+    float min_x = Math.min(anc[0], anc[2]), max_x = Math.max(anc[0], anc[2]);
+    float min_y = Math.min(anc[1], anc[3]), max_y = Math.max(anc[1], anc[3]);
+    return !(max_x < view_aabb.lowerBound.x || min_x > view_aabb.upperBound.x ||
+             max_y < view_aabb.lowerBound.y || min_y > view_aabb.upperBound.y);
   }
   
   
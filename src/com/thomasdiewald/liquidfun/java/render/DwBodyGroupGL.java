@@ -0,0 +1,282 @@
+/**
+ * 
+ * LiquidFunProcessing | Copyright 2017 Thomas Diewald - www.thomasdiewald.com
+ * 
+ * https://github.com/diwi/LiquidFunProcessing.git
+ * 
+ * Box2d / LiquidFun Library for Processing.
+ * MIT License: https://opensource.org/licenses/MIT
+ * 
+ */
+
+
+package com.thomasdiewald.liquidfun.java.render;
+
+import com.jogamp.opengl.GL;
+import com.jogamp.opengl.GL2ES3;
+import com.thomasdiewald.liquidfun.java.DwViewportTransform;
+import com.thomasdiewald.liquidfun.java.DwWorld;
+import com.thomasdiewald.liquidfun.java.render.DwBodyInstanceBuffer.Mesh;
+
+import processing.core.PApplet;
+import processing.core.PGraphics;
+import processing.core.PMatrix3D;
+import processing.opengl.PGraphics2D;
+import processing.opengl.PJOGL;
+import processing.opengl.PShader;
+
+
+/**
+ * 
+ * Instanced Box2D body renderer, replaces the default {@link DwBodyGroup}.<br>
+ * <br>
+ * Usage: world.setBodyRender(new DwBodyGroupGL(this, world, world.transform));<br>
+ * <br>
+ * Fixtures use shared shapes (see {@link DwShapeCache}), and instead of the
+ * PShape tree, all fixtures are drawn with a few instanced draw-calls: one for
+ * the fill and one for the stroke, per distinct fixture geometry. See
+ * {@link DwBodyInstanceBuffer} for the buffer layout.<br>
+ * Joints and fixtures with a replaced shape are still drawn via the PShape tree.<br>
+ * 
+ * @author Thomas Diewald
+ * 
+ */
+public class DwBodyGroupGL extends DwBodyGroup {
+
+  // GL
+  protected GL2ES3 gl;
+  protected PJOGL pgl;
+
+  // Shader
+  public PShader shader_bodies;
+
+  // CPU instance packing
+  public DwBodyInstanceBuffer instances = new DwBodyInstanceBuffer();
+
+  // GL: VBOs
+  public DwStreamVBO vbo_vtx  = new DwStreamVBO();
+  public DwStreamVBO vbo_inst = new DwStreamVBO();
+  public DwStreamVBO vbo_col  = new DwStreamVBO();
+
+  // stats of the last display
+  public int stat_draw_calls = 0;
+
+
+  static public String NL = System.getProperty("line.separator");
+
+  static public String[] src_vert =
+    {   ""
+      , "#version 150                                           " + NL
+      , "                                                       " + NL
+      , "uniform mat4 mat_mvp;                                  " + NL
+      , "                                                       " + NL
+      , "in vec2  pos;    // body space                         " + NL
+      , "in vec2  off;    // stroke offset direction            " + NL
+      , "in vec4  xf;     // instance: x, y, sin, cos           " + NL
+      , "in float weight; // instance: stroke weight            " + NL
+      , "in vec4  col;    // instance: fill or stroke color     " + NL
+      , "out vec4 tint;                                         " + NL
+      , "                                                       " + NL
+      , "void main() {                                          " + NL
+      , "  vec2 p = pos + off * weight;                         " + NL
+      , "  p = vec2(xf.w * p.x - xf.z * p.y,                    " + NL
+      , "           xf.z * p.x + xf.w * p.y) + xf.xy;           " + NL
+      , "  gl_Position = mat_mvp * vec4(p, 0, 1);               " + NL
+      , "  tint = col;                                          " + NL
+      , "}                                                      " + NL
+    };
+
+  static public String[] src_frag =
+    {   ""
+      , "#version 150                                           " + NL
+      , "                                                       " + NL
+      , "in vec4 tint;                                          " + NL
+      , "out vec4 fragColor;                                    " + NL
+      , "                                                       " + NL
+      , "void main() {                                          " + NL
+      , "  fragColor = tint;                                    " + NL
+      , "}                                                      " + NL
+    };
+
+
+
+  public DwBodyGroupGL(PApplet papplet, DwWorld world, DwViewportTransform transform){
+    super(papplet, world, transform);
+    super.useSharedShapes(true);
+    shader_bodies = new PShader(papplet, src_vert, src_frag);
+  }
+
+
+  /**
+   * shared shapes are always enabled for this renderer.
+   */
+  @Override
+  public void useSharedShapes(boolean enable){
+  }
+
+
+  @Override
+  public void release(){
+    beginGL();
+    vbo_vtx .release(gl);
+    vbo_inst.release(gl);
+    vbo_col .release(gl);
+    errCheck("DwBodyGroupGL.release");
+    endGL();
+
+    instances.clear();
+    super.release();
+  }
+
+
+
+  /**
+   * packs the instances and uploads the VBOs.
+   */
+  protected void updateVBOs(){
+    instances.pack(this);
+
+    beginGL();
+    if(instances.buf_vtx_changed){
+      vbo_vtx.put(instances.buf_vtx, instances.buf_vtx_len).upload(gl, GL.GL_ARRAY_BUFFER);
+      instances.buf_vtx_changed = false;
+    }
+    vbo_inst.put(instances.buf_inst, instances.inst_num * DwBodyInstanceBuffer.INST_SIZE).upload(gl, GL.GL_ARRAY_BUFFER);
+    vbo_col .put(instances.buf_col , instances.inst_num * DwBodyInstanceBuffer.COL_SIZE ).upload(gl, GL.GL_ARRAY_BUFFER);
+    errCheck("DwBodyGroupGL.updateVBOs");
+    endGL();
+  }
+
+
+
+  @Override
+  public void display(PGraphics2D canvas){
+    updateVisibility();
+    displayInstances(canvas);
+    // joints, custom shapes
+    displayShapes(canvas);
+  }
+
+  @Override
+  public void displaySharedShapes(PGraphics2D canvas){
+    displayInstances(canvas);
+  }
+
+
+  public void displayInstances(PGraphics2D canvas){
+    stat_draw_calls = 0;
+
+    updateVBOs();
+    if(instances.inst_num == 0){
+      return;
+    }
+
+    canvas.updateProjmodelview();
+    PMatrix3D mat_mvp = canvas.projmodelview.get();
+    mat_mvp.transpose();
+
+    beginGL();
+
+    PShader shader = shader_bodies;
+    shader.bind();
+    shader.set("mat_mvp", mat_mvp);
+    errCheck("DwBodyGroupGL.display-uniforms");
+
+    int LOC_pos    = gl.glGetAttribLocation(shader.glProgram, "pos");
+    int LOC_off    = gl.glGetAttribLocation(shader.glProgram, "off");
+    int LOC_xf     = gl.glGetAttribLocation(shader.glProgram, "xf");
+    int LOC_weight = gl.glGetAttribLocation(shader.glProgram, "weight");
+    int LOC_col    = gl.glGetAttribLocation(shader.glProgram, "col");
+
+    // per vertex
+    int vtx_stride = DwBodyInstanceBuffer.VTX_SIZE * 4;
+    gl.glBindBuffer(GL.GL_ARRAY_BUFFER, vbo_vtx.HANDLE_vbo[0]);
+    enableAttrib(LOC_pos, 2, GL.GL_FLOAT, false, vtx_stride, vbo_vtx.offset + 0, 0);
+    enableAttrib(LOC_off, 2, GL.GL_FLOAT, false, vtx_stride, vbo_vtx.offset + 8, 0);
+
+    int inst_stride = DwBodyInstanceBuffer.INST_SIZE * 4;
+    int col_stride  = DwBodyInstanceBuffer.COL_SIZE;
+
+    for(Mesh mesh : instances.meshes){
+      if(mesh.inst_count == 0){
+        continue;
+      }
+
+      // per instance, starting at the first instance of the mesh
+      long inst_offset = vbo_inst.offset + (long) mesh.inst_first * inst_stride;
+      long col_offset  = vbo_col .offset + (long) mesh.inst_first * col_stride;
+
+      gl.glBindBuffer(GL.GL_ARRAY_BUFFER, vbo_inst.HANDLE_vbo[0]);
+      enableAttrib(LOC_xf    , 4, GL.GL_FLOAT, false, inst_stride, inst_offset +  0, 1);
+      enableAttrib(LOC_weight, 1, GL.GL_FLOAT, false, inst_stride, inst_offset + 16, 1);
+
+      gl.glBindBuffer(GL.GL_ARRAY_BUFFER, vbo_col.HANDLE_vbo[0]);
+      if(mesh.fill_count > 0){
+        enableAttrib(LOC_col, 4, GL.GL_UNSIGNED_BYTE, true, col_stride, col_offset + 0, 1);
+        gl.glDrawArraysInstanced(GL.GL_TRIANGLES, mesh.fill_first, mesh.fill_count, mesh.inst_count);
+        stat_draw_calls++;
+      }
+      if(mesh.stroke_count > 0){
+        enableAttrib(LOC_col, 4, GL.GL_UNSIGNED_BYTE, true, col_stride, col_offset + 4, 1);
+        gl.glDrawArraysInstanced(GL.GL_TRIANGLES, mesh.stroke_first, mesh.stroke_count, mesh.inst_count);
+        stat_draw_calls++;
+      }
+    }
+    gl.glBindBuffer(GL.GL_ARRAY_BUFFER, 0);
+    errCheck("DwBodyGroupGL.display-glDrawArraysInstanced");
+
+    // cleanup
+    disableAttrib(LOC_pos);
+    disableAttrib(LOC_off);
+    disableAttrib(LOC_xf);
+    disableAttrib(LOC_weight);
+    disableAttrib(LOC_col);
+
+    shader.unbind();
+    errCheck("DwBodyGroupGL.shader.unbind()");
+
+    endGL();
+  }
+
+
+  protected void enableAttrib(int loc, int size, int type, boolean normalized, int stride, long offset, int divisor){
+    if(loc != -1){
+      gl.glEnableVertexAttribArray(loc);
+      gl.glVertexAttribPointer(loc, size, type, normalized, stride, offset);
+      gl.glVertexAttribDivisor(loc, divisor);
+    }
+  }
+
+  protected void disableAttrib(int loc){
+    if(loc != -1){
+      gl.glVertexAttribDivisor(loc, 0);
+      gl.glDisableVertexAttribArray(loc);
+    }
+  }
+
+
+
+  protected void beginGL(){
+    if(gl == null){
+      pgl = (PJOGL) papplet.beginPGL();
+      gl = pgl.gl.getGL2ES3();
+    }
+  }
+
+  protected void endGL(){
+    if(gl != null){
+      papplet.endPGL();
+      gl = null;
+    }
+  }
+
+  protected void errCheck(String user_msg){
+    int err = pgl.getError();
+    if (err != 0) {
+      String errString = pgl.errorString(err);
+      String msg = "OpenGL error " + err + " at " + user_msg + ": " + errString;
+      PGraphics.showWarning(msg);
+    }
+  }
+
+}
@@ -0,0 +1,386 @@
+/**
+ * 
+ * LiquidFunProcessing | Copyright 2017 Thomas Diewald - www.thomasdiewald.com
+ * 
+ * https://github.com/diwi/LiquidFunProcessing.git
+ * 
+ * Box2d / LiquidFun Library for Processing.
+ * MIT License: https://opensource.org/licenses/MIT
+ * 
+ */
+
+
+package com.thomasdiewald.liquidfun.java.render;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+
+import org.jbox2d.collision.shapes.ChainShape;
+import org.jbox2d.collision.shapes.CircleShape;
+import org.jbox2d.collision.shapes.EdgeShape;
+import org.jbox2d.collision.shapes.PolygonShape;
+import org.jbox2d.collision.shapes.Shape;
+import org.jbox2d.collision.shapes.ShapeType;
+import org.jbox2d.common.Transform;
+
+import com.thomasdiewald.liquidfun.java.DwUtils;
+
+
+/**
+ * 
+ * CPU side of {@link DwBodyGroupGL}, no GL needed.<br>
+ * <br>
+ * Each fixture geometry is tessellated once into a {@link Mesh}: triangles for
+ * the fill, and a triangle strip (as triangles) along the outline for the
+ * stroke. All meshes are packed into one vertex buffer: [x, y, ox, oy] per
+ * vertex, where (ox, oy) is the stroke offset direction, scaled by the stroke
+ * weight in the shader.<br>
+ * <br>
+ * Per frame, one instance is added per fixture and the instances are sorted
+ * by mesh (counting sort), so each mesh is drawn with one instanced
+ * draw-call for the fill and one for the stroke.<br>
+ * Instance data: [x, y, sin, cos, stroke_weight] and [fill rgba, stroke rgba].<br>
+ * 
+ * @author Thomas Diewald
+ * 
+ */
+public class DwBodyInstanceBuffer {
+
+  static public class Mesh {
+    public int id;
+    // vertex ranges, in buf_vtx
+    public int fill_first   = 0;
+    public int fill_count   = 0;
+    public int stroke_first = 0;
+    public int stroke_count = 0;
+    // instance range of the current frame, in buf_inst/buf_col
+    public int inst_first = 0;
+    public int inst_count = 0;
+  }
+
+  static public final int VTX_SIZE  = 4; // floats per vertex
+  static public final int INST_SIZE = 5; // floats per instance
+  static public final int COL_SIZE  = 8; // bytes per instance
+
+  // number of segments of a circle outline
+  public int circle_segments = 32;
+
+  // upper limit of the miter length, at sharp corners
+  public float miter_limit = 4f;
+
+  // meshes
+  public ArrayList<Mesh> meshes = new ArrayList<Mesh>();
+  protected HashMap<DwShapeKey, Mesh> meshes_key = new HashMap<DwShapeKey, Mesh>();
+  protected IdentityHashMap<Object, Mesh> meshes_id = new IdentityHashMap<Object, Mesh>();
+  protected DwShapeKey key = new DwShapeKey();
+
+  // vertices of all meshes: [x, y, ox, oy]
+  public float[] buf_vtx = new float[0];
+  public int     buf_vtx_len = 0;
+  public boolean buf_vtx_changed = false;
+
+  // instances, sorted by mesh
+  public int     inst_num = 0;
+  public float[] buf_inst = new float[0]; // [x, y, sin, cos, stroke_weight]
+  public byte [] buf_col  = new byte [0]; // [fill rgba, stroke rgba]
+
+  // instances, in the order they were added
+  protected Mesh [] tmp_mesh = new Mesh[0];
+  protected float[] tmp_inst = new float[0];
+  protected byte [] tmp_col  = new byte [0];
+
+  // outline and miter directions, temporary
+  protected float[] tmp_xy = new float[0];
+  protected float[] miter  = new float[0];
+
+
+
+  //////////////////////////////////////////////////////////////////////////////
+  // Instances
+  //////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * packs one instance for each shared fixture-shape of the given group.
+   * If culling is enabled, only visible bodies are packed.
+   */
+  public void pack(DwBodyGroup group){
+    float screen_scale = group.transform.screen_scale;
+    begin();
+    for(DwBody dwbody : group.culling ? group.visible_bodies : group.childrenB){
+      // only the captured transform, the body may be stepped concurrently
+      if(!dwbody.xf_shape_valid){
+        continue;
+      }
+      Transform xf = dwbody.xf_shape;
+      for(DwFixture dwfixture : dwbody.children){
+        if(dwfixture.shape_shared){
+          ShapeStyle style = (dwfixture.style != null) ? dwfixture.style : dwbody.style;
+          add(dwfixture.shape, dwfixture.fixture.getShape(), xf, style, screen_scale);
+        }
+      }
+    }
+    end();
+  }
+
+
+  public void begin(){
+    inst_num = 0;
+    for(Mesh mesh : meshes){
+      mesh.inst_count = 0;
+    }
+  }
+
+  /**
+   * adds an instance.
+   * 
+   * @param id identifies the geometry, e.g. the shared PShape. Used for a fast
+   *           lookup of the mesh, without hashing the geometry each frame.
+   * @param geometry fixture geometry, used if the mesh doesn't exist yet.
+   * @param xf body transform
+   * @param style fill/stroke
+   * @param screen_scale stroke weight scale, pixels per world unit
+   */
+  public void add(Object id, Shape geometry, Transform xf, ShapeStyle style, float screen_scale){
+    Mesh mesh = meshes_id.get(id);
+    if(mesh == null){
+      mesh = getMesh(geometry);
+      if(mesh == null){
+        return;
+      }
+      meshes_id.put(id, mesh);
+    }
+
+    if(inst_num >= tmp_mesh.length){
+      int size = (int) Math.ceil((inst_num + 1) * 1.5f);
+      tmp_mesh = Arrays.copyOf(tmp_mesh, size);
+      tmp_inst = Arrays.copyOf(tmp_inst, size * INST_SIZE);
+      tmp_col  = Arrays.copyOf(tmp_col , size * COL_SIZE);
+    }
+
+    int ii = inst_num * INST_SIZE;
+    tmp_inst[ii + 0] = xf.p.x;
+    tmp_inst[ii + 1] = xf.p.y;
+    tmp_inst[ii + 2] = xf.q.s;
+    tmp_inst[ii + 3] = xf.q.c;
+    tmp_inst[ii + 4] = style.stroke_enabled ? style.stroke_weight / screen_scale : 0;
+
+    int ic = inst_num * COL_SIZE;
+    setColor(tmp_col, ic + 0, style.fill_color  , style.fill_enabled  );
+    setColor(tmp_col, ic + 4, style.stroke_color, style.stroke_enabled);
+
+    tmp_mesh[inst_num++] = mesh;
+    mesh.inst_count++;
+  }
+
+  static protected void setColor(byte[] buf, int idx, int argb, boolean enabled){
+    buf[idx + 0] = (byte) (argb >> 16);
+    buf[idx + 1] = (byte) (argb >>  8);
+    buf[idx + 2] = (byte) (argb >>  0);
+    buf[idx + 3] = enabled ? (byte) (argb >> 24) : 0;
+  }
+
+
+  /**
+   * sorts the instances by mesh.
+   */
+  public void end(){
+    int first = 0;
+    for(Mesh mesh : meshes){
+      mesh.inst_first = first;
+      first += mesh.inst_count;
+      mesh.inst_count = 0; // used as cursor
+    }
+
+    buf_inst = DwUtils.resizeBuffer(buf_inst, inst_num * INST_SIZE);
+    buf_col  = DwUtils.resizeBuffer(buf_col , inst_num * COL_SIZE);
+
+    for(int i = 0; i < inst_num; i++){
+      Mesh mesh = tmp_mesh[i];
+      int dst = mesh.inst_first + mesh.inst_count++;
+      System.arraycopy(tmp_inst, i * INST_SIZE, buf_inst, dst * INST_SIZE, INST_SIZE);
+      System.arraycopy(tmp_col , i * COL_SIZE , buf_col , dst * COL_SIZE , COL_SIZE );
+      tmp_mesh[i] = null;
+    }
+  }
+
+
+
+  //////////////////////////////////////////////////////////////////////////////
+  // Meshes
+  //////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * @return the mesh for the given geometry, created if it doesn't exist yet,
+   * or null if the shape-type is not supported.
+   */
+  public Mesh getMesh(Shape geometry){
+    if(key.set(geometry) == null){
+      return null;
+    }
+    Mesh mesh = meshes_key.get(key);
+    if(mesh == null){
+      mesh = createMesh(geometry);
+      meshes_key.put(key.copy(), mesh);
+    }
+    return mesh;
+  }
+
+  protected Mesh createMesh(Shape geometry){
+    Mesh mesh = new Mesh();
+    mesh.id = meshes.size();
+
+    ShapeType type = geometry.getType();
+    int count = 0;
+    boolean fill = false;
+    boolean closed = true;
+
+    if(ShapeType.POLYGON == type){
+      PolygonShape shp_polygon = (PolygonShape) geometry;
+      count = shp_polygon.m_count;
+      tmp_xy = DwUtils.resizeBuffer(tmp_xy, count * 2);
+      for(int i = 0; i < count; i++){
+        tmp_xy[i * 2 + 0] = shp_polygon.m_vertices[i].x;
+        tmp_xy[i * 2 + 1] = shp_polygon.m_vertices[i].y;
+      }
+      fill = true;
+    }
+    else if(ShapeType.CIRCLE == type){
+      CircleShape shp_circle = (CircleShape) geometry;
+      count = Math.max(3, circle_segments);
+      tmp_xy = DwUtils.resizeBuffer(tmp_xy, count * 2);
+      for(int i = 0; i < count; i++){
+        double angle = i * 2 * Math.PI / count;
+        tmp_xy[i * 2 + 0] = shp_circle.m_p.x + shp_circle.m_radius * (float) Math.cos(angle);
+        tmp_xy[i * 2 + 1] = shp_circle.m_p.y + shp_circle.m_radius * (float) Math.sin(angle);
+      }
+      fill = true;
+    }
+    else if(ShapeType.CHAIN == type){
+      ChainShape shp_chain = (ChainShape) geometry;
+      count = shp_chain.m_count;
+      tmp_xy = DwUtils.resizeBuffer(tmp_xy, count * 2);
+      for(int i = 0; i < count; i++){
+        tmp_xy[i * 2 + 0] = shp_chain.m_vertices[i].x;
+        tmp_xy[i * 2 + 1] = shp_chain.m_vertices[i].y;
+      }
+    }
+    else if(ShapeType.EDGE == type){
+      EdgeShape shp_edge = (EdgeShape) geometry;
+      count = 2;
+      tmp_xy = DwUtils.resizeBuffer(tmp_xy, count * 2);
+      tmp_xy[0] = shp_edge.m_vertex1.x;
+      tmp_xy[1] = shp_edge.m_vertex1.y;
+      tmp_xy[2] = shp_edge.m_vertex2.x;
+      tmp_xy[3] = shp_edge.m_vertex2.y;
+      closed = false;
+    }
+
+    // fill: triangle fan, as triangles (box2d polygons are convex)
+    mesh.fill_first = buf_vtx_len / VTX_SIZE;
+    if(fill){
+      for(int i = 1; i < count - 1; i++){
+        addVertex(tmp_xy, 0    , 0, 0);
+        addVertex(tmp_xy, i    , 0, 0);
+        addVertex(tmp_xy, i + 1, 0, 0);
+      }
+    }
+    mesh.fill_count = buf_vtx_len / VTX_SIZE - mesh.fill_first;
+
+    // stroke: quad per segment, centered on the outline
+    mesh.stroke_first = buf_vtx_len / VTX_SIZE;
+    addOutline(tmp_xy, count, closed);
+    mesh.stroke_count = buf_vtx_len / VTX_SIZE - mesh.stroke_first;
+
+    meshes.add(mesh);
+    buf_vtx_changed = true;
+    return mesh;
+  }
+
+
+  protected void addOutline(float[] xy, int count, boolean closed){
+    if(count < 2){
+      return;
+    }
+
+    // miter direction per vertex, of length 1/cos(half angle)
+    miter = DwUtils.resizeBuffer(miter, count * 2);
+    for(int i = 0; i < count; i++){
+      int ip = (i - 1 + count) % count;
+      int in = (i + 1) % count;
+      boolean has_prev = closed || i > 0;
+      boolean has_next = closed || i < count - 1;
+
+      float npx = 0, npy = 0, nnx = 0, nny = 0;
+      if(has_prev){
+        float dx = xy[i*2+0] - xy[ip*2+0];
+        float dy = xy[i*2+1] - xy[ip*2+1];
+        float len = (float) Math.sqrt(dx*dx + dy*dy);
+        if(len > 0){ npx = dy / len; npy = -dx / len; }
+      }
+      if(has_next){
+        float dx = xy[in*2+0] - xy[i*2+0];
+        float dy = xy[in*2+1] - xy[i*2+1];
+        float len = (float) Math.sqrt(dx*dx + dy*dy);
+        if(len > 0){ nnx = dy / len; nny = -dx / len; }
+      }
+      if(!has_prev){ npx = nnx; npy = nny; }
+      if(!has_next){ nnx = npx; nny = npy; }
+
+      float mx = npx + nnx;
+      float my = npy + nny;
+      float len = (float) Math.sqrt(mx*mx + my*my);
+      if(len > 0){
+        mx /= len;
+        my /= len;
+        float cos = mx * nnx + my * nny;
+        float scale = (cos > 1f / miter_limit) ? 1f / cos : miter_limit;
+        mx *= scale;
+        my *= scale;
+      } else {
+        mx = nnx;
+        my = nny;
+      }
+      miter[i*2+0] = mx * 0.5f;
+      miter[i*2+1] = my * 0.5f;
+    }
+
+    int segments = closed ? count : count - 1;
+    for(int i = 0; i < segments; i++){
+      int j = (i + 1) % count;
+      float ax = miter[i*2+0], ay = miter[i*2+1];
+      float bx = miter[j*2+0], by = miter[j*2+1];
+      addVertex(xy, i, -ax, -ay);
+      addVertex(xy, i, +ax, +ay);
+      addVertex(xy, j, +bx, +by);
+      addVertex(xy, i, -ax, -ay);
+      addVertex(xy, j, +bx, +by);
+      addVertex(xy, j, -bx, -by);
+    }
+  }
+
+  protected void addVertex(float[] xy, int idx, float ox, float oy){
+    if(buf_vtx_len + VTX_SIZE > buf_vtx.length){
+      buf_vtx = Arrays.copyOf(buf_vtx, (int) Math.ceil((buf_vtx_len + VTX_SIZE) * 1.5f));
+    }
+    buf_vtx[buf_vtx_len++] = xy[idx * 2 + 0];
+    buf_vtx[buf_vtx_len++] = xy[idx * 2 + 1];
+    buf_vtx[buf_vtx_len++] = ox;
+    buf_vtx[buf_vtx_len++] = oy;
+  }
+
+
+  /**
+   * drops all meshes.
+   */
+  public void clear(){
+    meshes.clear();
+    meshes_key.clear();
+    meshes_id.clear();
+    buf_vtx_len = 0;
+    buf_vtx_changed = true;
+    inst_num = 0;
+  }
+
+}
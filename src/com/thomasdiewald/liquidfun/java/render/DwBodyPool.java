@@ -0,0 +1,300 @@
+/**
+ * 
+ * LiquidFunProcessing | Copyright 2017 Thomas Diewald - www.thomasdiewald.com
+ * 
+ * https://github.com/diwi/LiquidFunProcessing.git
+ * 
+ * Box2d / LiquidFun Library for Processing.
+ * MIT License: https://opensource.org/licenses/MIT
+ * 
+ */
+
+
+package com.thomasdiewald.liquidfun.java.render;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+
+import org.jbox2d.dynamics.Body;
+import org.jbox2d.dynamics.Fixture;
+import org.jbox2d.dynamics.joints.Joint;
+import org.jbox2d.dynamics.joints.JointType;
+
+import processing.core.PShape;
+
+
+/**
+ * 
+ * Object pool for the shapes of a {@link DwBodyGroup}, for scenes that create
+ * and destroy bodies continuously (bullets, raining bodies, ...).<br>
+ * <br>
+ * Released DwBody, DwFixture and DwJoint instances are kept, together with
+ * their PShapes, and are reused for the next bodies/fixtures/joints that are
+ * added to the group. Fixture-shapes are pooled by their geometry
+ * ({@link DwShapeKey}), so a reused fixture doesn't need to be tessellated
+ * again. Fixtures with a replaced shape are not pooled.<br>
+ * <br>
+ * Shapes that have been released deferred are only reused after
+ * {@link DwBodyGroup#removeDeferredShapes()}.<br>
+ * 
+ * @author Thomas Diewald
+ * 
+ */
+public class DwBodyPool {
+
+  public DwBodyGroup group;
+
+  // upper limits of pooled instances
+  public int max_bodies   = 4096;
+  public int max_fixtures = 8192;
+  public int max_joints   = 4096;
+
+  protected ArrayList<DwBody> bodies         = new ArrayList<DwBody>();
+  protected ArrayList<DwBody> bodies_pending = new ArrayList<DwBody>();
+
+  protected HashMap<DwShapeKey, ArrayList<DwFixture>> fixtures = new HashMap<DwShapeKey, ArrayList<DwFixture>>();
+  protected int fixtures_num = 0;
+
+  // line-joints, pulley-joints
+  protected ArrayList<DwJoint> joints         = new ArrayList<DwJoint>();
+  protected ArrayList<DwJoint> joints_pulley  = new ArrayList<DwJoint>();
+  protected ArrayList<DwJoint> joints_pending = new ArrayList<DwJoint>();
+
+  // lookup key, reused
+  protected DwShapeKey key = new DwShapeKey();
+
+  // stats, since the last reset
+  public int stat_bodies_created   = 0;
+  public int stat_bodies_reused    = 0;
+  public int stat_fixtures_created = 0;
+  public int stat_fixtures_reused  = 0;
+  public int stat_joints_created   = 0;
+  public int stat_joints_reused    = 0;
+
+
+  public DwBodyPool(DwBodyGroup group){
+    this.group = group;
+  }
+
+
+
+  //////////////////////////////////////////////////////////////////////////////
+  // obtain
+  //////////////////////////////////////////////////////////////////////////////
+
+  protected DwBody obtain(Body body){
+    DwBody dwbody;
+    int last = bodies.size() - 1;
+    if(last >= 0){
+      dwbody = bodies.remove(last);
+      dwbody.attach(group, body);
+      stat_bodies_reused++;
+    } else {
+      dwbody = new DwBody(group, body);
+      stat_bodies_created++;
+    }
+    return dwbody;
+  }
+
+  protected DwFixture obtain(DwBody parent, Fixture fixture){
+    if(fixtures_num > 0 && key.set(fixture.getShape()) != null){
+      ArrayList<DwFixture> list = fixtures.get(key);
+      int last = (list != null) ? list.size() - 1 : -1;
+      if(last >= 0){
+        DwFixture dwfixture = list.remove(last);
+        fixtures_num--;
+        dwfixture.attach(parent, fixture);
+        stat_fixtures_reused++;
+        return dwfixture;
+      }
+    }
+    stat_fixtures_created++;
+    return new DwFixture(parent, fixture);
+  }
+
+  protected DwJoint obtain(Joint joint){
+    ArrayList<DwJoint> list = (joint.getType() == JointType.PULLEY) ? joints_pulley : joints;
+    DwJoint dwjoint;
+    int last = list.size() - 1;
+    if(last >= 0){
+      dwjoint = list.remove(last);
+      dwjoint.attach(group, joint);
+      stat_joints_reused++;
+    } else {
+      dwjoint = new DwJoint(group, joint);
+      stat_joints_created++;
+    }
+    return dwjoint;
+  }
+
+
+
+  //////////////////////////////////////////////////////////////////////////////
+  // recycle
+  //////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * called by {@link DwBody#release(boolean)}, after the body was removed from
+   * the group.
+   * 
+   * @return false, if the body is not pooled
+   */
+  protected boolean recycle(DwBody dwbody, boolean deferred){
+    if(dwbody.shape == null || bodies.size() + bodies_pending.size() >= max_bodies){
+      return false;
+    }
+    dwbody.m_userData = null;
+    if(deferred){
+      bodies_pending.add(dwbody);
+    } else {
+      bodies.add(dwbody);
+    }
+    return true;
+  }
+
+  /**
+   * removes all fixture-shapes from the body-shape, and pools the fixtures.
+   */
+  protected void recycleChildren(DwBody dwbody){
+    PShape shape = dwbody.shape;
+    // removing the last child doesn't shift the others
+    for(int i = shape.getChildCount() - 1; i >= 0; i--){
+      shape.removeChild(i);
+    }
+    for(int i = dwbody.children.size() - 1; i >= 0; i--){
+      DwFixture dwfixture = dwbody.children.get(i);
+      if(!recycle(dwfixture)){
+        dwfixture.detach();
+      }
+    }
+  }
+
+  /**
+   * called by {@link DwFixture#release()}, after its shape was removed from
+   * the parent shape.
+   * 
+   * @return false, if the fixture is not pooled
+   */
+  protected boolean recycle(DwFixture dwfixture){
+    if(dwfixture.shape == null || dwfixture.shape_custom || fixtures_num >= max_fixtures){
+      return false;
+    }
+    if(key.set(dwfixture.fixture.getShape()) == null){
+      return false;
+    }
+    ArrayList<DwFixture> list = fixtures.get(key);
+    if(list == null){
+      list = new ArrayList<DwFixture>();
+      fixtures.put(key.copy(), list);
+    }
+
+    // unlink, but keep the shape
+    dwfixture.fixture.setUserData(null);
+    dwfixture.fixture = null;
+    dwfixture.parent = null;
+    dwfixture.m_userData = null;
+    dwfixture.slot = -1;
+
+    list.add(dwfixture);
+    fixtures_num++;
+    return true;
+  }
+
+  /**
+   * called by {@link DwJoint#release(boolean)}, after the joint was removed
+   * from the group.
+   * 
+   * @return false, if the joint is not pooled
+   */
+  protected boolean recycle(DwJoint dwjoint, boolean deferred){
+    if(dwjoint.shape == null || dwjoint.shape_custom){
+      return false;
+    }
+    int count = joints.size() + joints_pulley.size() + joints_pending.size();
+    if(count >= max_joints){
+      return false;
+    }
+    dwjoint.m_userData = null;
+    if(deferred){
+      joints_pending.add(dwjoint);
+    } else if(dwjoint.joint.getType() == JointType.PULLEY){
+      joints_pulley.add(dwjoint);
+    } else {
+      joints.add(dwjoint);
+    }
+    return true;
+  }
+
+
+  /**
+   * makes the deferred released instances available, called by
+   * {@link DwBodyGroup#removeDeferredShapes()}.
+   */
+  protected void flush(){
+    bodies.addAll(bodies_pending);
+    bodies_pending.clear();
+
+    for(DwJoint dwjoint : joints_pending){
+      // type of the shape, the joint is already unlinked
+      if(dwjoint.shape.getChildCount() > 0){
+        joints_pulley.add(dwjoint);
+      } else {
+        joints.add(dwjoint);
+      }
+    }
+    joints_pending.clear();
+  }
+
+
+
+  /**
+   * @return number of pooled bodies, fixtures, joints
+   */
+  public int getPooledBodies(){
+    return bodies.size() + bodies_pending.size();
+  }
+
+  public int getPooledFixtures(){
+    return fixtures_num;
+  }
+
+  public int getPooledJoints(){
+    return joints.size() + joints_pulley.size() + joints_pending.size();
+  }
+
+  public void resetStats(){
+    stat_bodies_created   = 0;
+    stat_bodies_reused    = 0;
+    stat_fixtures_created = 0;
+    stat_fixtures_reused  = 0;
+    stat_joints_created   = 0;
+    stat_joints_reused    = 0;
+  }
+
+  /**
+   * drops all pooled instances.
+   */
+  public void clear(){
+    bodies.clear();
+    bodies_pending.clear();
+    fixtures.clear();
+    fixtures_num = 0;
+    joints.clear();
+    joints_pulley.clear();
+    joints_pending.clear();
+  }
+
+
+  /**
+   * one line per type: pooled, created, reused
+   */
+  public void toDebugStrings(List<String> lines){
+    lines.add(String.format(Locale.ENGLISH, "%-10s %7s %7s %7s", "[pool]", "pooled", "created", "reused"));
+    lines.add(String.format(Locale.ENGLISH, "%-10s %7d %7d %7d", "bodies"  , getPooledBodies()  , stat_bodies_created  , stat_bodies_reused  ));
+    lines.add(String.format(Locale.ENGLISH, "%-10s %7d %7d %7d", "fixtures", getPooledFixtures(), stat_fixtures_created, stat_fixtures_reused));
+    lines.add(String.format(Locale.ENGLISH, "%-10s %7d %7d %7d", "joints"  , getPooledJoints()  , stat_joints_created  , stat_joints_reused  ));
+  }
+
+}
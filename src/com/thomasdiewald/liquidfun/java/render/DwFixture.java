@@ -19,6 +19,7 @@ import org.jbox2d.collision.shapes.ChainShape;
 import org.jbox2d.collision.shapes.CircleShape;
 import org.jbox2d.collision.shapes.EdgeShape;
 import org.jbox2d.collision.shapes.PolygonShape;
+import org.jbox2d.collision.shapes.Shape;
 import org.jbox2d.collision.shapes.ShapeType;
 import org.jbox2d.common.Vec2;
 import org.jbox2d.dynamics.Fixture;
@@ -46,6 +47,18 @@ public class DwFixture {
   // use m_userData here, instead of fixture.m_userData
   public Object m_userData = null;
   
+  // index in parent.children
+  protected int slot = -1;
+  
+  // true, if the shape was replaced, and doesn't match the fixture geometry
+  protected boolean shape_custom = false;
+  
+  // true, if the shape is shared with other fixtures, see DwShapeCache
+  protected boolean shape_shared = false;
+  
+  // last style set for this fixture, if null the style of the parent body is used
+  public ShapeStyle style = null;
+  
   public DwFixture(DwBody parent, Fixture fixture){
     this.parent = parent;
     this.fixture = fixture;
@@ -53,17 +66,53 @@ public class DwFixture {
     createShape();
   }
   
+  /**
+   * links this, and its existing shape, to the given fixture. Used to reuse
+   * a pooled instance, see {@link DwBodyPool}.
+   */
+  protected void attach(DwBody parent, Fixture fixture){
+    this.parent = parent;
+    this.fixture = fixture;
+    this.m_userData = null;
+    this.style = null;
+    
+    if(!shape_shared){
+      parent.shape.addChild(shape);
+    }
+    fixture.setUserData(this);
+  }
+  
 
   protected void createShape(){
     
-    PApplet papplet = parent.parent.papplet;
+    DwShapeCache shape_cache = parent.parent.shape_cache;
+    if(shape_cache != null){
+      shape = shape_cache.get(fixture.getShape());
+      shape_shared = (shape != null);
+    } else {
+      shape = createShape(parent.parent.papplet, fixture.getShape());
+    }
 
-    shape = null;
+    if(shape != null){
+      if(!shape_shared){
+        parent.shape.addChild(shape);
+      }
+      fixture.setUserData(this);
+    }
+  }
+  
+  
+  /**
+   * @return a new PShape for the given fixture geometry, in body space.
+   */
+  static public PShape createShape(PApplet papplet, Shape geometry){
+
+    PShape shape = null;
     
-    final ShapeType type = fixture.getType();
+    final ShapeType type = geometry.getType();
     
     if(ShapeType.POLYGON == type){
-      PolygonShape shp_polygon = (PolygonShape) fixture.getShape();
+      PolygonShape shp_polygon = (PolygonShape) geometry;
       Vec2[] verts = shp_polygon.m_vertices;
       shape = papplet.createShape();
       shape.beginShape();
@@ -73,13 +122,13 @@ public class DwFixture {
       shape.endShape(PConstants.CLOSE);
     } 
     else if(ShapeType.CIRCLE == type){
-      CircleShape shp_circle = (CircleShape) fixture.getShape();
+      CircleShape shp_circle = (CircleShape) geometry;
       float radius = shp_circle.m_radius;
       Vec2 vert = shp_circle.m_p;
       shape = papplet.createShape(PConstants.ELLIPSE, vert.x, vert.y, radius*2, radius*2);
     } 
     else if(ShapeType.CHAIN == type){
-      ChainShape shp_chain = (ChainShape) fixture.getShape();
+      ChainShape shp_chain = (ChainShape) geometry;
       Vec2[] verts = shp_chain.m_vertices;
       shape = papplet.createShape();
       shape.beginShape();
@@ -90,7 +139,7 @@ public class DwFixture {
       shape.endShape(PConstants.CLOSE);
     } 
     else if(ShapeType.EDGE == type){
-      EdgeShape shp_edge = (EdgeShape) fixture.getShape();
+      EdgeShape shp_edge = (EdgeShape) geometry;
       Vec2 vert1 = shp_edge.m_vertex1;
       Vec2 vert2 = shp_edge.m_vertex2;
       shape = papplet.createShape(PConstants.LINE, vert1.x, vert1.y, vert2.x, vert2.y);
@@ -99,11 +148,15 @@ public class DwFixture {
       System.out.println("Error: unknown shapetype");
     }
 
+    return shape;
+  }
   
-    if(shape != null){
-      parent.shape.addChild(shape);
-      fixture.setUserData(this);
-    }
+  
+  /**
+   * @return true, if the shape is shared with other fixtures.
+   */
+  public boolean isShared(){
+    return shape_shared;
   }
   
   
@@ -114,17 +167,34 @@ public class DwFixture {
     }
     shape = shape_new;
     parent.shape.addChild(shape);
+    shape_custom = true;
+    shape_shared = false;
   }
   
   
   public void release(){
     // remove PShape from parent shape-children
-    int idx = parent.shape.getChildIndex(shape);
-    parent.shape.removeChild(idx);
+    if(!shape_shared){
+      int idx = parent.shape.getChildIndex(shape);
+      if(idx != -1){
+        parent.shape.removeChild(idx);
+      }
+    }
     
     // remove this from parent-children
-    parent.children.remove(this);
+    parent.removeChild(this);
     
+    DwBodyPool pool = parent.parent.pool;
+    if(pool == null || !pool.recycle(this)){
+      detach();
+    }
+  }
+  
+  /**
+   * unlinks this from the fixture, without touching the parents shape or 
+   * children. Used when the parent body is released as a whole.
+   */
+  protected void detach(){
     shape = null;
     parent = null;
     fixture.setUserData(null);
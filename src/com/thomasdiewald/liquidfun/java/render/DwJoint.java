@@ -15,6 +15,7 @@
 
 package com.thomasdiewald.liquidfun.java.render;
 
+import org.jbox2d.common.Vec2;
 import org.jbox2d.dynamics.joints.Joint;
 import org.jbox2d.dynamics.joints.JointType;
 
@@ -41,11 +42,22 @@ public class DwJoint{
   // use m_userData here, instead of joint.m_userData
   public Object m_userData = null;
   
+  // index in parent.childrenJ
+  protected int slot = -1;
+  
+  // anchors, last applied to the shape: [ax, ay, bx, by]
+  public final float[] anchors_shape = new float[4];
+  public boolean anchors_shape_valid = false;
+  
+
+  // true, if the shape was replaced by a custom shape
+  protected boolean shape_custom = false;
+
+  // last style set for this joint, see DwWorld.setStyle(Joint, ...)
+  public ShapeStyle style = null;
+  
 
   public DwJoint(DwBodyGroup parent, Joint joint){
-    this.parent = parent;
-    this.joint = joint;
-    
     JointType type = joint.getType();
 
     // create PShape
@@ -71,7 +83,20 @@ public class DwJoint{
       shape = parent.papplet.createShape(PConstants.LINE, 0, 0, 1, 0);
     }
     
-    
+    attach(parent, joint);
+  }
+  
+  
+  /**
+   * links this, and its existing shape, to the given joint. Also used to reuse
+   * a pooled instance, see {@link DwBodyPool}.
+   */
+  protected void attach(DwBodyGroup parent, Joint joint){
+    this.parent = parent;
+    this.joint = joint;
+    this.m_userData = null;
+    this.style = null;
+    this.anchors_shape_valid = false;
     
     // link PShapes
     parent.shape.addChild(shape);
@@ -87,16 +112,47 @@ public class DwJoint{
     }
     shape = shape_new;
     parent.shape.addChild(shape);
+    anchors_shape_valid = false;
+    shape_custom = true;
+  }
+  
+  
+  /**
+   * @return true, if the given anchors differ from the ones last applied to the shape.
+   */
+  public boolean setAnchors(Vec2 ancA, Vec2 ancB, boolean force){
+    if(!force && anchors_shape_valid &&
+        ancA.x == anchors_shape[0] && ancA.y == anchors_shape[1] &&
+        ancB.x == anchors_shape[2] && ancB.y == anchors_shape[3])
+    {
+      return false;
+    }
+    anchors_shape[0] = ancA.x;
+    anchors_shape[1] = ancA.y;
+    anchors_shape[2] = ancB.x;
+    anchors_shape[3] = ancB.y;
+    anchors_shape_valid = true;
+    return true;
   }
   
 
   public void release(){
-    int idx = parent.shape.getChildIndex(shape);
-    parent.shape.removeChild(idx);
-    
-    parent.childrenJ.remove(this);
+    release(false);
+  }
+  
+  /**
+   * 
+   * @param deferred if true, the shape is not removed from the parent PShape
+   * immediately, but in one batch by {@link DwBodyGroup#removeDeferredShapes()}.
+   */
+  public void release(boolean deferred){
+    parent.removeChild(this, deferred);
     
-    shape = null;
+    // pooled instances keep their shape
+    DwBodyPool pool = parent.pool;
+    if(pool == null || !pool.recycle(this, deferred)){
+      shape = null;
+    }
     parent = null;
     joint.setUserData(null);
     joint = null;
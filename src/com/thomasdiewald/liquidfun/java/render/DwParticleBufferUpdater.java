@@ -0,0 +1,283 @@
+/**
+ * 
+ * LiquidFunProcessing | Copyright 2017 Thomas Diewald - www.thomasdiewald.com
+ * 
+ * https://github.com/diwi/LiquidFunProcessing.git
+ * 
+ * Box2d / LiquidFun Library for Processing.
+ * MIT License: https://opensource.org/licenses/MIT
+ * 
+ */
+
+
+package com.thomasdiewald.liquidfun.java.render;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+import org.jbox2d.common.Vec2;
+import org.jbox2d.dynamics.World;
+import org.jbox2d.particle.ParticleColor;
+import org.jbox2d.particle.ParticleContact;
+
+import com.thomasdiewald.liquidfun.java.DwUtils;
+
+
+/**
+ * 
+ * Chunked fork-join version of {@link DwParticleRender#updateBuffers()}.<br>
+ * <br>
+ * The particles are split into chunks, each chunk is owned by one task.
+ * The contacts are split into the same number of chunks, and then stably
+ * sorted into buckets, one per particle-chunk. This way each task accumulates
+ * the contacts of its own particles only (no contention), and in the same order
+ * as the serial version, so the result is bit-identical.<br>
+ * <br>
+ * All buffers and tasks are reused, so there are no per-frame allocations
+ * once the buffers reached their size.<br>
+ * 
+ * @author Thomas Diewald
+ * 
+ */
+public class DwParticleBufferUpdater {
+
+  // below this number of particles per chunk, the serial version is used
+  public int chunk_min = 4096;
+
+  public ForkJoinPool pool;
+
+  // current update
+  protected DwParticleRender render;
+  protected float lerp_dt;
+  protected int particle_num;
+  protected int contact_num;
+  protected Vec2[]            particle_pos;
+  protected Vec2[]            particle_vel;
+  protected ParticleColor[]   particle_col;
+  protected ParticleContact[] particle_con;
+
+  // chunks
+  protected int chunk_num = 0;
+  protected int chunk_particles = 0;
+  protected int chunk_contacts = 0;
+  protected Chunk[] chunks = new Chunk[0];
+  protected final Phase root = new Phase();
+
+  // contact buckets: [contact-chunk][particle-chunk]
+  protected int[]   bucket_count  = new int[0];
+  protected int[]   bucket_begin  = new int[0];
+  protected int[]   bucket_idx    = new int[0];
+  protected float[] bucket_weight = new float[0];
+
+  static protected final int PHASE_COUNT   = 0;
+  static protected final int PHASE_SCATTER = 1;
+  static protected final int PHASE_FILL    = 2;
+
+
+  public DwParticleBufferUpdater(){
+    this(ForkJoinPool.commonPool());
+  }
+
+  public DwParticleBufferUpdater(ForkJoinPool pool){
+    this.pool = pool;
+  }
+
+
+  /**
+   * fills the render buffers (buf_pos, buf_vel, buf_col, buf_con) of the
+   * given renderer, which must be resized already.
+   */
+  public void updateBuffers(DwParticleRender render, World world, float lerp_dt){
+
+    int num = render.particle_num;
+    int threads = Math.max(1, pool.getParallelism());
+    int num_chunks = Math.min(threads, num / Math.max(1, chunk_min));
+
+    if(num_chunks < 2){
+      DwParticleRender.copyParticleData(world, num, lerp_dt, render.buf_pos, render.buf_vel, render.buf_col, render.buf_con);
+      render.updateColors(0, num);
+      return;
+    }
+
+    this.render       = render;
+    this.lerp_dt      = lerp_dt;
+    this.particle_num = num;
+    this.particle_pos = world.getParticlePositionBuffer();
+    this.particle_vel = world.getParticleVelocityBuffer();
+    this.particle_col = world.getParticleColorBuffer();
+    this.particle_con = world.getParticleContacts();
+    this.contact_num  = world.getParticleContactCount();
+
+    resizeChunks(num_chunks);
+
+    chunk_particles = (particle_num + chunk_num - 1) / chunk_num;
+    chunk_contacts  = (contact_num  + chunk_num - 1) / chunk_num;
+
+    bucket_idx    = DwUtils.resizeBuffer(bucket_idx   , contact_num * 2);
+    bucket_weight = DwUtils.resizeBuffer(bucket_weight, contact_num * 2);
+
+    // 1) count contacts per bucket
+    invoke(PHASE_COUNT);
+
+    // 2) bucket offsets, ordered by particle-chunk, then contact-chunk
+    int C = chunk_num;
+    int sum = 0;
+    for(int c = 0; c < C; c++){
+      bucket_begin[c] = sum;
+      for(int w = 0; w < C; w++){
+        int count = bucket_count[w * C + c];
+        bucket_count[w * C + c] = sum;
+        sum += count;
+      }
+    }
+    bucket_begin[C] = sum;
+
+    // 3) stable scatter of the contacts into the buckets
+    invoke(PHASE_SCATTER);
+
+    // 4) accumulate contacts, copy position, velocity, color per particle-chunk
+    invoke(PHASE_FILL);
+
+    // release references
+    this.render       = null;
+    this.particle_pos = null;
+    this.particle_vel = null;
+    this.particle_col = null;
+    this.particle_con = null;
+  }
+
+
+  protected void resizeChunks(int num_chunks){
+    if(chunk_num != num_chunks){
+      chunk_num = num_chunks;
+      chunks = new Chunk[chunk_num];
+      for(int i = 0; i < chunk_num; i++){
+        chunks[i] = new Chunk(i);
+      }
+      bucket_count = new int[chunk_num * chunk_num];
+      bucket_begin = new int[chunk_num + 1];
+    }
+  }
+
+
+  protected void invoke(int phase){
+    for(int i = 0; i < chunk_num; i++){
+      chunks[i].reinitialize();
+      chunks[i].phase = phase;
+    }
+    root.reinitialize();
+    pool.invoke(root);
+  }
+
+
+
+  protected class Phase extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    protected void compute() {
+      ForkJoinTask.invokeAll(chunks);
+    }
+  }
+
+
+
+  protected class Chunk extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    final int id;
+    int phase;
+
+    Chunk(int id){
+      this.id = id;
+    }
+
+    @Override
+    protected void compute() {
+      switch(phase){
+        case PHASE_COUNT  : countContacts  (); break;
+        case PHASE_SCATTER: scatterContacts(); break;
+        case PHASE_FILL   : fillBuffers    (); break;
+      }
+    }
+
+
+    void countContacts(){
+      final int row = id * chunk_num;
+      for(int c = 0; c < chunk_num; c++){
+        bucket_count[row + c] = 0;
+      }
+
+      int lo = Math.min(id * chunk_contacts, contact_num);
+      int hi = Math.min(lo + chunk_contacts, contact_num);
+      for(int i = lo; i < hi; i++){
+        ParticleContact con = particle_con[i];
+        bucket_count[row + con.indexA / chunk_particles]++;
+        bucket_count[row + con.indexB / chunk_particles]++;
+      }
+    }
+
+
+    void scatterContacts(){
+      final int row = id * chunk_num;
+
+      int lo = Math.min(id * chunk_contacts, contact_num);
+      int hi = Math.min(lo + chunk_contacts, contact_num);
+      for(int i = lo; i < hi; i++){
+        ParticleContact con = particle_con[i];
+        int ia = bucket_count[row + con.indexA / chunk_particles]++;
+        bucket_idx   [ia] = con.indexA;
+        bucket_weight[ia] = con.weight;
+        int ib = bucket_count[row + con.indexB / chunk_particles]++;
+        bucket_idx   [ib] = con.indexB;
+        bucket_weight[ib] = con.weight;
+      }
+    }
+
+
+    void fillBuffers(){
+      final float[] buf_pos = render.buf_pos;
+      final float[] buf_vel = render.buf_vel;
+      final byte [] buf_col = render.buf_col;
+      final float[] buf_con = render.buf_con;
+
+      int lo = Math.min(id * chunk_particles, particle_num);
+      int hi = Math.min(lo + chunk_particles, particle_num);
+
+      // contacts, reset
+      for(int i = lo * 2; i < hi * 2; i++){
+        buf_con[i] = 0;
+      }
+
+      // contacts, same order as the serial version
+      for(int e = bucket_begin[id], end = bucket_begin[id+1]; e < end; e++){
+        int icon = bucket_idx[e] * 2;
+        buf_con[icon+0] += bucket_weight[e];
+        buf_con[icon+1] += 1;
+      }
+
+      // position, velocity, colors
+      for(int i = lo, ipos = lo * 2, ivel = lo * 2, icol = lo * 4; i < hi; i++){
+        Vec2 pos = particle_pos[i];
+        Vec2 vel = particle_vel[i];
+        // position
+        buf_pos[ipos++] = pos.x - vel.x * lerp_dt;
+        buf_pos[ipos++] = pos.y - vel.y * lerp_dt;
+        // velocity
+        buf_vel[ivel++] = vel.x;
+        buf_vel[ivel++] = vel.y;
+        // color
+        ParticleColor col = particle_col[i];
+        buf_col[icol++] = col.r;
+        buf_col[icol++] = col.g;
+        buf_col[icol++] = col.b;
+        buf_col[icol++] = col.a;
+      }
+
+      render.updateColors(lo, hi);
+    }
+
+  }
+
+}
@@ -0,0 +1,600 @@
+/**
+ * 
+ * LiquidFunProcessing | Copyright 2017 Thomas Diewald - www.thomasdiewald.com
+ * 
+ * https://github.com/diwi/LiquidFunProcessing.git
+ * 
+ * Box2d / LiquidFun Library for Processing.
+ * MIT License: https://opensource.org/licenses/MIT
+ * 
+ */
+
+
+package com.thomasdiewald.liquidfun.java.render;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+import org.jbox2d.common.Vec2;
+import org.jbox2d.dynamics.World;
+
+import com.thomasdiewald.liquidfun.java.DwUtils;
+
+import processing.core.PImage;
+
+
+/**
+ * 
+ * CPU density-field, particles splatted into a 2D grid in world space.<br>
+ * <br>
+ * Each particle adds a normalized tent-kernel (radius: particle radius, but at
+ * least one cell) to the density channel, and optionally its weighted velocity
+ * and color. So the density is in particles per cell, and velocity/color are
+ * averaged by dividing through the density, see {@link #getVelocity}.<br>
+ * <br>
+ * The grid is split into bands of rows, each band is splatted by one fork-join
+ * task, so there is no contention, and the result doesn't depend on the number
+ * of threads.<br>
+ * <br>
+ * Incremental update: the splatted particle data is stored, and only particles
+ * that moved (or changed velocity/color) are removed and splatted again. A full
+ * rebuild is done, if the particle count, the radius or the grid changes, and
+ * every {@link #rebuild_interval} updates to discard the accumulated rounding
+ * errors.<br>
+ * <br>
+ * Usage, e.g. for headless analytics: fill levels ({@link #getMass}), flow rates
+ * ({@link #getFlowRateX}), or software rendering ({@link #toImage}).<br>
+ * 
+ * @author Thomas Diewald
+ * 
+ */
+public class DwParticleDensityField {
+
+  // grid, world space
+  public float grid_x0 = 0;
+  public float grid_y0 = 0;
+  public float cell_size = 1;
+  public int   grid_w = 0;
+  public int   grid_h = 0;
+
+  // channels: [grid_h][grid_w], row-major
+  public float[] density = new float[0];
+  public float[] vel     = new float[0]; // [vx, vy] * weight, null if disabled
+  public float[] col     = new float[0]; // [r, g, b, a] * weight, null if disabled
+
+  // optional channels
+  protected boolean use_velocity = true;
+  protected boolean use_color    = false;
+
+  // kernel radius = max(1 cell, particle radius * kernel_scale)
+  public float kernel_scale = 1f;
+
+  // incremental update
+  public boolean incremental = true;
+  public int rebuild_interval = 60;
+  public float move_epsilon = 0.01f; // in cells
+  public float vel_epsilon  = 0.01f; // world units per second
+
+  // below this number of rows per band, the serial version is used
+  public int band_min = 16;
+
+  public ForkJoinPool pool;
+
+  // stats, last update
+  public int stat_splats = 0;
+  public boolean stat_rebuild = false;
+
+  // particle data of the last splat, per particle
+  protected int     splat_num = 0;
+  protected float   splat_rad = 0;
+  protected float[] splat_pos = new float[0];
+  protected float[] splat_vel = new float[0];
+  protected byte [] splat_col = new byte [0];
+  protected boolean valid = false;
+  protected int updates_since_rebuild = 0;
+
+  // current update
+  protected int     particle_num;
+  protected float[] particle_pos;
+  protected float[] particle_vel;
+  protected byte [] particle_col;
+  protected int[]   changed = new int[0];
+  protected int     changed_len = 0;
+  protected boolean rebuild;
+  protected float   kernel_rad; // in cells
+
+  // bands
+  protected Band[] bands = new Band[0];
+  protected final Phase root = new Phase();
+
+  // buffers, for update(World)
+  protected float[] buf_pos = new float[0];
+  protected float[] buf_vel = new float[0];
+  protected byte [] buf_col = new byte [0];
+  protected float[] buf_con = new float[0];
+
+
+  public DwParticleDensityField(){
+    this(ForkJoinPool.commonPool());
+  }
+
+  public DwParticleDensityField(ForkJoinPool pool){
+    this.pool = pool;
+  }
+
+
+
+  //////////////////////////////////////////////////////////////////////////////
+  // Setup
+  //////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * sets the world-space area [x0, x1] x [y0, y1] of the grid.
+   */
+  public DwParticleDensityField setGrid(float x0, float y0, float x1, float y1, float cell_size){
+    this.grid_x0   = Math.min(x0, x1);
+    this.grid_y0   = Math.min(y0, y1);
+    this.cell_size = Math.max(cell_size, 1e-6f);
+    this.grid_w    = Math.max(1, (int) Math.ceil(Math.abs(x1 - x0) / this.cell_size));
+    this.grid_h    = Math.max(1, (int) Math.ceil(Math.abs(y1 - y0) / this.cell_size));
+    resizeChannels();
+    return this;
+  }
+
+  /**
+   * enables/disables the optional velocity and color channels.
+   */
+  public DwParticleDensityField setChannels(boolean velocity, boolean color){
+    use_velocity = velocity;
+    use_color = color;
+    resizeChannels();
+    return this;
+  }
+
+  protected void resizeChannels(){
+    int cells = grid_w * grid_h;
+    if(density.length != cells){
+      density = new float[cells];
+    }
+    vel = use_velocity ? (vel != null && vel.length == cells * 2 ? vel : new float[cells * 2]) : null;
+    col = use_color    ? (col != null && col.length == cells * 4 ? col : new float[cells * 4]) : null;
+    invalidate();
+  }
+
+  /**
+   * the next update rebuilds the whole field.
+   */
+  public void invalidate(){
+    valid = false;
+  }
+
+
+
+  //////////////////////////////////////////////////////////////////////////////
+  // Update
+  //////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * splats the particles of the given world.
+   */
+  public void update(World world){
+    int num = world.getParticleCount();
+    buf_pos = DwUtils.resizeBuffer(buf_pos, num * 2);
+    buf_vel = DwUtils.resizeBuffer(buf_vel, num * 2);
+    buf_col = DwUtils.resizeBuffer(buf_col, num * 4);
+    buf_con = DwUtils.resizeBuffer(buf_con, num * 2);
+    DwParticleRender.copyParticleData(world, num, 0, buf_pos, buf_vel, buf_col, buf_con);
+    update(buf_pos, buf_vel, buf_col, num, world.getParticleRadius());
+  }
+
+  /**
+   * splats the particles of the render buffers.
+   */
+  public void update(DwParticleRender render){
+    update(render.buf_pos, render.buf_vel, render.buf_col, render.particle_num, render.particle_rad_world / render.param.radius_scale);
+  }
+
+  /**
+   * 
+   * @param pos particle positions [x, y]
+   * @param pvel particle velocities [x, y]
+   * @param pcol particle colors [r, g, b, a]
+   * @param num number of particles
+   * @param radius particle radius, world units
+   */
+  public void update(float[] pos, float[] pvel, byte[] pcol, int num, float radius){
+    if(grid_w * grid_h == 0){
+      System.out.println("Error - DwParticleDensityField.update: call setGrid(...) first");
+      return;
+    }
+
+    particle_num = num;
+    particle_pos = pos;
+    particle_vel = pvel;
+    particle_col = pcol;
+    kernel_rad = Math.max(1f, radius * kernel_scale / cell_size);
+
+    rebuild = !incremental || !valid || num != splat_num || radius != splat_rad ||
+              ++updates_since_rebuild >= rebuild_interval;
+
+    if(rebuild){
+      updates_since_rebuild = 0;
+      stat_splats = num;
+    } else {
+      collectChanged();
+      stat_splats = changed_len;
+    }
+    stat_rebuild = rebuild;
+
+    if(rebuild || changed_len > 0){
+      int num_bands = Math.min(Math.max(1, pool.getParallelism()), grid_h / Math.max(1, band_min));
+      resizeBands(Math.max(1, num_bands));
+      if(bands.length < 2){
+        bands[0].compute();
+      } else {
+        for(Band band : bands){
+          band.reinitialize();
+        }
+        root.reinitialize();
+        pool.invoke(root);
+      }
+    }
+
+    storeSplatData();
+
+    valid = true;
+    splat_num = num;
+    splat_rad = radius;
+
+    // release references
+    particle_pos = null;
+    particle_vel = null;
+    particle_col = null;
+  }
+
+
+  /**
+   * collects the indices of all particles that changed since the last splat.
+   */
+  protected void collectChanged(){
+    changed = DwUtils.resizeBuffer(changed, particle_num);
+    changed_len = 0;
+
+    float eps_pos = move_epsilon * cell_size;
+    for(int i = 0; i < particle_num; i++){
+      int ip = i * 2;
+      boolean moved =
+          Math.abs(particle_pos[ip+0] - splat_pos[ip+0]) > eps_pos ||
+          Math.abs(particle_pos[ip+1] - splat_pos[ip+1]) > eps_pos;
+      if(!moved && vel != null){
+        moved = Math.abs(particle_vel[ip+0] - splat_vel[ip+0]) > vel_epsilon ||
+                Math.abs(particle_vel[ip+1] - splat_vel[ip+1]) > vel_epsilon;
+      }
+      if(!moved && col != null){
+        int ic = i * 4;
+        moved = particle_col[ic+0] != splat_col[ic+0] || particle_col[ic+1] != splat_col[ic+1] ||
+                particle_col[ic+2] != splat_col[ic+2] || particle_col[ic+3] != splat_col[ic+3];
+      }
+      if(moved){
+        changed[changed_len++] = i;
+      }
+    }
+  }
+
+
+  protected void storeSplatData(){
+    if(rebuild){
+      splat_pos = DwUtils.resizeBuffer(splat_pos, particle_num * 2);
+      System.arraycopy(particle_pos, 0, splat_pos, 0, particle_num * 2);
+      if(vel != null){
+        splat_vel = DwUtils.resizeBuffer(splat_vel, particle_num * 2);
+        System.arraycopy(particle_vel, 0, splat_vel, 0, particle_num * 2);
+      }
+      if(col != null){
+        splat_col = DwUtils.resizeBuffer(splat_col, particle_num * 4);
+        System.arraycopy(particle_col, 0, splat_col, 0, particle_num * 4);
+      }
+    } else {
+      for(int k = 0; k < changed_len; k++){
+        int i = changed[k];
+        splat_pos[i*2+0] = particle_pos[i*2+0];
+        splat_pos[i*2+1] = particle_pos[i*2+1];
+        if(vel != null){
+          splat_vel[i*2+0] = particle_vel[i*2+0];
+          splat_vel[i*2+1] = particle_vel[i*2+1];
+        }
+        if(col != null){
+          System.arraycopy(particle_col, i*4, splat_col, i*4, 4);
+        }
+      }
+    }
+  }
+
+
+  protected void resizeBands(int num_bands){
+    if(bands.length != num_bands){
+      bands = new Band[num_bands];
+      for(int i = 0; i < num_bands; i++){
+        bands[i] = new Band();
+      }
+    }
+    int rows = (grid_h + num_bands - 1) / num_bands;
+    for(int i = 0; i < num_bands; i++){
+      bands[i].row_lo = Math.min(i * rows, grid_h);
+      bands[i].row_hi = Math.min(bands[i].row_lo + rows, grid_h);
+    }
+  }
+
+
+
+  protected class Phase extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    protected void compute() {
+      ForkJoinTask.invokeAll(bands);
+    }
+  }
+
+
+
+  /**
+   * splats all particles into the rows [row_lo, row_hi).
+   */
+  protected class Band extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    int row_lo, row_hi;
+
+    // kernel weights, per axis
+    float[] wx = new float[8];
+    float[] wy = new float[8];
+
+    @Override
+    protected void compute() {
+      if(rebuild){
+        clear();
+        for(int i = 0; i < particle_num; i++){
+          splat(particle_pos, particle_vel, particle_col, i, +1);
+        }
+      } else {
+        for(int k = 0; k < changed_len; k++){
+          int i = changed[k];
+          splat(splat_pos   , splat_vel   , splat_col   , i, -1);
+          splat(particle_pos, particle_vel, particle_col, i, +1);
+        }
+      }
+    }
+
+    void clear(){
+      int lo = row_lo * grid_w;
+      int hi = row_hi * grid_w;
+      Arrays.fill(density, lo, hi, 0);
+      if(vel != null) Arrays.fill(vel, lo * 2, hi * 2, 0);
+      if(col != null) Arrays.fill(col, lo * 4, hi * 4, 0);
+    }
+
+    void splat(float[] pos, float[] pvel, byte[] pcol, int i, float sign){
+      // position in cells, cell centers at +0.5
+      float px = (pos[i*2+0] - grid_x0) / cell_size - 0.5f;
+      float py = (pos[i*2+1] - grid_y0) / cell_size - 0.5f;
+      float r = kernel_rad;
+
+      int y0 = (int) Math.ceil (py - r);
+      int y1 = (int) Math.floor(py + r);
+      if(y1 < row_lo || y0 >= row_hi){
+        return; // not in this band
+      }
+      int x0 = (int) Math.ceil (px - r);
+      int x1 = (int) Math.floor(px + r);
+      if(x1 < 0 || x0 >= grid_w){
+        return;
+      }
+
+      int nx = x1 - x0 + 1;
+      int ny = y1 - y0 + 1;
+      if(wx.length < nx) wx = new float[nx];
+      if(wy.length < ny) wy = new float[ny];
+
+      // normalized tent weights, so each particle adds 1 in total
+      float sx = 0, sy = 0;
+      for(int x = 0; x < nx; x++){ wx[x] = Math.max(0, 1 - Math.abs(x0 + x - px) / r); sx += wx[x]; }
+      for(int y = 0; y < ny; y++){ wy[y] = Math.max(0, 1 - Math.abs(y0 + y - py) / r); sy += wy[y]; }
+      if(sx <= 0 || sy <= 0){
+        return;
+      }
+      float norm = sign / (sx * sy);
+
+      float vx = 0, vy = 0;
+      if(vel != null){
+        vx = pvel[i*2+0];
+        vy = pvel[i*2+1];
+      }
+      float cr = 0, cg = 0, cb = 0, ca = 0;
+      if(col != null){
+        cr = pcol[i*4+0] & 0xFF;
+        cg = pcol[i*4+1] & 0xFF;
+        cb = pcol[i*4+2] & 0xFF;
+        ca = pcol[i*4+3] & 0xFF;
+      }
+
+      int ya = Math.max(y0, row_lo), yb = Math.min(y1, row_hi - 1);
+      int xa = Math.max(x0, 0)     , xb = Math.min(x1, grid_w - 1);
+      for(int y = ya; y <= yb; y++){
+        float wrow = wy[y - y0] * norm;
+        if(wrow == 0) continue;
+        for(int x = xa; x <= xb; x++){
+          float w = wx[x - x0] * wrow;
+          if(w == 0) continue;
+          int c = y * grid_w + x;
+          density[c] += w;
+          if(vel != null){
+            vel[c*2+0] += w * vx;
+            vel[c*2+1] += w * vy;
+          }
+          if(col != null){
+            col[c*4+0] += w * cr;
+            col[c*4+1] += w * cg;
+            col[c*4+2] += w * cb;
+            col[c*4+3] += w * ca;
+          }
+        }
+      }
+    }
+  }
+
+
+
+  //////////////////////////////////////////////////////////////////////////////
+  // Queries
+  //////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * @return density of the cell at the given world position, 0 if outside
+   */
+  public float getDensity(float x, float y){
+    int c = getCell(x, y);
+    return c == -1 ? 0 : density[c];
+  }
+
+  /**
+   * @return average velocity of the cell at the given world position
+   */
+  public Vec2 getVelocity(float x, float y, Vec2 out){
+    if(out == null) out = new Vec2();
+    out.setZero();
+    int c = getCell(x, y);
+    if(c != -1 && vel != null && density[c] > 0){
+      out.set(vel[c*2+0] / density[c], vel[c*2+1] / density[c]);
+    }
+    return out;
+  }
+
+  /**
+   * @return average color (ARGB) of the cell at the given world position
+   */
+  public int getColor(float x, float y){
+    int c = getCell(x, y);
+    if(c == -1 || col == null || density[c] <= 0){
+      return 0;
+    }
+    return getColor(c);
+  }
+
+  protected int getColor(int c){
+    float d = 1f / density[c];
+    int r = Math.min(255, Math.round(col[c*4+0] * d));
+    int g = Math.min(255, Math.round(col[c*4+1] * d));
+    int b = Math.min(255, Math.round(col[c*4+2] * d));
+    int a = Math.min(255, Math.round(col[c*4+3] * d));
+    return a << 24 | r << 16 | g << 8 | b;
+  }
+
+  /**
+   * @return cell index of the given world position, or -1 if outside the grid
+   */
+  public int getCell(float x, float y){
+    int cx = (int) Math.floor((x - grid_x0) / cell_size);
+    int cy = (int) Math.floor((y - grid_y0) / cell_size);
+    if(cx < 0 || cy < 0 || cx >= grid_w || cy >= grid_h){
+      return -1;
+    }
+    return cy * grid_w + cx;
+  }
+
+
+  /**
+   * @return number of particles (sum of the density) in the given world-space
+   * area, e.g. the fill level of a container.
+   */
+  public float getMass(float x0, float y0, float x1, float y1){
+    int cx0 = Math.max(0     , (int) Math.floor((Math.min(x0, x1) - grid_x0) / cell_size));
+    int cy0 = Math.max(0     , (int) Math.floor((Math.min(y0, y1) - grid_y0) / cell_size));
+    int cx1 = Math.min(grid_w, (int) Math.ceil ((Math.max(x0, x1) - grid_x0) / cell_size));
+    int cy1 = Math.min(grid_h, (int) Math.ceil ((Math.max(y0, y1) - grid_y0) / cell_size));
+    float sum = 0;
+    for(int y = cy0; y < cy1; y++){
+      for(int x = cx0, c = y * grid_w + cx0; x < cx1; x++, c++){
+        sum += density[c];
+      }
+    }
+    return sum;
+  }
+
+
+  /**
+   * @return particles per second, crossing the vertical line at x, between
+   * y0 and y1, in positive x-direction (negative: in negative x-direction).
+   * Requires the velocity channel.
+   */
+  public float getFlowRateX(float x, float y0, float y1){
+    if(vel == null) return 0;
+    int cx  = (int) Math.floor((x - grid_x0) / cell_size);
+    if(cx < 0 || cx >= grid_w) return 0;
+    int cy0 = Math.max(0     , (int) Math.floor((Math.min(y0, y1) - grid_y0) / cell_size));
+    int cy1 = Math.min(grid_h, (int) Math.ceil ((Math.max(y0, y1) - grid_y0) / cell_size));
+    float sum = 0;
+    for(int y = cy0; y < cy1; y++){
+      sum += vel[(y * grid_w + cx) * 2 + 0];
+    }
+    return sum / cell_size;
+  }
+
+  /**
+   * @return particles per second, crossing the horizontal line at y, between
+   * x0 and x1, in positive y-direction (negative: in negative y-direction).
+   * Requires the velocity channel.
+   */
+  public float getFlowRateY(float y, float x0, float x1){
+    if(vel == null) return 0;
+    int cy  = (int) Math.floor((y - grid_y0) / cell_size);
+    if(cy < 0 || cy >= grid_h) return 0;
+    int cx0 = Math.max(0     , (int) Math.floor((Math.min(x0, x1) - grid_x0) / cell_size));
+    int cx1 = Math.min(grid_w, (int) Math.ceil ((Math.max(x0, x1) - grid_x0) / cell_size));
+    float sum = 0;
+    for(int x = cx0; x < cx1; x++){
+      sum += vel[(cy * grid_w + x) * 2 + 1];
+    }
+    return sum / cell_size;
+  }
+
+
+
+  //////////////////////////////////////////////////////////////////////////////
+  // Software Rendering
+  //////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * 
+   * Writes the field into the pixels of the given image, which is resized to
+   * grid_w x grid_h. Rows are flipped, so +y is up.<br>
+   * Alpha: density / density_max, RGB: average color (or white, if the color
+   * channel is disabled).<br>
+   * 
+   */
+  public PImage toImage(PImage img, float density_max){
+    if(img == null || img.width != grid_w || img.height != grid_h){
+      img = new PImage(grid_w, grid_h, PImage.ARGB);
+    }
+    img.loadPixels();
+    float scale = 255f / Math.max(density_max, 1e-6f);
+    for(int y = 0; y < grid_h; y++){
+      int row = (grid_h - 1 - y) * grid_w;
+      for(int x = 0; x < grid_w; x++){
+        int c = y * grid_w + x;
+        float d = density[c];
+        int a = Math.min(255, Math.max(0, Math.round(d * scale)));
+        int rgb = 0x00FFFFFF;
+        if(col != null && d > 0){
+          rgb = getColor(c) & 0x00FFFFFF;
+        }
+        img.pixels[row + x] = a << 24 | rgb;
+      }
+    }
+    img.updatePixels();
+    return img;
+  }
+
+}
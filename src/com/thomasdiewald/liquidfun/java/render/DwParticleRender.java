@@ -14,14 +14,17 @@ package com.thomasdiewald.liquidfun.java.render;
 
 import java.util.Arrays;
 
+import org.jbox2d.collision.AABB;
 import org.jbox2d.common.Vec2;
 import org.jbox2d.dynamics.World;
 import org.jbox2d.particle.ParticleColor;
 import org.jbox2d.particle.ParticleContact;
 import org.jbox2d.particle.ParticleGroup;
 
+import com.thomasdiewald.liquidfun.java.DwParticleFreezer;
 import com.thomasdiewald.liquidfun.java.DwUtils;
 import com.thomasdiewald.liquidfun.java.DwViewportTransform;
+import com.thomasdiewald.liquidfun.java.DwWorldSnapshot;
 
 import processing.core.PApplet;
 import processing.core.PImage;
@@ -75,6 +78,24 @@ public abstract class DwParticleRender{
   public int   buf_idx_len = 0;
   public int[] buf_idx = new int[0];
   
+  // true, if buf_idx changed since the last VBO update
+  public boolean buf_idx_changed = true;
+  
+  // render interpolation: positions are moved back along the velocity by this time
+  public float interpolation_dt = 0f;
+  
+  // multithreaded buffer update, null for single-threaded
+  protected DwParticleBufferUpdater buffer_updater = null;
+  
+  // incremental render-group update, null for a full rebuild each frame
+  protected DwParticleRenderGroupCache group_cache = null;
+  
+  // CPU density-field, null if disabled
+  protected DwParticleDensityField density_field = null;
+  
+  // frozen particle groups, their render data is kept, null if disabled
+  public DwParticleFreezer freezer = null;
+  
   
   public DwParticleRender(PApplet papplet, World world, DwViewportTransform transform){
     this.papplet = papplet;
@@ -85,15 +106,85 @@ public abstract class DwParticleRender{
 
   public void updateBuffers(){
     // particle data
-                      particle_num        = world.getParticleCount();
-                      particle_rad_world  = world.getParticleRadius();
-    Vec2[]            particle_pos        = world.getParticlePositionBuffer();
-    Vec2[]            particle_vel        = world.getParticleVelocityBuffer();
-    ParticleColor[]   particle_col        = world.getParticleColorBuffer();
-    ParticleContact[] particle_con        = world.getParticleContacts();
-    int               particle_con_count  = world.getParticleContactCount();
+    particle_num       = world.getParticleCount();
+    particle_rad_world = world.getParticleRadius();
+    
+    float[] buf_pos_prev = buf_pos;
+    byte [] buf_col_prev = buf_col;
+    
+    resizeBuffers();
+    
+    // frozen groups, only if their render data survived the resize
+    int static_count = 0;
+    if(freezer != null && buf_pos == buf_pos_prev && buf_col == buf_col_prev){
+      static_count = freezer.updateStaticRanges();
+    }
+    
+    if(static_count > 0){
+      copyDynamicParticleData(freezer.static_ranges, static_count);
+    } else if(buffer_updater != null){
+      buffer_updater.updateBuffers(this, world, interpolation_dt);
+    } else {
+      // position, velocity, colors, contacts
+      copyParticleData(world, particle_num, interpolation_dt, buf_pos, buf_vel, buf_col, buf_con);
+      
+      // colors, based on velocity and contacts
+      updateColors(0, particle_num);
+    }
+    
+    if(freezer != null){
+      freezer.setRendered();
+    }
+    
+    // visible particles
+    updateVisibility();
+    
+    // merged sprites, for small particles
+    updateLOD();
+    
+    // CPU density-field
+    updateDensityField();
+
+    // sprite texture
+    createSprite();
+  }
+  
+  
+  /**
+   * Same as {@link #updateBuffers()}, but the particle data is taken from the 
+   * given snapshot instead of the world.
+   */
+  public void updateBuffers(DwWorldSnapshot snapshot){
+    // particle data
+    particle_num       = snapshot.particle_num;
+    particle_rad_world = snapshot.particle_rad;
+    
+    resizeBuffers();
+    
+    // position, velocity, colors, contacts
+    System.arraycopy(snapshot.particle_pos, 0, buf_pos, 0, buf_pos_len);
+    System.arraycopy(snapshot.particle_vel, 0, buf_vel, 0, buf_vel_len);
+    System.arraycopy(snapshot.particle_col, 0, buf_col, 0, buf_col_len);
+    System.arraycopy(snapshot.particle_con, 0, buf_con, 0, buf_con_len);
+    
+    // colors, based on velocity and contacts
+    updateColors(0, particle_num);
     
+    // visible particles
+    updateVisibility();
     
+    // merged sprites, for small particles
+    updateLOD();
+    
+    // CPU density-field
+    updateDensityField();
+    
+    // sprite texture
+    createSprite();
+  }
+  
+  
+  protected void resizeBuffers(){
     particle_rad_world *= param.radius_scale;
     particle_rad_screen = (float) Math.ceil(particle_rad_world * transform.screen_scale);
 
@@ -108,9 +199,42 @@ public abstract class DwParticleRender{
     buf_vel = DwUtils.resizeBuffer(buf_vel, buf_vel_len);
     buf_col = DwUtils.resizeBuffer(buf_col, buf_col_len);
     buf_con = DwUtils.resizeBuffer(buf_con, buf_con_len);
+  }
+  
+  
+  protected void createSprite(){
+    if(param.tex_sprite == null){
+      param.tex_sprite = DwUtils.createSprite(papplet, (int) particle_rad_screen * 4, param.falloff_exp1, param.falloff_exp2, param.falloff_mult);
+    }
+  }
+  
+  
+  /**
+   * 
+   * Copies the particle data of the world into flat buffers.<br>
+   * positions [x, y], velocities [x, y], colors [r, g, b, a], contacts [weight, count]<br>
+   * 
+   * @param lerp_dt positions are moved back along the velocity by this time.
+   */
+  static public void copyParticleData(World world, int particle_num, float lerp_dt, float[] buf_pos, float[] buf_vel, byte[] buf_col, float[] buf_con){
+    Vec2[]            particle_pos        = world.getParticlePositionBuffer();
+    Vec2[]            particle_vel        = world.getParticleVelocityBuffer();
+    ParticleColor[]   particle_col        = world.getParticleColorBuffer();
+    
+    copyParticleContacts(world, particle_num, buf_con);
+    copyParticleData(particle_pos, particle_vel, particle_col, 0, particle_num, lerp_dt, buf_pos, buf_vel, buf_col);
+  }
+  
+  
+  /**
+   * contacts [weight, count], accumulated per particle.
+   */
+  static public void copyParticleContacts(World world, int particle_num, float[] buf_con){
+    ParticleContact[] particle_con        = world.getParticleContacts();
+    int               particle_con_count  = world.getParticleContactCount();
     
     // contacts, reset
-    for(int i = 0; i < buf_con_len; i++){
+    for(int i = 0, len = particle_num * 2; i < len; i++){
       buf_con[i] = 0;
     }
        
@@ -124,34 +248,88 @@ public abstract class DwParticleRender{
       buf_con[ia+1] += 1;
       buf_con[ib+1] += 1;
     }
-     
-    // position, velocity, colors
-    for(int i = 0, ipos = 0, ivel = 0, icol = 0, icon = 0; i < particle_num; i++){
-      // position
+  }
+  
+  
+  /**
+   * positions [x, y], velocities [x, y], colors [r, g, b, a], of the particles [lo, hi).
+   */
+  static public void copyParticleData(Vec2[] particle_pos, Vec2[] particle_vel, ParticleColor[] particle_col, int lo, int hi, float lerp_dt, float[] buf_pos, float[] buf_vel, byte[] buf_col){
+    for(int i = lo, ipos = lo * 2, ivel = lo * 2, icol = lo * 4; i < hi; i++){
       Vec2 pos = particle_pos[i];
-      buf_pos[ipos++] = pos.x;
-      buf_pos[ipos++] = pos.y;
-      // velocity
       Vec2 vel = particle_vel[i];
+      // position
+      buf_pos[ipos++] = pos.x - vel.x * lerp_dt;
+      buf_pos[ipos++] = pos.y - vel.y * lerp_dt;
+      // velocity
       buf_vel[ivel++] = vel.x;
       buf_vel[ivel++] = vel.y;
       // color
       ParticleColor col = particle_col[i];
-      int col_r = col.r & 0xFF;
-      int col_g = col.g & 0xFF;
-      int col_b = col.b & 0xFF;
-      int col_a = col.a & 0xFF;
+      buf_col[icol++] = col.r;
+      buf_col[icol++] = col.g;
+      buf_col[icol++] = col.b;
+      buf_col[icol++] = col.a;
+    }
+  }
+  
+  
+  /**
+   * 
+   * Same as {@link #copyParticleData}, but skips the given particle ranges of
+   * frozen groups, their positions and colors are kept from the previous
+   * update. Contacts are still updated for all particles.<br>
+   * 
+   * @param ranges [lo, hi) pairs, sorted, not overlapping
+   */
+  protected void copyDynamicParticleData(int[] ranges, int count){
+    Vec2[]          particle_pos = world.getParticlePositionBuffer();
+    Vec2[]          particle_vel = world.getParticleVelocityBuffer();
+    ParticleColor[] particle_col = world.getParticleColorBuffer();
+    
+    copyParticleContacts(world, particle_num, buf_con);
+    
+    int lo = 0;
+    for(int r = 0; r <= count; r++){
+      int hi = (r < count) ? ranges[r * 2] : particle_num;
+      if(hi > lo){
+        copyParticleData(particle_pos, particle_vel, particle_col, lo, hi, interpolation_dt, buf_pos, buf_vel, buf_col);
+        updateColors(lo, hi);
+      }
+      if(r < count){
+        lo = ranges[r * 2 + 1];
+      }
+    }
+  }
+  
+  
+  /**
+   * 
+   * Brightens the particle colors in buf_col, based on velocity and contacts.<br>
+   * 
+   * @param lo first particle index
+   * @param hi last particle index (exclusive)
+   */
+  protected void updateColors(int lo, int hi){
+    for(int i = lo, ivel = lo * 2, icol = lo * 4, icon = lo * 2; i < hi; i++){
+      
+      float vel_x = buf_vel[ivel++];
+      float vel_y = buf_vel[ivel++];
+      
+      int col_r = buf_col[icol+0] & 0xFF;
+      int col_g = buf_col[icol+1] & 0xFF;
+      int col_b = buf_col[icol+2] & 0xFF;
       
       float con_x = buf_con[icon++];
       float con_y = buf_con[icon++];
       
-//      float vel_mag = (float) Math.sqrt(vel.x * vel.x + vel.y * vel.y) * 0.01f;
+//      float vel_mag = (float) Math.sqrt(vel_x * vel_x + vel_y * vel_y) * 0.01f;
 //      float con_mult = con_x / 40.0f;
 //      
 //      float sum = 1.0f + (con_mult + vel_mag);
 //      sum *= sum; sum *= sum; sum *= sum; 
       
-      float vel_fac =(float) Math.sqrt(vel.x * vel.x + vel.y * vel.y) * 0.02f;
+      float vel_fac =(float) Math.sqrt(vel_x * vel_x + vel_y * vel_y) * 0.02f;
       float con_fac = con_x * 0.15f;
       
       float sum = 1.0f + (con_fac + vel_fac);
@@ -165,15 +343,8 @@ public abstract class DwParticleRender{
       buf_col[icol++] = (byte) col_r;
       buf_col[icol++] = (byte) col_g;
       buf_col[icol++] = (byte) col_b;
-      buf_col[icol++] = (byte) col_a;
+      icol++; // alpha, unchanged
     }
-    
-
-    // sprite texture
-    if(param.tex_sprite == null){
-      param.tex_sprite = DwUtils.createSprite(papplet, (int) particle_rad_screen * 4, param.falloff_exp1, param.falloff_exp2, param.falloff_mult);
-    }
-    
   }
   
   
@@ -191,10 +362,38 @@ public abstract class DwParticleRender{
     buf_vel = new float[0];
     buf_col = new byte [0];
     buf_con = new float[0];
+    
+    buf_vis_len = 0;
+    buf_vis = new int[0];
+    
+    lod_active = false;
+    buf_lod_len = 0;
+    buf_lod_pos   = new float[0];
+    buf_lod_col   = new byte [0];
+    buf_lod_scale = new float[0];
+    lod_cell_cnt  = new int  [0];
+    lod_cell_acc  = new float[0];
+    
+    buf_idx_changed = true;
+    if(group_cache != null){
+      group_cache.invalidate();
+    }
+    if(density_field != null){
+      density_field.invalidate();
+    }
   }
   
   
   public abstract void update();
+  
+  /**
+   * Updates the render buffers from the given snapshot, e.g. published by
+   * {@link com.thomasdiewald.liquidfun.java.DwStepThread}.<br>
+   * Render-groups are not generated here, since they need access to the world.<br>
+   */
+  public void update(DwWorldSnapshot snapshot){
+    updateBuffers(snapshot);
+  }
   public abstract void display(PGraphics2D canvas);
   
   public void display(PGraphics2D canvas, int ... render_group_ids){
@@ -219,13 +418,74 @@ public abstract class DwParticleRender{
   protected int[] group_lengths;
   protected int[] group_ids = new int[0];
   
+  // render-groups are rebuilt every n-th update only, e.g. set by the DwFrameGovernor
+  public int groups_interval = 1;
+  protected int groups_counter = 0;
+  protected int groups_particle_num = -1;
+  
   public void useGroups(boolean use_groups){
      this.USE_GROUPS = use_groups; 
   }
   
+  /**
+   * enables/disables the multithreaded (fork-join) buffer update.
+   */
+  public void useParallelUpdate(boolean parallel){
+    if(parallel && buffer_updater == null){
+      buffer_updater = new DwParticleBufferUpdater();
+    }
+    if(!parallel){
+      buffer_updater = null;
+    }
+  }
+  
+  /**
+   * enables/disables the incremental render-group update.<br>
+   * If enabled, only ParticleGroups that changed (buffer-index, particle-count,
+   * group-flags) since the last frame are re-assigned to their render-groups.<br>
+   * see {@link DwParticleRenderGroupCache}
+   */
+  public void useIncrementalGroups(boolean incremental){
+    if(incremental && group_cache == null){
+      group_cache = new DwParticleRenderGroupCache();
+    }
+    if(!incremental){
+      group_cache = null;
+    }
+    buf_idx_changed = true;
+  }
+  
+  public DwParticleRenderGroupCache getGroupCache(){
+    return group_cache;
+  }
+  
+  /**
+   * enables/disables the CPU density-field, which is updated together with the
+   * render buffers. Its grid must be set, see {@link DwParticleDensityField#setGrid}.<br>
+   */
+  public void useDensityField(boolean enable){
+    if(enable && density_field == null){
+      density_field = new DwParticleDensityField();
+    }
+    if(!enable){
+      density_field = null;
+    }
+  }
+  
+  public DwParticleDensityField getDensityField(){
+    return density_field;
+  }
+  
+  protected void updateDensityField(){
+    if(density_field != null && density_field.grid_w * density_field.grid_h > 0){
+      density_field.update(this);
+    }
+  }
+  
   public void setIndexBuffer(int[] indices, int indices_len){
     buf_idx = indices;
     buf_idx_len = indices_len;
+    buf_idx_changed = true;
   }
   
   public void setIndexGroups(int[] group_offsets, int[] group_lengths, int group_count){
@@ -256,6 +516,19 @@ public abstract class DwParticleRender{
       return;
     }
     
+    // rebuild cadence, a changed particle count always rebuilds
+    int num = world.getParticleCount();
+    if(++groups_counter < groups_interval && num == groups_particle_num){
+      return;
+    }
+    groups_counter = 0;
+    groups_particle_num = num;
+    
+    if(group_cache != null){
+      buf_idx_changed |= group_cache.update(this, world, prgc);
+      return;
+    }
+    
     final int[] particle_flags = world.getParticleFlagsBuffer();
 
     group_count = -1;
@@ -305,6 +578,7 @@ public abstract class DwParticleRender{
         buf_idx[pos] = i;
       }
     }
+    buf_idx_changed = true;
     
 
     // 4) 
@@ -315,10 +589,299 @@ public abstract class DwParticleRender{
   
   
   
+  //////////////////////////////////////////////////////////////////////////////
+  // Culling
+  //////////////////////////////////////////////////////////////////////////////
+  
+  protected boolean culling = false;
+  
+  // world-space AABB of the viewport, last updated by updateVisibility()
+  public final AABB view_aabb = new AABB();
+  
+  // visible particle-indices, compacted. If groups are used, sorted by 
+  // render-group, see vis_offsets/vis_lengths
+  public int   buf_vis_len = 0;
+  public int[] buf_vis = new int[0];
+  protected int[] vis_offsets = new int[0];
+  protected int[] vis_lengths = new int[0];
+  
+  /**
+   * 
+   * Enables/disables view-frustum culling.<br>
+   * Particles outside the visible area of the {@link DwViewportTransform} are
+   * skipped, the remaining ones are compacted into a visible-index buffer 
+   * (buf_vis), which is then used for rendering.<br>
+   * 
+   */
+  public void useCulling(boolean enable){
+    culling = enable;
+    buf_vis_len = 0;
+    buf_idx_changed = true;
+  }
+  
+  public boolean isCulling(){
+    return culling;
+  }
+  
+  
+  /**
+   * 
+   * Collects the indices of all particles that overlap the visible area.<br>
+   * If render-groups are used, only particles of a render-group are collected,
+   * per group.<br>
+   * 
+   */
+  protected void updateVisibility(){
+    if(!culling){
+      return;
+    }
+    
+    // visible area, grown by the particle radius
+    transform.getVisibleAABB(0, view_aabb);
+    float xmin = view_aabb.lowerBound.x - particle_rad_world;
+    float ymin = view_aabb.lowerBound.y - particle_rad_world;
+    float xmax = view_aabb.upperBound.x + particle_rad_world;
+    float ymax = view_aabb.upperBound.y + particle_rad_world;
+    
+    final float[] pos = buf_pos;
+    buf_vis_len = 0;
+    
+    if(USE_GROUPS && group_offsets != null){
+      buf_vis = DwUtils.resizeBuffer(buf_vis, buf_idx_len);
+      if(vis_offsets.length < group_count){
+        vis_offsets = new int[group_count];
+        vis_lengths = new int[group_count];
+      }
+      for(int g = 0; g < group_count; g++){
+        vis_offsets[g] = buf_vis_len;
+        for(int k = group_offsets[g], end = k + group_lengths[g]; k < end; k++){
+          int i = buf_idx[k];
+          if(i >= particle_num){
+            continue;
+          }
+          float x = pos[i*2+0];
+          float y = pos[i*2+1];
+          if(x >= xmin && x <= xmax && y >= ymin && y <= ymax){
+            buf_vis[buf_vis_len++] = i;
+          }
+        }
+        vis_lengths[g] = buf_vis_len - vis_offsets[g];
+      }
+    } else {
+      buf_vis = DwUtils.resizeBuffer(buf_vis, particle_num);
+      for(int i = 0; i < particle_num; i++){
+        float x = pos[i*2+0];
+        float y = pos[i*2+1];
+        if(x >= xmin && x <= xmax && y >= ymin && y <= ymax){
+          buf_vis[buf_vis_len++] = i;
+        }
+      }
+    }
+  }
+  
+  
+  
+  
+  //////////////////////////////////////////////////////////////////////////////
+  // Level of Detail
+  //////////////////////////////////////////////////////////////////////////////
+  
+  protected boolean lod = false;
+  
+  // particles are merged, if their screen-radius (pixels) is below this
+  public float lod_radius = 1.5f;
+  
+  // size of a grid cell (pixels), all particles of a cell are merged into one sprite
+  public float lod_cell_size = 4f;
+  
+  // true, if the last update produced merged sprites, instead of particles
+  public boolean lod_active = false;
+  
+  // merged sprites: position [x, y], color [r, g, b, a], radius-scale [s]. If
+  // groups are used, sorted by render-group, see lod_offsets/lod_lengths
+  public int     buf_lod_len = 0;
+  public float[] buf_lod_pos   = new float[0];
+  public byte [] buf_lod_col   = new byte [0];
+  public float[] buf_lod_scale = new float[0];
+  protected int[] lod_offsets = new int[0];
+  protected int[] lod_lengths = new int[0];
+  
+  // screen-space grid: particle count, and [x, y, r, g, b, a] sums per cell
+  protected int   lod_grid_x, lod_grid_y;
+  protected int[]   lod_cell_cnt = new int  [0];
+  protected float[] lod_cell_acc = new float[0];
+  protected int[]   lod_cells_used = new int[0];
+  protected int     lod_cells_used_len = 0;
+  
+  
+  /**
+   * 
+   * Enables/disables level-of-detail rendering.<br>
+   * When zoomed out so far, that the particle radius on screen is below 
+   * {@link #lod_radius}, particles are clustered on a screen-space grid 
+   * ({@link #lod_cell_size}) and each cell is rendered as one merged sprite, 
+   * with the averaged position and color, and a radius scaled by the number 
+   * of merged particles.<br>
+   * Particles outside the screen are skipped.<br>
+   * Used by {@link DwParticleRenderGL} and {@link DwParticleRenderGLQuads}.<br>
+   * 
+   */
+  public void useLOD(boolean enable){
+    lod = enable;
+    lod_active = false;
+    buf_lod_len = 0;
+  }
+  
+  public boolean isLOD(){
+    return lod;
+  }
+  
+  
+  /**
+   * 
+   * Merges all (visible) particles into sprites, one per screen-grid cell, if
+   * the particles are small enough.<br>
+   * 
+   */
+  protected void updateLOD(){
+    float rad_px = particle_rad_world * transform.screen_scale;
+    lod_active = lod && particle_num > 0 && rad_px < lod_radius;
+    buf_lod_len = 0;
+    if(!lod_active){
+      return;
+    }
+    
+    // world-space grid, aligned to multiples of the cell size, covering the screen
+    float cell = Math.max(lod_cell_size, 1f) / transform.screen_scale;
+    AABB aabb = transform.getVisibleAABB(0, view_aabb);
+    float grid_x0 = (float) Math.floor((aabb.lowerBound.x - particle_rad_world) / cell) * cell;
+    float grid_y0 = (float) Math.floor((aabb.lowerBound.y - particle_rad_world) / cell) * cell;
+    lod_grid_x = (int) Math.ceil((aabb.upperBound.x + particle_rad_world - grid_x0) / cell);
+    lod_grid_y = (int) Math.ceil((aabb.upperBound.y + particle_rad_world - grid_y0) / cell);
+    
+    int cells = lod_grid_x * lod_grid_y;
+    if(lod_cell_cnt.length < cells){
+      lod_cell_cnt = new int[cells]; // zero, cells are reset after each use
+      lod_cell_acc = new float[cells * 6];
+    }
+    
+    // worst case: one sprite per particle
+    buf_lod_pos   = DwUtils.resizeBuffer(buf_lod_pos  , particle_num * 2);
+    buf_lod_col   = DwUtils.resizeBuffer(buf_lod_col  , particle_num * 4);
+    buf_lod_scale = DwUtils.resizeBuffer(buf_lod_scale, particle_num * 1);
+    lod_cells_used = DwUtils.resizeBuffer(lod_cells_used, Math.min(particle_num, cells));
+    
+    // merged sprites don't grow beyond the cell size
+    float scale_max = Math.max(1f, cell / particle_rad_world);
+    float cell_inv = 1f / cell;
+    
+    if(USE_GROUPS && group_offsets != null){
+      if(lod_offsets.length < group_count){
+        lod_offsets = new int[group_count];
+        lod_lengths = new int[group_count];
+      }
+      // each render-group is merged separately
+      for(int g = 0; g < group_count; g++){
+        lod_offsets[g] = buf_lod_len;
+        if(culling){
+          accumulateLOD(buf_vis, vis_offsets[g], vis_lengths[g], grid_x0, grid_y0, cell_inv);
+        } else {
+          accumulateLOD(buf_idx, group_offsets[g], group_lengths[g], grid_x0, grid_y0, cell_inv);
+        }
+        emitLOD(scale_max);
+        lod_lengths[g] = buf_lod_len - lod_offsets[g];
+      }
+    } else {
+      if(culling){
+        accumulateLOD(buf_vis, 0, buf_vis_len, grid_x0, grid_y0, cell_inv);
+      } else {
+        accumulateLOD(null, 0, particle_num, grid_x0, grid_y0, cell_inv);
+      }
+      emitLOD(scale_max);
+    }
+  }
+  
+  
+  /**
+   * adds the particles to their grid-cells.
+   * 
+   * @param idx particle indices, or null for [off, off + len)
+   */
+  protected void accumulateLOD(int[] idx, int off, int len, float grid_x0, float grid_y0, float cell_inv){
+    final float[] pos = buf_pos;
+    final byte [] col = buf_col;
+    final int[]   cnt = lod_cell_cnt;
+    final float[] acc = lod_cell_acc;
+    
+    lod_cells_used_len = 0;
+    for(int k = off, end = off + len; k < end; k++){
+      int i = (idx != null) ? idx[k] : k;
+      if(i >= particle_num){
+        continue;
+      }
+      float x = pos[i*2+0];
+      float y = pos[i*2+1];
+      int cx = (int) Math.floor((x - grid_x0) * cell_inv);
+      int cy = (int) Math.floor((y - grid_y0) * cell_inv);
+      if(cx < 0 || cy < 0 || cx >= lod_grid_x || cy >= lod_grid_y){
+        continue; // off-screen
+      }
+      int c = cy * lod_grid_x + cx;
+      if(cnt[c]++ == 0){
+        lod_cells_used[lod_cells_used_len++] = c;
+      }
+      int ia = c * 6;
+      acc[ia+0] += x;
+      acc[ia+1] += y;
+      acc[ia+2] += col[i*4+0] & 0xFF;
+      acc[ia+3] += col[i*4+1] & 0xFF;
+      acc[ia+4] += col[i*4+2] & 0xFF;
+      acc[ia+5] += col[i*4+3] & 0xFF;
+    }
+  }
+  
+  
+  /**
+   * creates one sprite per used grid-cell, and resets the cells.
+   */
+  protected void emitLOD(float scale_max){
+    final int[]   cnt = lod_cell_cnt;
+    final float[] acc = lod_cell_acc;
+    
+    for(int k = 0; k < lod_cells_used_len; k++){
+      int c = lod_cells_used[k];
+      int n = cnt[c];
+      int ia = c * 6;
+      float n_inv = 1f / n;
+      
+      int s = buf_lod_len++;
+      buf_lod_pos[s*2+0] = acc[ia+0] * n_inv;
+      buf_lod_pos[s*2+1] = acc[ia+1] * n_inv;
+      buf_lod_col[s*4+0] = (byte) Math.round(acc[ia+2] * n_inv);
+      buf_lod_col[s*4+1] = (byte) Math.round(acc[ia+3] * n_inv);
+      buf_lod_col[s*4+2] = (byte) Math.round(acc[ia+4] * n_inv);
+      buf_lod_col[s*4+3] = (byte) Math.round(acc[ia+5] * n_inv);
+      // same area as all merged particles
+      buf_lod_scale[s] = Math.min((float) Math.sqrt(n), scale_max);
+      
+      cnt[c] = 0;
+      for(int j = 0; j < 6; j++){
+        acc[ia+j] = 0;
+      }
+    }
+    lod_cells_used_len = 0;
+  }
+  
+  
+  
+  
   protected DwParticleRenderGroupCallback prgc = null;
   
   public void setParticleRenderGroupCallback(DwParticleRenderGroupCallback callback){
     this.prgc = callback;
+    if(group_cache != null){
+      group_cache.invalidate();
+    }
   }
   
 
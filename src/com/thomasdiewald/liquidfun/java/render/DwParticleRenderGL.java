@@ -12,15 +12,12 @@
 
 package com.thomasdiewald.liquidfun.java.render;
 
-import java.nio.ByteBuffer;
-import java.nio.FloatBuffer;
-import java.nio.IntBuffer;
-
 import org.jbox2d.dynamics.World;
 import com.jogamp.opengl.GL;
 import com.jogamp.opengl.GL2ES3;
 import com.jogamp.opengl.GL3;
 import com.thomasdiewald.liquidfun.java.DwViewportTransform;
+import com.thomasdiewald.liquidfun.java.DwWorldSnapshot;
 
 import processing.core.PApplet;
 import processing.core.PGraphics;
@@ -52,14 +49,17 @@ public class DwParticleRenderGL extends DwParticleRender{
   public PShader shader_particles;
   
 
-  // GL: VBO HANDLES
-  public int[] HANDLE_vbo_pos = {0};
-//  public int[] HANDLE_vbo_vel = {0};
-  public int[] HANDLE_vbo_col = {0};
-//  public int[] HANDLE_vbo_con = {0};
+  // GL: streamed VBOs, ring of buffer regions
+  public DwStreamVBO vbo_pos = new DwStreamVBO();
+//  public DwStreamVBO vbo_vel = new DwStreamVBO();
+  public DwStreamVBO vbo_col = new DwStreamVBO();
+//  public DwStreamVBO vbo_con = new DwStreamVBO();
+  
+  // GL: VBO Index
+  public DwStreamVBO vbo_idx = new DwStreamVBO();
   
-  // GL: VBO Index Handle
-  public int[] HANDLE_vbo_idx = {0};
+  // GL: LOD, radius-scale of the merged sprites
+  public DwStreamVBO vbo_scale = new DwStreamVBO();
 
 
 
@@ -75,12 +75,14 @@ public class DwParticleRenderGL extends DwParticleRender{
       , "                                           " + NL
       , "in vec2 pos;                               " + NL
       , "in vec4 col;                               " + NL
+      , "in float scale;                            " + NL
       , "out vec2 posn;                             " + NL
       , "out vec4 tint;                             " + NL
+      , "out float size;                            " + NL
       , "                                           " + NL
       , "void main() {                              " + NL
       , "  gl_Position = mat_mvp * vec4(pos, 0, 1); " + NL
-      , "  gl_PointSize = point_size;               " + NL
+      , "  gl_PointSize = size = point_size * scale;" + NL
       , "  tint = col;                              " + NL
       , "  posn = gl_Position.xy * 0.5 + 0.5;       " + NL
       , "}                                          " + NL
@@ -94,13 +96,13 @@ public class DwParticleRenderGL extends DwParticleRender{
       , "out vec4 fragColor;                                      "+NL
       , "in vec4 tint;                                            "+NL
       , "in vec2 posn;                                            "+NL
+      , "in float size;                                           "+NL
       , "                                                         "+NL
-      , "uniform float point_size;                                "+NL
       , "uniform vec2 wh_viewport;                                "+NL
       , "uniform sampler2D tex_sprite;                            "+NL
       , "                                                         "+NL
       , "void main() {                                            "+NL
-      , "  vec2 my_PointCoord = ((posn * wh_viewport) - gl_FragCoord.xy) / point_size + 0.5; // [0, 1]"+NL
+      , "  vec2 my_PointCoord = ((posn * wh_viewport) - gl_FragCoord.xy) / size + 0.5; // [0, 1]"+NL
       , "  fragColor = texture(tex_sprite, my_PointCoord) * tint; "+NL
       , "}                                                        "+NL
     }; 
@@ -121,11 +123,12 @@ public class DwParticleRenderGL extends DwParticleRender{
   @Override
   public void release(){
     beginGL();
-    gl.glDeleteBuffers(1, HANDLE_vbo_idx, 0); HANDLE_vbo_idx[0] = 0;
-    gl.glDeleteBuffers(1, HANDLE_vbo_pos, 0); HANDLE_vbo_pos[0] = 0;
-    gl.glDeleteBuffers(1, HANDLE_vbo_col, 0); HANDLE_vbo_col[0] = 0;
-//    gl.glDeleteBuffers(1, HANDLE_vbo_vel, 0); HANDLE_vbo_vel[0] = 0;
-//    gl.glDeleteBuffers(1, HANDLE_vbo_con, 0); HANDLE_vbo_con[0] = 0;
+    vbo_idx.release(gl);
+    vbo_scale.release(gl);
+    vbo_pos.release(gl);
+    vbo_col.release(gl);
+//    vbo_vel.release(gl);
+//    vbo_con.release(gl);
     errCheck("DwParticleRenderGL.release");
     endGL();
     
@@ -140,36 +143,37 @@ public class DwParticleRenderGL extends DwParticleRender{
     updateVBOs();
   }
   
+  @Override
+  public void update(DwWorldSnapshot snapshot){
+    updateBuffers(snapshot);
+    updateVBOs();
+  }
+  
   
   protected void updateVBOs(){
     if(particle_num == 0){
       return;
     }
     
-    beginGL();
-    
-    assureBuffers();
-    
-    gl.glBindBuffer(GL.GL_ARRAY_BUFFER, HANDLE_vbo_pos[0]);
-    gl.glBufferData(GL.GL_ARRAY_BUFFER, buf_pos_len * 4, FloatBuffer.wrap(buf_pos), GL.GL_DYNAMIC_DRAW);
+    packVBOs();
     
-    gl.glBindBuffer(GL.GL_ARRAY_BUFFER, HANDLE_vbo_col[0]);
-    gl.glBufferData(GL.GL_ARRAY_BUFFER, buf_col_len * 1, ByteBuffer.wrap(buf_col), GL.GL_DYNAMIC_DRAW);
-    
-//    gl.glBindBuffer(GL.GL_ARRAY_BUFFER, HANDLE_vbo_vel[0]);
-//    gl.glBufferData(GL.GL_ARRAY_BUFFER, buf_vel_len * 4, FloatBuffer.wrap(buf_vel), GL.GL_DYNAMIC_DRAW);
-    
-//    gl.glBindBuffer(GL.GL_ARRAY_BUFFER, HANDLE_vbo_con[0]);
-//    gl.glBufferData(GL.GL_ARRAY_BUFFER, buf_con_len * 4, FloatBuffer.wrap(buf_con), GL.GL_DYNAMIC_DRAW);
-    
-    gl.glBindBuffer(GL.GL_ARRAY_BUFFER, 0);
+    beginGL();
     
+    vbo_pos.upload(gl, GL.GL_ARRAY_BUFFER);
+    vbo_col.upload(gl, GL.GL_ARRAY_BUFFER);
+//    vbo_vel.upload(gl, GL.GL_ARRAY_BUFFER);
+//    vbo_con.upload(gl, GL.GL_ARRAY_BUFFER);
     
-    if(USE_GROUPS)
+    if(lod_active){
+      vbo_scale.upload(gl, GL.GL_ARRAY_BUFFER);
+    }
+    else if(culling){
+      vbo_idx.upload(gl, GL.GL_ELEMENT_ARRAY_BUFFER);
+    }
+    else if(USE_GROUPS && buf_idx_changed)
     {
-      gl.glBindBuffer(GL.GL_ELEMENT_ARRAY_BUFFER, HANDLE_vbo_idx[0]);
-      gl.glBufferData(GL.GL_ELEMENT_ARRAY_BUFFER, buf_idx_len * 4, IntBuffer.wrap(buf_idx), GL.GL_DYNAMIC_DRAW);
-      gl.glBindBuffer(GL.GL_ELEMENT_ARRAY_BUFFER, 0);
+      vbo_idx.upload(gl, GL.GL_ELEMENT_ARRAY_BUFFER);
+      buf_idx_changed = false;
     }
     
     errCheck("DwParticleRenderGL.updateVBOs");
@@ -178,13 +182,27 @@ public class DwParticleRenderGL extends DwParticleRender{
   }
   
   
-  protected void assureBuffers(){
-    // VBO handles
-    if(HANDLE_vbo_idx[0] == 0) gl.glGenBuffers(1, HANDLE_vbo_idx, 0);
-    if(HANDLE_vbo_pos[0] == 0) gl.glGenBuffers(1, HANDLE_vbo_pos, 0);
-    if(HANDLE_vbo_col[0] == 0) gl.glGenBuffers(1, HANDLE_vbo_col, 0);
-//    if(HANDLE_vbo_vel[0] == 0) gl.glGenBuffers(1, HANDLE_vbo_vel, 0);
-//    if(HANDLE_vbo_con[0] == 0) gl.glGenBuffers(1, HANDLE_vbo_con, 0);
+  /**
+   * packs the render buffers into the (direct) VBO staging buffers, no GL needed.
+   */
+  protected void packVBOs(){
+    if(lod_active){
+      // merged sprites, drawn without indices
+      vbo_pos  .put(buf_lod_pos  , buf_lod_len * 2);
+      vbo_col  .put(buf_lod_col  , buf_lod_len * 4);
+      vbo_scale.put(buf_lod_scale, buf_lod_len * 1);
+      return;
+    }
+    vbo_pos.put(buf_pos, buf_pos_len);
+    vbo_col.put(buf_col, buf_col_len);
+//    vbo_vel.put(buf_vel, buf_vel_len);
+//    vbo_con.put(buf_con, buf_con_len);
+    if(culling){
+      vbo_idx.put(buf_vis, buf_vis_len);
+    }
+    else if(USE_GROUPS && buf_idx_changed){
+      vbo_idx.put(buf_idx, buf_idx_len);
+    }
   }
   
   
@@ -201,8 +219,6 @@ public class DwParticleRenderGL extends DwParticleRender{
     mat_mvp.transpose();
 
     beginGL();
-    
-    assureBuffers();
 
     PShader shader = shader_particles;
     shader.bind();
@@ -217,33 +233,45 @@ public class DwParticleRenderGL extends DwParticleRender{
     // shader vertex attribute: position
     int LOC_pos = gl.glGetAttribLocation(shader.glProgram, "pos");
     if(LOC_pos != -1){
-      gl.glBindBuffer(GL.GL_ARRAY_BUFFER, HANDLE_vbo_pos[0]);
+      gl.glBindBuffer(GL.GL_ARRAY_BUFFER, vbo_pos.HANDLE_vbo[0]);
       gl.glEnableVertexAttribArray(LOC_pos);
-      gl.glVertexAttribPointer(LOC_pos, 2, GL.GL_FLOAT, false, 0, 0);
+      gl.glVertexAttribPointer(LOC_pos, 2, GL.GL_FLOAT, false, 0, vbo_pos.offset);
     }
     
     // shader vertex attribute: color
     int LOC_col = gl.glGetAttribLocation(shader.glProgram, "col");
     if(LOC_col != -1){
-      gl.glBindBuffer(GL.GL_ARRAY_BUFFER, HANDLE_vbo_col[0]);
+      gl.glBindBuffer(GL.GL_ARRAY_BUFFER, vbo_col.HANDLE_vbo[0]);
       gl.glEnableVertexAttribArray(LOC_col);
-      gl.glVertexAttribPointer(LOC_col, 4, GL.GL_UNSIGNED_BYTE, true, 0, 0);
+      gl.glVertexAttribPointer(LOC_col, 4, GL.GL_UNSIGNED_BYTE, true, 0, vbo_col.offset);
+    }
+    
+    // shader vertex attribute: radius-scale, constant if not merged
+    int LOC_scale = gl.glGetAttribLocation(shader.glProgram, "scale");
+    if(LOC_scale != -1){
+      if(lod_active){
+        gl.glBindBuffer(GL.GL_ARRAY_BUFFER, vbo_scale.HANDLE_vbo[0]);
+        gl.glEnableVertexAttribArray(LOC_scale);
+        gl.glVertexAttribPointer(LOC_scale, 1, GL.GL_FLOAT, false, 0, vbo_scale.offset);
+      } else {
+        gl.glVertexAttrib1f(LOC_scale, 1f);
+      }
     }
     
     // shader vertex attribute: velocity
 //    int LOC_vel = gl.glGetAttribLocation(shader.glProgram, "vel");
 //    if(LOC_vel != -1){
-//      gl.glBindBuffer(GL.GL_ARRAY_BUFFER, HANDLE_vbo_vel[0]);
+//      gl.glBindBuffer(GL.GL_ARRAY_BUFFER, vbo_vel.HANDLE_vbo[0]);
 //      gl.glEnableVertexAttribArray(LOC_vel);
-//      gl.glVertexAttribPointer(LOC_vel, 2, GL.GL_FLOAT, false, 0, 0);
+//      gl.glVertexAttribPointer(LOC_vel, 2, GL.GL_FLOAT, false, 0, vbo_vel.offset);
 //    }
     
     // shader vertex attribute: contact
 //    int LOC_con = gl.glGetAttribLocation(shader.glProgram, "con");
 //    if(LOC_con != -1){
-//      gl.glBindBuffer(GL.GL_ARRAY_BUFFER, HANDLE_vbo_con[0]);
+//      gl.glBindBuffer(GL.GL_ARRAY_BUFFER, vbo_con.HANDLE_vbo[0]);
 //      gl.glEnableVertexAttribArray(LOC_con);
-//      gl.glVertexAttribPointer(LOC_con, 2, GL.GL_FLOAT, false, 0, 0);
+//      gl.glVertexAttribPointer(LOC_con, 2, GL.GL_FLOAT, false, 0, vbo_con.offset);
 //    }
 
     gl.glBindBuffer(GL.GL_ARRAY_BUFFER, 0);
@@ -267,23 +295,52 @@ public class DwParticleRenderGL extends DwParticleRender{
     
   
     // draw particles as points (see fragment shader for details)
-    if(USE_GROUPS)
+    if(lod_active)
     {
-      gl.glBindBuffer(GL.GL_ELEMENT_ARRAY_BUFFER, HANDLE_vbo_idx[0]);
-      // gl.glBufferData(GL.GL_ELEMENT_ARRAY_BUFFER, buf_idx_len * 4, IntBuffer.wrap(buf_idx), GL.GL_DYNAMIC_DRAW);
+      if(USE_GROUPS){
+        for(int i = 0; i < group_ids.length; i++){
+          int id = group_ids[i];
+          if(id >= group_count || id >= lod_offsets.length || lod_lengths[id] == 0){
+            continue;
+          }
+          gl.glDrawArrays(GL.GL_POINTS, lod_offsets[id], lod_lengths[id]);
+        }
+      } else if(buf_lod_len > 0){
+        gl.glDrawArrays(GL.GL_POINTS, 0, buf_lod_len);
+      }
+      errCheck("DwParticleRenderGL.display-glDrawArrays-lod");
+    }
+    else if(USE_GROUPS)
+    {
+      // culling: same groups, but only the visible indices
+      int[] offsets = culling ? vis_offsets : group_offsets;
+      int[] lengths = culling ? vis_lengths : group_lengths;
+      
+      gl.glBindBuffer(GL.GL_ELEMENT_ARRAY_BUFFER, vbo_idx.HANDLE_vbo[0]);
 
       for(int i = 0; i < group_ids.length; i++){
         int id = group_ids[i];
-        if(id >= group_count){
+        if(id >= group_count || id >= offsets.length){
           continue;
         }
-        int off = group_offsets[id];
-        int len = group_lengths[id];
-        gl.glDrawElements(GL.GL_POINTS, len, GL.GL_UNSIGNED_INT, off * 4);
+        int off = offsets[id];
+        int len = lengths[id];
+        if(len > 0){
+          gl.glDrawElements(GL.GL_POINTS, len, GL.GL_UNSIGNED_INT, vbo_idx.offset + off * 4);
+        }
       }
       gl.glBindBuffer(GL.GL_ELEMENT_ARRAY_BUFFER, 0);
       errCheck("DwParticleRenderGL.display-glDrawElements");
     } 
+    else if(culling)
+    {
+      if(buf_vis_len > 0){
+        gl.glBindBuffer(GL.GL_ELEMENT_ARRAY_BUFFER, vbo_idx.HANDLE_vbo[0]);
+        gl.glDrawElements(GL.GL_POINTS, buf_vis_len, GL.GL_UNSIGNED_INT, vbo_idx.offset);
+        gl.glBindBuffer(GL.GL_ELEMENT_ARRAY_BUFFER, 0);
+      }
+      errCheck("DwParticleRenderGL.display-glDrawElements");
+    }
     else {
       gl.glDrawArrays(GL.GL_POINTS, 0, particle_num);
       errCheck("DwParticleRenderGL.display-glDrawArrays");
@@ -293,6 +350,7 @@ public class DwParticleRenderGL extends DwParticleRender{
     // cleanup
     if(LOC_pos != -1) gl.glDisableVertexAttribArray(LOC_pos);
     if(LOC_col != -1) gl.glDisableVertexAttribArray(LOC_col);
+    if(LOC_scale != -1 && lod_active) gl.glDisableVertexAttribArray(LOC_scale);
 //    if(LOC_vel != -1) gl.glDisableVertexAttribArray(LOC_vel);
 //    if(LOC_con != -1) gl.glDisableVertexAttribArray(LOC_con);
     
@@ -23,7 +23,9 @@ import com.jogamp.opengl.GL2ES1;
 import com.jogamp.opengl.GL2ES2;
 import com.jogamp.opengl.GL2ES3;
 import com.jogamp.opengl.GL3;
+import com.thomasdiewald.liquidfun.java.DwUtils;
 import com.thomasdiewald.liquidfun.java.DwViewportTransform;
+import com.thomasdiewald.liquidfun.java.DwWorldSnapshot;
 
 import processing.core.PApplet;
 import processing.core.PGraphics;
@@ -65,6 +67,14 @@ public class DwParticleRenderGLQuads extends DwParticleRender{
   public int[] HANDLE_vbo_idx = {0};
   
   public int[] HANDLE_vbo_quad = {0};
+  
+  // LOD: radius-scale of the merged sprites
+  public int[] HANDLE_vbo_scale = {0};
+  
+  // culling: positions/colors of the visible particles, compacted, since
+  // instanced attributes can't be indexed
+  public float[] buf_pos_vis = new float[0];
+  public byte [] buf_col_vis = new byte [0];
 
 
 
@@ -115,11 +125,12 @@ public class DwParticleRenderGLQuads extends DwParticleRender{
       , "in vec2 vtx;                               " + NL
       , "in vec2 pos;                               " + NL
       , "in vec4 col;                               " + NL
+      , "in float scale;                            " + NL
       , "out vec4 tint;                             " + NL
       , "out vec2 texcoord;                             " + NL
       , "                                           " + NL
       , "void main() {                              " + NL
-      , "  gl_Position = mat_mvp * vec4(pos + vtx * point_size, 0, 1); " + NL
+      , "  gl_Position = mat_mvp * vec4(pos + vtx * point_size * scale, 0, 1); " + NL
       , "  texcoord = vtx * 0.5 + 0.5;               " + NL
       , "  tint = col;                              " + NL
       , "}                                          " + NL
@@ -164,6 +175,7 @@ public class DwParticleRenderGLQuads extends DwParticleRender{
 //    gl.glDeleteBuffers(1, HANDLE_vbo_con, 0); HANDLE_vbo_con[0] = 0;
     
     gl.glDeleteBuffers(1, HANDLE_vbo_quad, 0); HANDLE_vbo_quad[0] = 0;
+    gl.glDeleteBuffers(1, HANDLE_vbo_scale, 0); HANDLE_vbo_scale[0] = 0;
     errCheck("DwParticleRenderGL.release");
     endGL();
     
@@ -178,6 +190,12 @@ public class DwParticleRenderGLQuads extends DwParticleRender{
     updateVBOs();
   }
   
+  @Override
+  public void update(DwWorldSnapshot snapshot){
+    updateBuffers(snapshot);
+    updateVBOs();
+  }
+  
   
   protected void updateVBOs(){
     if(particle_num == 0){
@@ -188,11 +206,29 @@ public class DwParticleRenderGLQuads extends DwParticleRender{
     
     assureBuffers();
     
-    gl.glBindBuffer(GL.GL_ARRAY_BUFFER, HANDLE_vbo_pos[0]);
-    gl.glBufferData(GL.GL_ARRAY_BUFFER, buf_pos_len * 4, FloatBuffer.wrap(buf_pos), GL.GL_DYNAMIC_DRAW);
-    
-    gl.glBindBuffer(GL.GL_ARRAY_BUFFER, HANDLE_vbo_col[0]);
-    gl.glBufferData(GL.GL_ARRAY_BUFFER, buf_col_len * 1, ByteBuffer.wrap(buf_col), GL.GL_DYNAMIC_DRAW);
+    if(lod_active){
+      gl.glBindBuffer(GL.GL_ARRAY_BUFFER, HANDLE_vbo_pos[0]);
+      gl.glBufferData(GL.GL_ARRAY_BUFFER, buf_lod_len * 2 * 4, FloatBuffer.wrap(buf_lod_pos), GL.GL_DYNAMIC_DRAW);
+      
+      gl.glBindBuffer(GL.GL_ARRAY_BUFFER, HANDLE_vbo_col[0]);
+      gl.glBufferData(GL.GL_ARRAY_BUFFER, buf_lod_len * 4 * 1, ByteBuffer.wrap(buf_lod_col), GL.GL_DYNAMIC_DRAW);
+      
+      gl.glBindBuffer(GL.GL_ARRAY_BUFFER, HANDLE_vbo_scale[0]);
+      gl.glBufferData(GL.GL_ARRAY_BUFFER, buf_lod_len * 1 * 4, FloatBuffer.wrap(buf_lod_scale), GL.GL_DYNAMIC_DRAW);
+    } else if(culling){
+      gatherVisible();
+      gl.glBindBuffer(GL.GL_ARRAY_BUFFER, HANDLE_vbo_pos[0]);
+      gl.glBufferData(GL.GL_ARRAY_BUFFER, buf_vis_len * 2 * 4, FloatBuffer.wrap(buf_pos_vis), GL.GL_DYNAMIC_DRAW);
+      
+      gl.glBindBuffer(GL.GL_ARRAY_BUFFER, HANDLE_vbo_col[0]);
+      gl.glBufferData(GL.GL_ARRAY_BUFFER, buf_vis_len * 4 * 1, ByteBuffer.wrap(buf_col_vis), GL.GL_DYNAMIC_DRAW);
+    } else {
+      gl.glBindBuffer(GL.GL_ARRAY_BUFFER, HANDLE_vbo_pos[0]);
+      gl.glBufferData(GL.GL_ARRAY_BUFFER, buf_pos_len * 4, FloatBuffer.wrap(buf_pos), GL.GL_DYNAMIC_DRAW);
+      
+      gl.glBindBuffer(GL.GL_ARRAY_BUFFER, HANDLE_vbo_col[0]);
+      gl.glBufferData(GL.GL_ARRAY_BUFFER, buf_col_len * 1, ByteBuffer.wrap(buf_col), GL.GL_DYNAMIC_DRAW);
+    }
     
 //    gl.glBindBuffer(GL.GL_ARRAY_BUFFER, HANDLE_vbo_vel[0]);
 //    gl.glBufferData(GL.GL_ARRAY_BUFFER, buf_vel_len * 4, FloatBuffer.wrap(buf_vel), GL.GL_DYNAMIC_DRAW);
@@ -203,11 +239,12 @@ public class DwParticleRenderGLQuads extends DwParticleRender{
     gl.glBindBuffer(GL.GL_ARRAY_BUFFER, 0);
     
     
-    if(USE_GROUPS)
+    if(USE_GROUPS && buf_idx_changed)
     {
       gl.glBindBuffer(GL.GL_ELEMENT_ARRAY_BUFFER, HANDLE_vbo_idx[0]);
       gl.glBufferData(GL.GL_ELEMENT_ARRAY_BUFFER, buf_idx_len * 4, IntBuffer.wrap(buf_idx), GL.GL_DYNAMIC_DRAW);
       gl.glBindBuffer(GL.GL_ELEMENT_ARRAY_BUFFER, 0);
+      buf_idx_changed = false;
     }
     
     errCheck("DwParticleRenderGL.updateVBOs");
@@ -216,11 +253,28 @@ public class DwParticleRenderGLQuads extends DwParticleRender{
   }
 
   
+  /**
+   * copies positions and colors of the visible particles (buf_vis) into 
+   * buf_pos_vis, buf_col_vis.
+   */
+  protected void gatherVisible(){
+    buf_pos_vis = DwUtils.resizeBuffer(buf_pos_vis, buf_vis_len * 2);
+    buf_col_vis = DwUtils.resizeBuffer(buf_col_vis, buf_vis_len * 4);
+    for(int k = 0; k < buf_vis_len; k++){
+      int i = buf_vis[k];
+      buf_pos_vis[k*2+0] = buf_pos[i*2+0];
+      buf_pos_vis[k*2+1] = buf_pos[i*2+1];
+      System.arraycopy(buf_col, i*4, buf_col_vis, k*4, 4);
+    }
+  }
+
+  
   protected void assureBuffers(){
     // VBO handles
     if(HANDLE_vbo_idx[0] == 0) gl.glGenBuffers(1, HANDLE_vbo_idx, 0);
     if(HANDLE_vbo_pos[0] == 0) gl.glGenBuffers(1, HANDLE_vbo_pos, 0);
     if(HANDLE_vbo_col[0] == 0) gl.glGenBuffers(1, HANDLE_vbo_col, 0);
+    if(HANDLE_vbo_scale[0] == 0) gl.glGenBuffers(1, HANDLE_vbo_scale, 0);
 //    if(HANDLE_vbo_vel[0] == 0) gl.glGenBuffers(1, HANDLE_vbo_vel, 0);
 //    if(HANDLE_vbo_con[0] == 0) gl.glGenBuffers(1, HANDLE_vbo_con, 0);
     
@@ -315,6 +369,20 @@ public class DwParticleRenderGLQuads extends DwParticleRender{
 //
 //    errCheck("DwParticleRenderGL.display-pointRendering");
   
+    // shader vertex attribute: radius-scale, constant if not merged
+    int LOC_scale = gl.glGetAttribLocation(shader.glProgram, "scale");
+    if(LOC_scale != -1){
+      if(lod_active){
+        gl.glBindBuffer(GL.GL_ARRAY_BUFFER, HANDLE_vbo_scale[0]);
+        gl.glEnableVertexAttribArray(LOC_scale);
+        gl.glVertexAttribPointer(LOC_scale, 1, GL.GL_FLOAT, false, 0, 0);
+        gl.glVertexAttribDivisor(LOC_scale, 1);
+        gl.glBindBuffer(GL.GL_ARRAY_BUFFER, 0);
+      } else {
+        gl.glVertexAttrib1f(LOC_scale, 1f);
+      }
+    }
+  
     gl.glVertexAttribDivisor(LOC_vtx, 0);
     gl.glVertexAttribDivisor(LOC_pos, 1);
     gl.glVertexAttribDivisor(LOC_col, 1);
@@ -322,7 +390,41 @@ public class DwParticleRenderGLQuads extends DwParticleRender{
 
     
     // draw particles as points (see fragment shader for details)
-    if(USE_GROUPS)
+    if(lod_active || culling)
+    {
+      // merged sprites, or visible particles: compacted and sorted by 
+      // render-group, so each group is drawn by offsetting the instanced attributes
+      int[] offsets = lod_active ? lod_offsets : vis_offsets;
+      int[] lengths = lod_active ? lod_lengths : vis_lengths;
+      int   total   = lod_active ? buf_lod_len : buf_vis_len;
+      if(USE_GROUPS){
+        for(int i = 0; i < group_ids.length; i++){
+          int id = group_ids[i];
+          if(id >= group_count || id >= offsets.length || lengths[id] == 0){
+            continue;
+          }
+          int off = offsets[id];
+          if(LOC_scale != -1 && lod_active){
+            gl.glBindBuffer(GL.GL_ARRAY_BUFFER, HANDLE_vbo_scale[0]);
+            gl.glVertexAttribPointer(LOC_scale, 1, GL.GL_FLOAT, false, 0, off * 4);
+          }
+          if(LOC_pos != -1){
+            gl.glBindBuffer(GL.GL_ARRAY_BUFFER, HANDLE_vbo_pos[0]);
+            gl.glVertexAttribPointer(LOC_pos, 2, GL.GL_FLOAT, false, 0, off * 2 * 4);
+          }
+          if(LOC_col != -1){
+            gl.glBindBuffer(GL.GL_ARRAY_BUFFER, HANDLE_vbo_col[0]);
+            gl.glVertexAttribPointer(LOC_col, 4, GL.GL_UNSIGNED_BYTE, true, 0, off * 4);
+          }
+          gl.glBindBuffer(GL.GL_ARRAY_BUFFER, 0);
+          gl.glDrawArraysInstanced(GL.GL_TRIANGLE_STRIP, 0, 4, lengths[id]);
+        }
+      } else if(total > 0){
+        gl.glDrawArraysInstanced(GL.GL_TRIANGLE_STRIP, 0, 4, total);
+      }
+      errCheck("DwParticleRenderGL.display-glDrawArraysInstanced");
+    }
+    else if(USE_GROUPS)
     {
       gl.glBindBuffer(GL.GL_ELEMENT_ARRAY_BUFFER, HANDLE_vbo_idx[0]);
       // gl.glBufferData(GL.GL_ELEMENT_ARRAY_BUFFER, buf_idx_len * 4, IntBuffer.wrap(buf_idx), GL.GL_DYNAMIC_DRAW);
@@ -354,6 +456,10 @@ public class DwParticleRenderGLQuads extends DwParticleRender{
     gl.glVertexAttribDivisor(LOC_col, 0);
     
     // cleanup
+    if(LOC_scale != -1 && lod_active){
+      gl.glVertexAttribDivisor(LOC_scale, 0);
+      gl.glDisableVertexAttribArray(LOC_scale);
+    }
     if(LOC_pos != -1) gl.glDisableVertexAttribArray(LOC_pos);
     if(LOC_col != -1) gl.glDisableVertexAttribArray(LOC_col);
 //    if(LOC_vel != -1) gl.glDisableVertexAttribArray(LOC_vel);
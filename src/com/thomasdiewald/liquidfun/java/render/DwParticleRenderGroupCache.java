@@ -0,0 +1,289 @@
+/**
+ * 
+ * LiquidFunProcessing | Copyright 2017 Thomas Diewald - www.thomasdiewald.com
+ * 
+ * https://github.com/diwi/LiquidFunProcessing.git
+ * 
+ * Box2d / LiquidFun Library for Processing.
+ * MIT License: https://opensource.org/licenses/MIT
+ * 
+ */
+
+
+package com.thomasdiewald.liquidfun.java.render;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+
+import org.jbox2d.dynamics.World;
+import org.jbox2d.particle.ParticleGroup;
+
+import com.thomasdiewald.liquidfun.java.DwUtils;
+
+
+/**
+ * 
+ * Incremental version of {@link DwParticleRender#generateParticleGroups()}.<br>
+ * <br>
+ * For each ParticleGroup the render-group indices of its particles are cached,
+ * together with its buffer-index, particle-count and group-flags. Only groups
+ * whose state changed since the last frame are passed to the callback again
+ * (once per particle).<br>
+ * If the number of particles per render-group did not change, the particle
+ * indices of a changed group are written in place, otherwise the index buffer
+ * is re-assembled from the cache. Nothing is done if no group changed.<br>
+ * <br>
+ * The callback is expected to return the same render-group for the same
+ * particle-index, group and flags. If it depends on anything else (e.g. the
+ * particle flags) call {@link #invalidate()} or {@link #invalidate(ParticleGroup)}.<br>
+ * 
+ * @author Thomas Diewald
+ * 
+ */
+public class DwParticleRenderGroupCache {
+
+  static protected class Entry {
+    int buffer_index = -1;
+    int count        = -1;
+    int flags        = 0;
+    int stamp        = 0;
+    boolean dirty    = true;
+
+    // render-group index, per particle
+    int[] rgroup = new int[0];
+
+    // number of particles, per render-group
+    int[] rgroup_lengths = new int[0];
+    int   rgroup_count = 0;
+
+    // position of the particle-indices in the index buffer, per render-group
+    int[] rgroup_offsets = new int[0];
+  }
+
+
+  protected IdentityHashMap<ParticleGroup, Entry> entries = new IdentityHashMap<ParticleGroup, Entry>();
+
+  // entries, in the order of the world's ParticleGroup list
+  protected ArrayList<Entry> entries_ordered = new ArrayList<Entry>();
+  protected ArrayList<Entry> entries_changed = new ArrayList<Entry>();
+
+  protected int stamp = 0;
+  protected int[] tmp_lengths = new int[0];
+  protected int[] tmp_cursor  = new int[0];
+
+  // stats of the last update
+  public int stat_groups_changed = 0;
+  public int stat_particles_changed = 0;
+  public boolean stat_relayout = false;
+
+
+
+  /**
+   * marks all groups as changed.
+   */
+  public void invalidate(){
+    entries.clear();
+    entries_ordered.clear();
+  }
+
+  /**
+   * marks the given group as changed.
+   */
+  public void invalidate(ParticleGroup group){
+    Entry entry = entries.get(group);
+    if(entry != null){
+      entry.dirty = true;
+    }
+  }
+
+
+
+  /**
+   * updates the render-groups (buf_idx, group_offsets, group_lengths, group_count)
+   * of the given renderer.
+   * 
+   * @return true, if buf_idx changed
+   */
+  public boolean update(DwParticleRender render, World world, DwParticleRenderGroupCallback prgc){
+
+    final int[] particle_flags = world.getParticleFlagsBuffer();
+
+    stamp++;
+    stat_groups_changed = 0;
+    stat_particles_changed = 0;
+
+    boolean relayout = false;
+    entries_changed.clear();
+
+    // 1) find changed groups, and update their render-group indices
+    int num = 0;
+    for(ParticleGroup pg = world.getParticleGroupList(); pg != null; pg = pg.getNext()){
+      Entry entry = entries.get(pg);
+      if(entry == null){
+        entry = new Entry();
+        entries.put(pg, entry);
+      }
+      entry.stamp = stamp;
+
+      if(num < entries_ordered.size()){
+        if(entries_ordered.get(num) != entry){
+          entries_ordered.set(num, entry);
+          relayout = true;
+        }
+      } else {
+        entries_ordered.add(entry);
+        relayout = true;
+      }
+      num++;
+
+      if(entry.dirty ||
+         entry.buffer_index != pg.getBufferIndex() ||
+         entry.count        != pg.getParticleCount() ||
+         entry.flags        != pg.getGroupFlags())
+      {
+        relayout |= evaluate(entry, pg, particle_flags, prgc);
+        entries_changed.add(entry);
+        stat_groups_changed++;
+        stat_particles_changed += entry.count;
+      }
+    }
+
+    // 2) removed groups
+    if(num < entries_ordered.size()){
+      while(entries_ordered.size() > num){
+        entries_ordered.remove(entries_ordered.size() - 1);
+      }
+      relayout = true;
+    }
+    if(relayout){
+      Iterator<Entry> iter = entries.values().iterator();
+      while(iter.hasNext()){
+        if(iter.next().stamp != stamp){
+          iter.remove();
+        }
+      }
+    }
+
+    stat_relayout = relayout;
+
+    // 3) update index buffer
+    if(relayout){
+      layout(render);
+      return true;
+    }
+
+    for(Entry entry : entries_changed){
+      write(render.buf_idx, entry);
+    }
+    return entries_changed.size() > 0;
+  }
+
+
+
+  /**
+   * re-evaluates the render-group of each particle of the given group.
+   * 
+   * @return true, if the number of particles per render-group changed.
+   */
+  protected boolean evaluate(Entry entry, ParticleGroup pg, int[] particle_flags, DwParticleRenderGroupCallback prgc){
+    entry.buffer_index = pg.getBufferIndex();
+    entry.count        = pg.getParticleCount();
+    entry.flags        = pg.getGroupFlags();
+    entry.dirty        = false;
+
+    entry.rgroup = DwUtils.resizeBuffer(entry.rgroup, entry.count);
+
+    // keep previous lengths, for comparison
+    int count_prev = entry.rgroup_count;
+    tmp_lengths = DwUtils.resizeBuffer(tmp_lengths, count_prev);
+    System.arraycopy(entry.rgroup_lengths, 0, tmp_lengths, 0, count_prev);
+
+    for(int i = 0; i < entry.rgroup_count; i++){
+      entry.rgroup_lengths[i] = 0;
+    }
+    entry.rgroup_count = 0;
+
+    for(int i = 0, idx = entry.buffer_index; i < entry.count; i++, idx++){
+      int rgroup = prgc.getRenderGroupIndex(idx, pg, particle_flags[idx]);
+      if(rgroup >= entry.rgroup_count){
+        if(entry.rgroup_lengths.length <= rgroup){
+          entry.rgroup_lengths = Arrays.copyOf(entry.rgroup_lengths, rgroup + 1);
+          entry.rgroup_offsets = Arrays.copyOf(entry.rgroup_offsets, rgroup + 1);
+        }
+        for(int j = entry.rgroup_count; j <= rgroup; j++){
+          entry.rgroup_lengths[j] = 0;
+        }
+        entry.rgroup_count = rgroup + 1;
+      }
+      entry.rgroup_lengths[rgroup]++;
+      entry.rgroup[i] = rgroup;
+    }
+
+    // compare lengths, trailing zeros don't matter
+    int max = Math.max(count_prev, entry.rgroup_count);
+    for(int i = 0; i < max; i++){
+      int len_prev = (i < count_prev        ) ? tmp_lengths[i]          : 0;
+      int len_curr = (i < entry.rgroup_count) ? entry.rgroup_lengths[i] : 0;
+      if(len_prev != len_curr){
+        return true;
+      }
+    }
+    return false;
+  }
+
+
+
+  /**
+   * re-assembles the whole index buffer from the cached entries.
+   * Same layout as {@link DwParticleRender#generateParticleGroups()}.
+   */
+  protected void layout(DwParticleRender render){
+
+    // number of render-groups
+    int group_count = 0;
+    for(Entry entry : entries_ordered){
+      group_count = Math.max(group_count, entry.rgroup_count);
+    }
+
+    render.group_offsets = DwUtils.resizeBuffer(render.group_offsets, group_count);
+    render.group_lengths = DwUtils.resizeBuffer(render.group_lengths, group_count);
+    render.group_count   = group_count;
+
+    // render-group offsets, and sub-offsets of each particle-group
+    int buf_idx_len = 0;
+    for(int i = 0; i < group_count; i++){
+      render.group_offsets[i] = buf_idx_len;
+      for(Entry entry : entries_ordered){
+        if(i < entry.rgroup_count){
+          entry.rgroup_offsets[i] = buf_idx_len;
+          buf_idx_len += entry.rgroup_lengths[i];
+        }
+      }
+      render.group_lengths[i] = buf_idx_len - render.group_offsets[i];
+    }
+
+    render.buf_idx = DwUtils.resizeBuffer(render.buf_idx, buf_idx_len);
+    render.buf_idx_len = buf_idx_len;
+
+    for(Entry entry : entries_ordered){
+      write(render.buf_idx, entry);
+    }
+  }
+
+
+
+  /**
+   * writes the particle-indices of the given entry into the index buffer.
+   */
+  protected void write(int[] buf_idx, Entry entry){
+    tmp_cursor = DwUtils.resizeBuffer(tmp_cursor, entry.rgroup_count);
+    System.arraycopy(entry.rgroup_offsets, 0, tmp_cursor, 0, entry.rgroup_count);
+
+    for(int i = 0, idx = entry.buffer_index; i < entry.count; i++, idx++){
+      buf_idx[tmp_cursor[entry.rgroup[i]]++] = idx;
+    }
+  }
+
+}
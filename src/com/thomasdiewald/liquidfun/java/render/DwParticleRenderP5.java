@@ -16,6 +16,7 @@ import org.jbox2d.dynamics.World;
 
 import com.thomasdiewald.liquidfun.java.DwUtils;
 import com.thomasdiewald.liquidfun.java.DwViewportTransform;
+import com.thomasdiewald.liquidfun.java.DwWorldSnapshot;
 
 import processing.core.PApplet;
 import processing.core.PConstants;
@@ -39,6 +40,10 @@ public class DwParticleRenderP5 extends DwParticleRender{
  
   public PShape shp_particles;
   
+  // culling: if at least this fraction of all particles is visible, all
+  // particles are drawn at once, which is faster than drawing each one
+  public float culling_ratio = 0.5f;
+  
   public DwParticleRenderP5(PApplet papplet, World world, DwViewportTransform transform){
     super(papplet, world, transform);
     shp_particles = papplet.createShape(PConstants.GROUP);
@@ -57,10 +62,23 @@ public class DwParticleRenderP5 extends DwParticleRender{
     updateShapesData();
   }
   
+  @Override
+  public void update(DwWorldSnapshot snapshot){
+    updateBuffers(snapshot);
+    updateShapesCount();
+    updateShapesData();
+  }
+  
   
   @Override
   public void display(PGraphics2D canvas){
 //    shp_particles.draw(canvas);
+    if(culling && particle_num > 0 && buf_vis_len < particle_num * culling_ratio){
+      for(int k = 0; k < buf_vis_len; k++){
+        canvas.shape(shp_particles.getChild(buf_vis[k]));
+      }
+      return;
+    }
     canvas.shape(shp_particles);
   }
   
@@ -0,0 +1,650 @@
+/**
+ * 
+ * LiquidFunProcessing | Copyright 2017 Thomas Diewald - www.thomasdiewald.com
+ * 
+ * https://github.com/diwi/LiquidFunProcessing.git
+ * 
+ * Box2d / LiquidFun Library for Processing.
+ * MIT License: https://opensource.org/licenses/MIT
+ * 
+ */
+
+
+package com.thomasdiewald.liquidfun.java.render;
+
+import java.util.Arrays;
+
+import org.jbox2d.common.Vec2;
+import org.jbox2d.dynamics.World;
+
+import com.thomasdiewald.liquidfun.java.DwUtils;
+
+import processing.core.PApplet;
+import processing.core.PConstants;
+import processing.core.PGraphics;
+import processing.core.PShape;
+
+
+/**
+ * 
+ * Fluid surface extraction, marching squares over a metaball field.<br>
+ * <br>
+ * Each particle adds (1 - d^2 / R^2)^2 to the grid-vertices within its kernel
+ * radius R. The field is only stored for touched tiles of 16 x 16 vertices
+ * (sparse tile hash), and marching squares only runs over the cells around
+ * touched vertices, so the cost depends on the number of particles, not on the
+ * size of the world.<br>
+ * <br>
+ * The resulting contours are closed polylines in world space, one set per
+ * render-group. Outer contours are counter-clockwise, holes are clockwise,
+ * so they can be filled with the nonzero winding rule, see {@link #display}.<br>
+ * <br>
+ * Contour data, flat: vertex [x, y] of contour c are verts[2 * i], for i in
+ * [contour_offsets[c], contour_offsets[c] + contour_lengths[c]).
+ * The contours of group g are [group_offsets[g], group_offsets[g] + group_lengths[g]).<br>
+ * 
+ * @author Thomas Diewald
+ * 
+ */
+public class DwParticleSurface {
+
+  // grid cell size, world units, 0: kernel radius
+  public float cell_size = 0;
+
+  // kernel radius, as multiple of the particle radius
+  public float kernel_scale = 2f;
+
+  // iso-level, 1 is the field value at the center of a single particle
+  public float iso = 0.5f;
+
+  // contours, world space
+  public int     verts_len = 0;
+  public float[] verts = new float[0];
+
+  public int   contour_num = 0;
+  public int[] contour_offsets = new int[0];
+  public int[] contour_lengths = new int[0];
+
+  public int   group_num = 0;
+  public int[] group_offsets = new int[0];
+  public int[] group_lengths = new int[0];
+
+  // stats, last update
+  public int stat_vertices = 0; // touched grid vertices
+  public int stat_cells    = 0; // processed cells
+  public float stat_time   = 0; // milliseconds
+
+  // current grid
+  protected float cell;
+  protected float kernel; // in cells
+
+  // sparse field: tiles of TILE x TILE vertices, tile key -> tile index
+  static protected final int TILE_SHIFT = 4;
+  static protected final int TILE = 1 << TILE_SHIFT;
+  static protected final int TILE_MASK = TILE - 1;
+  protected LongIntHash tile_hash = new LongIntHash();
+  protected float[] field = new float[0]; // [tile][TILE * TILE]
+  protected int  [] tile_x = new int[0];
+  protected int  [] tile_y = new int[0];
+  protected int     tile_num = 0;
+  
+  // last tile lookup
+  protected long last_tile_key = Long.MIN_VALUE;
+  protected int  last_tile = -1;
+  
+  // number of touched vertices
+  protected int field_len = 0;
+
+  // number of cells processed by marching squares
+  protected int cell_len = 0;
+
+  // segments: edge-key (from) -> segment
+  protected LongIntHash segment_hash = new LongIntHash();
+  protected long [] seg_from = new long[0];
+  protected long [] seg_to   = new long[0];
+  protected float[] seg_pos  = new float[0]; // [x, y] of the from-edge point
+  protected boolean[] seg_done = new boolean[0];
+  protected int     seg_len = 0;
+
+  // buffer, for update(World)
+  protected float[] buf_pos = new float[0];
+
+
+
+  //////////////////////////////////////////////////////////////////////////////
+  // Update
+  //////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * extracts the surface of all particles of the given world, as one group.
+   */
+  public void update(World world){
+    int num = world.getParticleCount();
+    Vec2[] pos = world.getParticlePositionBuffer();
+    buf_pos = DwUtils.resizeBuffer(buf_pos, num * 2);
+    for(int i = 0; i < num; i++){
+      buf_pos[i*2+0] = pos[i].x;
+      buf_pos[i*2+1] = pos[i].y;
+    }
+    update(buf_pos, null, 0, num, world.getParticleRadius());
+  }
+
+
+  /**
+   * extracts the surface from the render buffers, per render-group if groups
+   * are used, otherwise all particles as one group.
+   */
+  public void update(DwParticleRender render){
+    float radius = render.particle_rad_world / render.param.radius_scale;
+    if(render.USE_GROUPS && render.group_offsets != null){
+      begin(radius);
+      for(int g = 0; g < render.group_count; g++){
+        addGroup(render.buf_pos, render.buf_idx, render.group_offsets[g], render.group_lengths[g], render.particle_num);
+      }
+      end();
+    } else {
+      update(render.buf_pos, null, 0, render.particle_num, radius);
+    }
+  }
+
+
+  /**
+   * extracts the surface of one group of particles.
+   * 
+   * @param pos particle positions [x, y]
+   * @param idx particle indices, or null for [off, off + len)
+   * @param radius particle radius, world units
+   */
+  public void update(float[] pos, int[] idx, int off, int len, float radius){
+    begin(radius);
+    addGroup(pos, idx, off, len, Integer.MAX_VALUE);
+    end();
+  }
+
+
+  protected long timer;
+
+  protected void begin(float radius){
+    timer = System.nanoTime();
+    cell   = (cell_size > 0) ? cell_size : radius * kernel_scale;
+    kernel = Math.max(1e-3f, radius * kernel_scale / cell);
+    verts_len   = 0;
+    contour_num = 0;
+    group_num   = 0;
+    stat_vertices = 0;
+    stat_cells    = 0;
+  }
+
+  protected void end(){
+    stat_time = (System.nanoTime() - timer) * 1E-6f;
+  }
+
+
+  /**
+   * extracts the contours of the given particles, as a new group.
+   */
+  protected void addGroup(float[] pos, int[] idx, int off, int len, int particle_num){
+    if(group_num >= group_offsets.length){
+      group_offsets = Arrays.copyOf(group_offsets, group_num * 2 + 4);
+      group_lengths = Arrays.copyOf(group_lengths, group_num * 2 + 4);
+    }
+    group_offsets[group_num] = contour_num;
+
+    splatField(pos, idx, off, len, particle_num);
+    marchCells();
+    linkContours();
+
+    group_lengths[group_num] = contour_num - group_offsets[group_num];
+    group_num++;
+
+    stat_vertices += field_len;
+    stat_cells    += cell_len;
+  }
+
+
+  /**
+   * 1) metaball field, on the touched tiles only.
+   */
+  protected void splatField(float[] pos, int[] idx, int off, int len, int particle_num){
+    // reset the used tiles
+    Arrays.fill(field, 0, tile_num * TILE * TILE, 0);
+    tile_hash.clear();
+    tile_num = 0;
+    last_tile_key = Long.MIN_VALUE;
+    last_tile = -1;
+
+    final float r = kernel;
+    final float rr = r * r;
+    final float rr_inv = 1f / rr;
+    final float cell_inv = 1f / cell;
+
+    for(int k = off, end = off + len; k < end; k++){
+      int i = (idx != null) ? idx[k] : k;
+      if(i >= particle_num){
+        continue;
+      }
+      float px = pos[i*2+0] * cell_inv;
+      float py = pos[i*2+1] * cell_inv;
+      int x0 = (int) Math.ceil (px - r), x1 = (int) Math.floor(px + r);
+      int y0 = (int) Math.ceil (py - r), y1 = (int) Math.floor(py + r);
+      for(int y = y0; y <= y1; y++){
+        float dy = y - py;
+        float dyy = dy * dy;
+        for(int x = x0; x <= x1; x++){
+          float dx = x - px;
+          float dd = dx * dx + dyy;
+          if(dd >= rr){
+            continue;
+          }
+          float w = 1 - dd * rr_inv;
+          // tile first, it may resize the field
+          int v = getTile(x, y, true) + ((y & TILE_MASK) << TILE_SHIFT) + (x & TILE_MASK);
+          field[v] += w * w;
+        }
+      }
+    }
+  }
+
+
+  /**
+   * @return offset of the tile containing the given vertex in the field, or
+   * -1 if it doesn't exist (and create is false).
+   */
+  protected int getTile(int x, int y, boolean create){
+    int tx = x >> TILE_SHIFT;
+    int ty = y >> TILE_SHIFT;
+    long key = key(tx, ty);
+    if(key == last_tile_key){
+      return last_tile;
+    }
+    int t = tile_hash.get(key);
+    if(t == -1){
+      if(!create){
+        return -1;
+      }
+      t = addTile(tx, ty, key);
+    }
+    last_tile_key = key;
+    last_tile = t * TILE * TILE;
+    return last_tile;
+  }
+
+  protected int addTile(int tx, int ty, long key){
+    if(tile_num >= tile_x.length){
+      int size = tile_num * 2 + 64;
+      tile_x = Arrays.copyOf(tile_x, size);
+      tile_y = Arrays.copyOf(tile_y, size);
+      field  = Arrays.copyOf(field , size * TILE * TILE);
+    }
+    tile_x[tile_num] = tx;
+    tile_y[tile_num] = ty;
+    tile_hash.put(key, tile_num);
+    return tile_num++;
+  }
+
+  /**
+   * @return field value of the given vertex, 0 if untouched.
+   */
+  protected float getField(int x, int y){
+    int t = getTile(x, y, false);
+    return (t == -1) ? 0 : field[t + ((y & TILE_MASK) << TILE_SHIFT) + (x & TILE_MASK)];
+  }
+
+
+  // edges of a cell: 0 bottom, 1 right, 2 top, 3 left
+  // corners of a cell: 0 (x, y), 1 (x+1, y), 2 (x+1, y+1), 3 (x, y+1)
+  //
+  // segments per case [edge_from, edge_to, ...], inside is on the left
+  // (counter-clockwise around inside regions). Saddles (5, 10) have a second
+  // table, for an inside cell-center.
+  // edge midpoints, corner positions
+  static protected final float[][] EDGE_MID = {{0.5f, 0}, {1, 0.5f}, {0.5f, 1}, {0, 0.5f}};
+  static protected final float[][] CORNER   = {{0, 0}, {1, 0}, {1, 1}, {0, 1}};
+
+  static protected final int[][] CASES = new int[16][];
+  static protected final int[][] CASES_SADDLE_IN = new int[16][];
+
+  static {
+    int[][] edges = {
+        {}, {0,3}, {0,1}, {1,3}, {1,2}, {0,3, 1,2}, {0,2}, {2,3},
+        {2,3}, {0,2}, {0,1, 2,3}, {1,2}, {1,3}, {0,1}, {0,3}, {}
+    };
+    int[][] edges_saddle_in = new int[16][];
+    edges_saddle_in[ 5] = new int[]{0,1, 2,3};
+    edges_saddle_in[10] = new int[]{0,3, 1,2};
+
+    for(int c = 0; c < 16; c++){
+      CASES[c] = orient(c, edges[c]);
+      if(edges_saddle_in[c] != null){
+        CASES_SADDLE_IN[c] = orient(c, edges_saddle_in[c]);
+      }
+    }
+  }
+
+  /**
+   * orders each segment, so the inside corners are on its left.
+   */
+  static protected int[] orient(int c, int[] segs){
+    int[] out = segs.clone();
+    for(int s = 0; s < out.length; s += 2){
+      int ea = out[s], eb = out[s+1];
+      // corner, that is cut off by the segment: shared by both edges, or
+      // corner 0 for opposite edges
+      int corner = 0;
+      if(((ea + 2) & 3) != eb){
+        int a0 = ea, a1 = (ea + 1) & 3;
+        corner = (a0 == eb || a0 == ((eb + 1) & 3)) ? a0 : a1;
+      }
+      boolean inside = ((c >> corner) & 1) != 0;
+      float[] pa = EDGE_MID[ea], pb = EDGE_MID[eb], pc = CORNER[corner];
+      float cross = (pb[0] - pa[0]) * (pc[1] - pa[1]) - (pb[1] - pa[1]) * (pc[0] - pa[0]);
+      if((cross > 0) != inside){
+        out[s] = eb;
+        out[s+1] = ea;
+      }
+    }
+    return out;
+  }
+
+
+  /**
+   * 2) marching squares, over the cells around the touched vertices only.<br>
+   * Each cell is processed once: by its corner 0, if that vertex was touched,
+   * otherwise by its first inside corner. Untouched vertices are outside, so
+   * cells without any touched corner have no contour.<br>
+   * Segments are stored by their from-edge.
+   */
+  protected void marchCells(){
+    segment_hash.clear();
+    seg_len = 0;
+    cell_len = 0;
+    field_len = 0;
+
+    float[] val = new float[4];
+    for(int t = 0; t < tile_num; t++){
+      int x0 = tile_x[t] << TILE_SHIFT;
+      int y0 = tile_y[t] << TILE_SHIFT;
+      int offset = t * TILE * TILE;
+      for(int j = 0; j < TILE * TILE; j++){
+        float f = field[offset + j];
+        if(f == 0){
+          continue; // untouched
+        }
+        field_len++;
+        int vx = x0 + (j & TILE_MASK);
+        int vy = y0 + (j >> TILE_SHIFT);
+
+        // cell, with v as corner 0
+        marchCell(vx, vy, val);
+
+        if(f < iso){
+          continue;
+        }
+        // cells with v as corner 1, 2, 3, whose corner 0 is untouched
+        if(getField(vx - 1, vy    ) == 0) marchCell(vx - 1, vy    , val, 1);
+        if(getField(vx    , vy - 1) == 0) marchCell(vx    , vy - 1, val, 3);
+        if(getField(vx - 1, vy - 1) == 0) marchCell(vx - 1, vy - 1, val, 2);
+      }
+    }
+  }
+
+
+  /**
+   * marches the cell, if it wasn't processed already by an inside corner
+   * before the given one (order: 1, 3, 2).
+   */
+  protected void marchCell(int x, int y, float[] val, int corner){
+    val[1] = getField(x + 1, y    );
+    val[2] = getField(x + 1, y + 1);
+    val[3] = getField(x    , y + 1);
+    if(corner == 3 && val[1] >= iso) return;
+    if(corner == 2 && (val[1] >= iso || val[3] >= iso)) return;
+    val[0] = 0;
+    marchCase(x, y, val);
+  }
+
+  protected void marchCell(int x, int y, float[] val){
+    val[0] = getField(x    , y    );
+    val[1] = getField(x + 1, y    );
+    val[2] = getField(x + 1, y + 1);
+    val[3] = getField(x    , y + 1);
+    marchCase(x, y, val);
+  }
+
+  protected void marchCase(int x, int y, float[] val){
+    cell_len++;
+
+    int c = 0;
+    for(int i = 0; i < 4; i++){
+      if(val[i] >= iso) c |= 1 << i;
+    }
+
+    int[] segs = CASES[c];
+    if(c == 5 || c == 10){
+      float center = (val[0] + val[1] + val[2] + val[3]) * 0.25f;
+      if(center >= iso){
+        segs = CASES_SADDLE_IN[c];
+      }
+    }
+    for(int s = 0; s < segs.length; s += 2){
+      addSegment(x, y, val, segs[s], segs[s+1]);
+    }
+  }
+
+
+  protected void addSegment(int x, int y, float[] val, int edge_from, int edge_to){
+    if(seg_len >= seg_from.length){
+      int size = seg_len * 2 + 1024;
+      seg_from = Arrays.copyOf(seg_from, size);
+      seg_to   = Arrays.copyOf(seg_to  , size);
+      seg_pos  = Arrays.copyOf(seg_pos , size * 2);
+      seg_done = Arrays.copyOf(seg_done, size);
+    }
+    int s = seg_len++;
+    seg_from[s] = edgeKey(x, y, edge_from);
+    seg_to  [s] = edgeKey(x, y, edge_to);
+    seg_done[s] = false;
+
+    // iso-crossing on the from-edge, corners a -> b
+    int a = edge_from, b = (edge_from + 1) & 3;
+    if(edge_from >= 2){
+      // top: 3 -> 2, left: 0 -> 3
+      a = (edge_from == 2) ? 3 : 0;
+      b = (edge_from == 2) ? 2 : 3;
+    }
+    float va = val[a], vb = val[b];
+    float t = (vb != va) ? (iso - va) / (vb - va) : 0.5f;
+    t = Math.max(0, Math.min(1, t));
+    float px = CORNER[a][0] + (CORNER[b][0] - CORNER[a][0]) * t;
+    float py = CORNER[a][1] + (CORNER[b][1] - CORNER[a][1]) * t;
+    seg_pos[s*2+0] = (x + px) * cell;
+    seg_pos[s*2+1] = (y + py) * cell;
+
+    segment_hash.put(seg_from[s], s);
+  }
+
+
+  /**
+   * 3) links the segments into closed contours.
+   */
+  protected void linkContours(){
+    for(int s0 = 0; s0 < seg_len; s0++){
+      if(seg_done[s0]){
+        continue;
+      }
+      if(contour_num >= contour_offsets.length){
+        contour_offsets = Arrays.copyOf(contour_offsets, contour_num * 2 + 64);
+        contour_lengths = Arrays.copyOf(contour_lengths, contour_num * 2 + 64);
+      }
+      int begin = verts_len / 2;
+      int s = s0;
+      while(s != -1 && !seg_done[s]){
+        seg_done[s] = true;
+        addVertex(seg_pos[s*2+0], seg_pos[s*2+1]);
+        s = segment_hash.get(seg_to[s]);
+      }
+      int count = verts_len / 2 - begin;
+      if(count >= 3){
+        contour_offsets[contour_num] = begin;
+        contour_lengths[contour_num] = count;
+        contour_num++;
+      } else {
+        verts_len = begin * 2;
+      }
+    }
+  }
+
+  protected void addVertex(float x, float y){
+    if(verts_len + 2 > verts.length){
+      verts = Arrays.copyOf(verts, verts_len * 2 + 1024);
+    }
+    verts[verts_len++] = x;
+    verts[verts_len++] = y;
+  }
+
+
+
+  static protected long key(int x, int y){
+    return ((long) x << 32) ^ (y & 0xFFFFFFFFL);
+  }
+
+  /**
+   * unique key of a cell-edge: horizontal edges belong to their left vertex,
+   * vertical edges to their bottom vertex.
+   */
+  static protected long edgeKey(int x, int y, int edge){
+    switch(edge){
+      case 0 : return key(x    , y    ) << 1;
+      case 1 : return key(x + 1, y    ) << 1 | 1;
+      case 2 : return key(x    , y + 1) << 1;
+      default: return key(x    , y    ) << 1 | 1;
+    }
+  }
+
+
+
+  //////////////////////////////////////////////////////////////////////////////
+  // Output
+  //////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * draws the contours of all groups as one filled shape (nonzero winding),
+   * using the current style of the canvas.
+   */
+  public void display(PGraphics canvas){
+    for(int g = 0; g < group_num; g++){
+      display(canvas, g);
+    }
+  }
+
+  /**
+   * draws the contours of the given group as one filled shape.
+   */
+  public void display(PGraphics canvas, int group){
+    if(group < 0 || group >= group_num || group_lengths[group] == 0){
+      return;
+    }
+    canvas.beginShape();
+    for(int c = group_offsets[group], end = c + group_lengths[group]; c < end; c++){
+      canvas.beginContour();
+      for(int i = contour_offsets[c], i_end = i + contour_lengths[c]; i < i_end; i++){
+        canvas.vertex(verts[i*2+0], verts[i*2+1]);
+      }
+      canvas.endContour();
+    }
+    canvas.endShape(PConstants.CLOSE);
+  }
+
+
+  /**
+   * @return a PShape GROUP with one closed PATH per contour, e.g. for SVG export.
+   */
+  public PShape createShape(PApplet papplet){
+    PShape shape = papplet.createShape(PConstants.GROUP);
+    for(int c = 0; c < contour_num; c++){
+      PShape contour = papplet.createShape();
+      contour.beginShape();
+      for(int i = contour_offsets[c], i_end = i + contour_lengths[c]; i < i_end; i++){
+        contour.vertex(verts[i*2+0], verts[i*2+1]);
+      }
+      contour.endShape(PConstants.CLOSE);
+      shape.addChild(contour);
+    }
+    return shape;
+  }
+
+
+
+  //////////////////////////////////////////////////////////////////////////////
+  // Hash
+  //////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * open addressing hash map: long -> int, no boxing, cleared in O(size).
+   */
+  static protected class LongIntHash {
+
+    protected long[] keys = new long[1024];
+    protected int [] vals = new int [1024];
+    protected boolean[] used = new boolean[1024];
+    protected int[] slots = new int[1024];
+    protected int size = 0;
+    protected int mask = 1023;
+
+    public void clear(){
+      for(int i = 0; i < size; i++){
+        used[slots[i]] = false;
+      }
+      size = 0;
+    }
+
+    protected int slot(long key){
+      long h = key * 0x9E3779B97F4A7C15L;
+      return (int) (h ^ (h >>> 32)) & mask;
+    }
+
+    public int get(long key){
+      for(int i = slot(key); used[i]; i = (i + 1) & mask){
+        if(keys[i] == key) return vals[i];
+      }
+      return -1;
+    }
+
+    public void put(long key, int val){
+      if((size + 1) * 2 > keys.length){
+        grow();
+      }
+      int i = slot(key);
+      for(; used[i]; i = (i + 1) & mask){
+        if(keys[i] == key){
+          vals[i] = val;
+          return;
+        }
+      }
+      used[i] = true;
+      keys[i] = key;
+      vals[i] = val;
+      slots[size++] = i;
+    }
+
+    protected void grow(){
+      long[] keys_old = keys;
+      int [] vals_old = vals;
+      int [] slots_old = slots;
+      int size_old = size;
+
+      int capacity = keys.length * 2;
+      keys  = new long[capacity];
+      vals  = new int [capacity];
+      used  = new boolean[capacity];
+      slots = new int[capacity];
+      mask  = capacity - 1;
+      size  = 0;
+      for(int k = 0; k < size_old; k++){
+        int s = slots_old[k];
+        put(keys_old[s], vals_old[s]);
+      }
+    }
+  }
+
+}
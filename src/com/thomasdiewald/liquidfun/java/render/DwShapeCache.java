@@ -0,0 +1,94 @@
+/**
+ * 
+ * LiquidFunProcessing | Copyright 2017 Thomas Diewald - www.thomasdiewald.com
+ * 
+ * https://github.com/diwi/LiquidFunProcessing.git
+ * 
+ * Box2d / LiquidFun Library for Processing.
+ * MIT License: https://opensource.org/licenses/MIT
+ * 
+ */
+
+
+package com.thomasdiewald.liquidfun.java.render;
+
+import java.util.HashMap;
+
+import org.jbox2d.collision.shapes.Shape;
+
+import processing.core.PApplet;
+import processing.core.PShape;
+
+
+/**
+ * 
+ * Shared fixture-shapes, one PShape per geometry ({@link DwShapeKey}).<br>
+ * <br>
+ * All fixtures with identical geometry (same circle radius, same box size, ...)
+ * reference the same PShape, which is created and tessellated only once. Its
+ * style is disabled, so it is drawn with the style of the current instance,
+ * see {@link DwBodyGroup#useSharedShapes(boolean)}.<br>
+ * 
+ * @author Thomas Diewald
+ * 
+ */
+public class DwShapeCache {
+
+  public PApplet papplet;
+
+  protected HashMap<DwShapeKey, PShape> shapes = new HashMap<DwShapeKey, PShape>();
+
+  // lookup key, reused
+  protected DwShapeKey key = new DwShapeKey();
+
+  // stats, since the last reset
+  public int stat_hits   = 0;
+  public int stat_misses = 0;
+
+
+  public DwShapeCache(PApplet papplet){
+    this.papplet = papplet;
+  }
+
+
+  /**
+   * @return the shared PShape for the given geometry, or null if the
+   * shape-type is not supported.
+   */
+  public PShape get(Shape geometry){
+    if(key.set(geometry) == null){
+      return null;
+    }
+    PShape shape = shapes.get(key);
+    if(shape != null){
+      stat_hits++;
+      return shape;
+    }
+
+    shape = DwFixture.createShape(papplet, geometry);
+    if(shape != null){
+      shape.disableStyle();
+      shapes.put(key.copy(), shape);
+    }
+    stat_misses++;
+    return shape;
+  }
+
+
+  /**
+   * @return number of shared PShapes
+   */
+  public int size(){
+    return shapes.size();
+  }
+
+  public void resetStats(){
+    stat_hits   = 0;
+    stat_misses = 0;
+  }
+
+  public void clear(){
+    shapes.clear();
+  }
+
+}
@@ -0,0 +1,138 @@
+/**
+ * 
+ * LiquidFunProcessing | Copyright 2017 Thomas Diewald - www.thomasdiewald.com
+ * 
+ * https://github.com/diwi/LiquidFunProcessing.git
+ * 
+ * Box2d / LiquidFun Library for Processing.
+ * MIT License: https://opensource.org/licenses/MIT
+ * 
+ */
+
+
+package com.thomasdiewald.liquidfun.java.render;
+
+import java.util.Arrays;
+
+import org.jbox2d.collision.shapes.ChainShape;
+import org.jbox2d.collision.shapes.CircleShape;
+import org.jbox2d.collision.shapes.EdgeShape;
+import org.jbox2d.collision.shapes.PolygonShape;
+import org.jbox2d.collision.shapes.Shape;
+import org.jbox2d.collision.shapes.ShapeType;
+import org.jbox2d.common.Vec2;
+
+
+/**
+ * 
+ * HashMap-key for the geometry of a fixture-shape: shape-type and
+ * vertices/radius.<br>
+ * Two fixtures with equal keys produce identical PShapes.<br>
+ * <br>
+ * The key is mutable, so one instance can be reused for lookups, and only a
+ * {@link #copy()} is stored in the map.<br>
+ * 
+ * @author Thomas Diewald
+ * 
+ */
+public class DwShapeKey {
+
+  public ShapeType type = null;
+  public float[] data = new float[16];
+  public int data_len = 0;
+
+  protected int hash = 0;
+
+
+  /**
+   * @return this, or null if the shape-type is not supported.
+   */
+  public DwShapeKey set(Shape shape){
+    type = shape.getType();
+    data_len = 0;
+
+    if(ShapeType.POLYGON == type){
+      PolygonShape shp_polygon = (PolygonShape) shape;
+      add(shp_polygon.m_vertices, shp_polygon.m_count);
+    }
+    else if(ShapeType.CIRCLE == type){
+      CircleShape shp_circle = (CircleShape) shape;
+      add(shp_circle.m_radius);
+      add(shp_circle.m_p.x);
+      add(shp_circle.m_p.y);
+    }
+    else if(ShapeType.CHAIN == type){
+      ChainShape shp_chain = (ChainShape) shape;
+      add(shp_chain.m_vertices, shp_chain.m_count);
+    }
+    else if(ShapeType.EDGE == type){
+      EdgeShape shp_edge = (EdgeShape) shape;
+      add(shp_edge.m_vertex1.x);
+      add(shp_edge.m_vertex1.y);
+      add(shp_edge.m_vertex2.x);
+      add(shp_edge.m_vertex2.y);
+    }
+    else {
+      type = null;
+      return null;
+    }
+
+    hash = type.hashCode() * 31 + hashData();
+    return this;
+  }
+
+  protected void add(Vec2[] verts, int count){
+    for(int i = 0; i < count; i++){
+      add(verts[i].x);
+      add(verts[i].y);
+    }
+  }
+
+  protected void add(float val){
+    if(data_len >= data.length){
+      data = Arrays.copyOf(data, data.length * 2);
+    }
+    data[data_len++] = val;
+  }
+
+  protected int hashData(){
+    int h = data_len;
+    for(int i = 0; i < data_len; i++){
+      h = h * 31 + Float.floatToIntBits(data[i]);
+    }
+    return h;
+  }
+
+
+  public DwShapeKey copy(){
+    DwShapeKey key = new DwShapeKey();
+    key.type = type;
+    key.data = Arrays.copyOf(data, data_len);
+    key.data_len = data_len;
+    key.hash = hash;
+    return key;
+  }
+
+
+  @Override
+  public int hashCode(){
+    return hash;
+  }
+
+  @Override
+  public boolean equals(Object obj){
+    if(this == obj) return true;
+    if(!(obj instanceof DwShapeKey)) return false;
+    DwShapeKey other = (DwShapeKey) obj;
+    if(hash != other.hash || type != other.type || data_len != other.data_len){
+      return false;
+    }
+    for(int i = 0; i < data_len; i++){
+      if(Float.floatToIntBits(data[i]) != Float.floatToIntBits(other.data[i])){
+        return false;
+      }
+    }
+    return true;
+  }
+
+}
@@ -0,0 +1,144 @@
+/**
+ * 
+ * LiquidFunProcessing | Copyright 2017 Thomas Diewald - www.thomasdiewald.com
+ * 
+ * https://github.com/diwi/LiquidFunProcessing.git
+ * 
+ * Box2d / LiquidFun Library for Processing.
+ * MIT License: https://opensource.org/licenses/MIT
+ * 
+ */
+
+
+package com.thomasdiewald.liquidfun.java.render;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+
+import com.jogamp.opengl.GL;
+import com.thomasdiewald.liquidfun.java.DwUtils;
+
+
+/**
+ * 
+ * Vertex buffer for streaming data that changes every frame.<br>
+ * <br>
+ * The data is packed into a native-order direct ByteBuffer (no GL needed for
+ * that), and then uploaded into the next region of a ring of buffer regions
+ * via glBufferSubData. The storage of the VBO is only re-specified when it needs
+ * to grow, so there is no copy by JOGL and no orphaning by the driver.<br>
+ * <br>
+ * When rendering, use {@link #offset} as the attribute-pointer offset.<br>
+ * 
+ * @author Thomas Diewald
+ * 
+ */
+public class DwStreamVBO {
+
+  // number of regions in the ring
+  public int ring_size = 3;
+
+  // GL: VBO HANDLE
+  public int[] HANDLE_vbo = {0};
+
+  // staging buffer, native byte order
+  public ByteBuffer data = DwUtils.resizeBuffer((ByteBuffer) null, 0);
+  public int data_len = 0; // bytes
+
+  // byte-size of one ring region
+  public int region_size = 0;
+  public int region_idx  = 0;
+
+  // byte-offset of the last uploaded region
+  public int offset = 0;
+
+  protected FloatBuffer data_f32 = data.asFloatBuffer();
+  protected IntBuffer   data_i32 = data.asIntBuffer();
+
+
+
+  //////////////////////////////////////////////////////////////////////////////
+  // CPU packing
+  //////////////////////////////////////////////////////////////////////////////
+
+  protected void resize(int bytes){
+    if(data.capacity() < bytes){
+      data = DwUtils.resizeBuffer(data, bytes);
+      data_f32 = data.asFloatBuffer();
+      data_i32 = data.asIntBuffer();
+    }
+    data_len = bytes;
+  }
+
+  public DwStreamVBO put(float[] src, int len){
+    resize(len * 4);
+    data_f32.clear();
+    data_f32.put(src, 0, len);
+    data.clear().limit(data_len);
+    return this;
+  }
+
+  public DwStreamVBO put(int[] src, int len){
+    resize(len * 4);
+    data_i32.clear();
+    data_i32.put(src, 0, len);
+    data.clear().limit(data_len);
+    return this;
+  }
+
+  public DwStreamVBO put(byte[] src, int len){
+    resize(len);
+    data.clear();
+    data.put(src, 0, len);
+    data.flip();
+    return this;
+  }
+
+
+
+  //////////////////////////////////////////////////////////////////////////////
+  // GL upload
+  //////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * uploads the packed data into the next ring region.
+   * @return byte-offset of the region
+   */
+  public int upload(GL gl, int target){
+    if(HANDLE_vbo[0] == 0){
+      gl.glGenBuffers(1, HANDLE_vbo, 0);
+    }
+
+    gl.glBindBuffer(target, HANDLE_vbo[0]);
+
+    // (re)allocate storage, only if it needs to grow
+    if(region_size < data_len){
+      region_size = (int) Math.ceil(data_len * 1.5f);
+      region_size = (region_size + 255) & ~255; // alignment
+      gl.glBufferData(target, (long) region_size * ring_size, null, GL.GL_DYNAMIC_DRAW);
+      region_idx = ring_size - 1;
+    }
+
+    region_idx = (region_idx + 1) % ring_size;
+    offset = region_idx * region_size;
+
+    if(data_len > 0){
+      gl.glBufferSubData(target, offset, data_len, data);
+    }
+    gl.glBindBuffer(target, 0);
+    return offset;
+  }
+
+
+  public void release(GL gl){
+    if(HANDLE_vbo[0] != 0){
+      gl.glDeleteBuffers(1, HANDLE_vbo, 0);
+      HANDLE_vbo[0] = 0;
+    }
+    region_size = 0;
+    region_idx = 0;
+    offset = 0;
+  }
+
+}
@@ -13,6 +13,8 @@
 
 package com.thomasdiewald.liquidfun.java.render;
 
+import java.nio.ByteBuffer;
+
 public class ShapeStyle {
 
   boolean fill_enabled   = true;
@@ -51,6 +53,34 @@ public class ShapeStyle {
     return this;
   }
   
+  public ShapeStyle set(ShapeStyle style){
+    return set(style.fill_enabled, style.fill_color, style.stroke_enabled, style.stroke_color, style.stroke_weight);
+  }
+  
+  
+  /**
+   * writes this style to the buffer, 14 bytes, see {@link #read(ByteBuffer)}.
+   */
+  public void write(ByteBuffer buf){
+    buf.put((byte) (fill_enabled   ? 1 : 0));
+    buf.putInt(fill_color);
+    buf.put((byte) (stroke_enabled ? 1 : 0));
+    buf.putInt(stroke_color);
+    buf.putFloat(stroke_weight);
+  }
+  
+  /**
+   * reads a style, previously written by {@link #write(ByteBuffer)}.
+   */
+  public ShapeStyle read(ByteBuffer buf){
+    fill_enabled   = buf.get() != 0;
+    fill_color     = buf.getInt();
+    stroke_enabled = buf.get() != 0;
+    stroke_color   = buf.getInt();
+    stroke_weight  = buf.getFloat();
+    return this;
+  }
+  
 
   
  